@@ -0,0 +1,31 @@
+package youtubebot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** Фикстуры бенчмарков из src/jmh/resources/fixtures */
+final class Fixtures {
+
+    /** Вывод yt-dlp --dump-json для обычного музыкального клипа (~330 KB) */
+    static final String DUMP_JSON = "dump-json.json";
+
+    /** Тела webhook: ссылка в личке, нажатие кнопки формата, команда в группе */
+    static final String[] UPDATES = {"update-link.json", "update-callback.json", "update-group.json"};
+
+    private Fixtures() {}
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new IllegalStateException("fixture not found: " + name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String text(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8);
+    }
+}
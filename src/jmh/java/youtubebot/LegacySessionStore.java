@@ -0,0 +1,35 @@
+package youtubebot;
+
+import youtubebot.model.UserSession;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Прежний SessionStore — точка отсчёта для SessionStoreBenchmark:
+ * ConcurrentHashMap с Long-ключами и чистка полным обходом раз в 15 минут.
+ */
+final class LegacySessionStore {
+
+    private final ConcurrentHashMap<Long, UserSession> sessions = new ConcurrentHashMap<>();
+
+    void put(UserSession session) {
+        sessions.put(session.chatId(), session);
+    }
+
+    UserSession get(long chatId) {
+        return sessions.get(chatId);
+    }
+
+    void remove(long chatId) {
+        sessions.remove(chatId);
+    }
+
+    /** То, что делал планировщик: обход всей карты */
+    int removeExpired() {
+        int removed = 0;
+        for (UserSession session : sessions.values()) {
+            if (session.isExpired() && sessions.remove(session.chatId(), session)) removed++;
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,49 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import youtubebot.model.VideoInfo;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор --dump-json: потоковый MetadataParser против дерева JsonNode,
+ * которое строилось раньше. Оба читают байты, как из stdout процесса.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MetadataParserBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] dumpJson;
+
+    @Setup
+    public void setUp() {
+        dumpJson = Fixtures.bytes(Fixtures.DUMP_JSON);
+    }
+
+    @Benchmark
+    public VideoInfo streaming() throws Exception {
+        return MetadataParser.parse(new ByteArrayInputStream(dumpJson));
+    }
+
+    @Benchmark
+    public JsonNode tree() throws Exception {
+        return mapper.readTree(new ByteArrayInputStream(dumpJson));
+    }
+}
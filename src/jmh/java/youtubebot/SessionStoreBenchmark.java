@@ -0,0 +1,145 @@
+package youtubebot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import youtubebot.model.UserSession;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionStore (long-ключи, timing wheel) против прежнего ConcurrentHashMap
+ * на миллионе сессий.
+ *
+ *  - get / put — задержка операций из обработчика update, 4 потока;
+ *  - sweep — цена одного прохода чистки: у прежнего это обход всей карты,
+ *    у нового — один тик колеса;
+ *  - fill — сколько памяти уходит на структуру для 1M сессий: сами
+ *    UserSession созданы заранее, поэтому gc.alloc.rate.norm (-prof gc)
+ *    показывает только накладные расходы хранилища (с учётом роста таблиц).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx2g"})
+public class SessionStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Stores {
+        @Param({"legacy", "wheel"})
+        public String impl;
+
+        @Param({"1000000"})
+        public int sessions;
+
+        UserSession[]      prepared;
+        LegacySessionStore legacy;
+        SessionStore       wheel;
+        long               now;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            prepared = new UserSession[sessions];
+            var random = new SplittableRandom(7);
+            for (int i = 0; i < sessions; i++) {
+                // Похоже на реальные ID: личные чаты положительные, группы -100…
+                long chatId = random.nextInt(10) == 0
+                        ? -1_000_000_000_000L - random.nextLong(1_000_000_000L)
+                        : 100_000_000L + random.nextLong(7_000_000_000L);
+                prepared[i] = new UserSession(chatId, "https://youtu.be/dQw4w9WgXcQ", null);
+            }
+            now = System.currentTimeMillis();
+            if (impl.equals("legacy")) {
+                legacy = new LegacySessionStore();
+                for (UserSession s : prepared) legacy.put(s);
+            } else {
+                wheel = new SessionStore(() -> now);
+                for (UserSession s : prepared) wheel.put(s);
+            }
+        }
+
+        UserSession get(long chatId) {
+            return legacy != null ? legacy.get(chatId) : wheel.get(chatId);
+        }
+
+        void put(UserSession session) {
+            if (legacy != null) legacy.put(session);
+            else wheel.put(session);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserSession get(Stores stores, Cursor cursor) {
+        return stores.get(stores.prepared[cursor.next(stores.sessions)].chatId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void put(Stores stores, Cursor cursor) {
+        stores.put(stores.prepared[cursor.next(stores.sessions)]);
+    }
+
+    /** Один проход чистки; сессии свежие, поэтому ничего не удаляется — меряется сам поиск */
+    @Benchmark
+    public int sweep(Stores stores) {
+        if (stores.legacy != null) return stores.legacy.removeExpired();
+        stores.now += 1000;
+        stores.wheel.advance();
+        return 0;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Prepared {
+        @Param({"legacy", "wheel"})
+        public String impl;
+
+        UserSession[] sessions;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sessions = new UserSession[1_000_000];
+            var random = new SplittableRandom(7);
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i] = new UserSession(100_000_000L + random.nextLong(7_000_000_000L), "u", null);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public Object fill(Prepared prepared) {
+        if (prepared.impl.equals("legacy")) {
+            var store = new LegacySessionStore();
+            for (UserSession s : prepared.sessions) store.put(s);
+            return store;
+        }
+        var store = new SessionStore(System::currentTimeMillis);
+        for (UserSession s : prepared.sessions) store.put(s);
+        return store;
+    }
+}
@@ -0,0 +1,49 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Путь входящего update: разбор тела webhook в JsonNode (как в UpdateDispatcher)
+ * и выбор чата, в очередь которого он попадёт.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class UpdateParsingBenchmark {
+
+    @Param({"update-link.json", "update-callback.json", "update-group.json"})
+    public String fixture;
+
+    private final ObjectMapper json = new ObjectMapper();
+    private String body;
+
+    @Setup
+    public void setUp() {
+        body = Fixtures.text(fixture);
+    }
+
+    @Benchmark
+    public long parseAndRoute(Blackhole bh) throws Exception {
+        JsonNode update = json.readTree(body);
+        bh.consume(update.has("message"));
+        return UpdateDispatcher.chatIdOf(update);
+    }
+}
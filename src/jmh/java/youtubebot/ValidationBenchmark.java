@@ -0,0 +1,85 @@
+package youtubebot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.VideoInfo;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Работа на каждое сообщение и каждый показ кнопок: валидация ссылки
+ * (регулярка + new URI), экранирование названия для Markdown и выбор
+ * формата по оценке размера.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ValidationBenchmark {
+
+    /** Ссылки, которые реально присылают: обычная, короткая, с плейлистом, чужая, мусор */
+    private static final String[] URLS = {
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ?si=Xk3b9L2mQ7pR1sT0",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ&list=RDdQw4w9WgXcQ&start_radio=1",
+            "https://vimeo.com/76979871",
+            "привет, скачай мне песню",
+    };
+
+    private int    next;
+    private String title;
+
+    @Setup
+    public void setUp() throws Exception {
+        title = MetadataParser.parse(new ByteArrayInputStream(Fixtures.bytes(Fixtures.DUMP_JSON))).title();
+    }
+
+    /** Видео для выбора формата: клип, подкаст, лекция на 2.5 часа */
+    @State(Scope.Benchmark)
+    public static class Video {
+        @Param({"213", "3600", "9000"})
+        public long durationSeconds;
+
+        VideoInfo info;
+
+        @Setup
+        public void setUp() {
+            info = new VideoInfo("Fixture", durationSeconds, "webm", "opus", 135, -1);
+        }
+    }
+
+    @Benchmark
+    public boolean isValidYouTubeUrl() {
+        String url = URLS[next];
+        next = (next + 1) % URLS.length;
+        return DownloadWorker.isYouTubeUrl(url);
+    }
+
+    @Benchmark
+    public String escapeMarkdown() {
+        return BotHandler.escapeMarkdown(title);
+    }
+
+    @Benchmark
+    public AudioFormat selectFor(Video video) {
+        return AudioFormat.selectFor(video.info, 50L * 1024 * 1024);
+    }
+
+    @Benchmark
+    public long estimateSizeBytes(Video video) {
+        return AudioFormat.OPUS_64.estimateSizeBytes(video.info.durationSeconds(), video.info.audioBitrateKbps());
+    }
+}
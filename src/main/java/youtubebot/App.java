@@ -16,7 +16,7 @@ public class App {
 
     private static final Logger log = LoggerFactory.getLogger(App.class);
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         var config = AppConfig.fromEnv();
         config.validate();
 
@@ -28,13 +28,7 @@ public class App {
                 Files.createDirectories(cookiesFile.getParent());
                 Files.write(cookiesFile, Base64.getDecoder().decode(cookiesB64));
                 log.info("Cookies file written to {}", cookiesFile);
-                config = new AppConfig(
-                        config.botToken(), config.botUsername(), config.adminChatIds(),
-                        config.webhookUrl(), config.port(), config.tempDir(),
-                        config.ytDlpPath(), config.ffmpegPath(),
-                        config.maxFileSizeBytes(), config.downloadTimeoutSeconds(),
-                        cookiesFile.toString()
-                );
+                config = config.withCookiesFile(cookiesFile.toString());
             } catch (Exception e) {
                 log.error("Failed to write cookies file: {}", e.getMessage());
             }
@@ -43,12 +37,65 @@ public class App {
 
 
         // Сборка зависимостей
-        var telegramClient = new TelegramClient(config.botToken());
+        var metrics        = new Metrics();
+        var telegramClient = new TelegramClient(config);
         var sessionStore   = new SessionStore();
         var ytDlpUpdater   = new YtDlpUpdater(config.ytDlpPath());
-        var downloadWorker = new DownloadWorker(config, telegramClient);
+        // В кластере очередь задач и готовые файлы лежат в общей директории узлов
+        var clusterQueue   = config.isClustered()
+                ? new ClusterQueue(Path.of(config.clusterDir()), config.nodeId(), config.clusterLeaseSeconds())
+                : null;
+        var audioCache     = config.isClustered()
+                ? new AudioCache(Path.of(config.clusterDir(), "cache"), config.audioCacheMaxBytes(), true)
+                : new AudioCache(Path.of(config.tempDir(), "cache"), config.audioCacheMaxBytes());
+        var fileIdIndex    = new FileIdIndex(Path.of(config.tempDir(), "file_ids.txt"));
+        var ytDlpPool      = new YtDlpDaemonPool(config);
+        var jobJournal     = new JobJournal(Path.of(config.tempDir(), "jobs.journal"));
+        var downloadWorker = new DownloadWorker(config, telegramClient, audioCache, fileIdIndex, ytDlpPool,
+                                                metrics, jobJournal, clusterQueue);
         var botHandler     = new BotHandler(config, telegramClient, sessionStore, downloadWorker);
-        var webHandler     = new WebHandler(config, sessionStore, downloadWorker);
+        var webHandler     = new WebHandler(config, downloadWorker);
+
+        // Текущее состояние компонентов — читается при каждом запросе /metrics
+        var tempDir = Path.of(config.tempDir());
+        var updates = botHandler.updates();
+        metrics.gauge("active_processes{kind=\"download\"}", "Running external processes",
+                        () -> downloadWorker.downloadLimiter().active())
+               .gauge("active_processes{kind=\"transcode\"}", "Running external processes",
+                        () -> downloadWorker.transcodeLimiter().active())
+               .gauge("process_queue_depth{kind=\"download\"}", "Jobs waiting for a process slot",
+                        () -> downloadWorker.downloadLimiter().queued())
+               .gauge("process_queue_depth{kind=\"transcode\"}", "Jobs waiting for a process slot",
+                        () -> downloadWorker.transcodeLimiter().queued())
+               .gauge("update_queue_depth", "Accepted updates not processed yet", updates::depth)
+               .gauge("outbound_queue_depth", "Bot API calls waiting to be sent",
+                        () -> telegramClient.outbound().pending())
+               .gauge("sessions", "Live user sessions", sessionStore::size)
+               .gauge("temp_dir_bytes", "Bytes in TEMP_DIR including the audio cache",
+                        () -> Metrics.directoryBytes(tempDir))
+               .gauge("audio_cache_bytes", "Bytes in the audio cache", audioCache::totalBytes)
+               .gauge("ytdlp_workers", "Live yt-dlp worker processes", ytDlpPool::liveWorkers)
+               .gauge("web_active_jobs", "Web API jobs not finished yet", webHandler::activeJobs)
+               .gauge("journal_unfinished_jobs", "Jobs in the journal that are not done yet", jobJournal::pending)
+               .counter("telegram_rate_limited_total", "Bot API 429 responses",
+                        () -> telegramClient.outbound().rateLimited())
+               .counter("updates_rejected_total", "Updates rejected because the queue was full",
+                        updates::rejected)
+               .counter("metadata_cache_hits_total", "Metadata served from cache",
+                        () -> downloadWorker.metadataCache().hits());
+
+        if (clusterQueue != null) {
+            metrics.gauge("cluster_pending_jobs", "Jobs waiting in the shared queue", clusterQueue::pendingJobs)
+                   .gauge("cluster_claimed_jobs", "Shared queue jobs running on this node", clusterQueue::claimedJobs)
+                   .gauge("cluster_nodes", "Nodes with a fresh heartbeat", clusterQueue::liveNodes);
+        }
+
+        // Истёкшая сессия — её фоновая предзагрузка больше не нужна
+        sessionStore.onExpired(downloadWorker::cancelPrefetch);
+        sessionStore.start();
+
+        // Воркеры держат в памяти старый yt-dlp — после обновления пересоздаём
+        ytDlpUpdater.onUpdated(ytDlpPool::recycleAll);
 
         // Обновляем yt-dlp при старте, не блокируя запуск сервера
         Thread.ofVirtual().start(ytDlpUpdater::checkAndUpdate);
@@ -62,29 +109,51 @@ public class App {
             cfg.bundledPlugins.enableCors(cors -> cors.addRule(it -> it.anyHost()));
         });
 
-        // Telegram webhook
-        app.post("/webhook", botHandler::onUpdate);
+        // Telegram webhook; в режиме polling updates забирает UpdatePoller
+        if (!config.isPolling()) {
+            app.post("/webhook", botHandler::onUpdate);
+        }
 
         // REST API для веб-версии
         app.post("/api/download",      webHandler::startDownload);
         app.get("/api/status/{id}",    webHandler::getStatus);
+        app.sse("/api/events/{id}",    webHandler::events);
+        app.get("/api/file/{token}",   webHandler::getFile);
 
-        // Healthcheck для Railway
+        // Healthcheck для Railway и метрики для Prometheus
         app.get("/health", ctx -> ctx.result("OK"));
+        app.get("/metrics", metrics::handle);
 
         app.start(config.port());
 
-        // Регистрируем webhook в Telegram
-        telegramClient.setWebhook(config.webhookUrl() + "/webhook");
+        // Регистрируем webhook в Telegram или начинаем забирать updates сами
+        var poller = config.isPolling() ? new UpdatePoller(config, botHandler.updates()) : null;
+        if (poller != null) {
+            poller.start();
+        } else {
+            telegramClient.setWebhook(config.webhookUrl() + "/webhook");
+        }
 
         log.info("Bot started on port {}", config.port());
 
+        // Задачи, прерванные прошлой остановкой или падением
+        downloadWorker.resumeUnfinished();
+        downloadWorker.joinCluster();
+
         // Graceful shutdown
         Runtime.getRuntime().addShutdownHook(Thread.ofVirtual().unstarted(() -> {
             log.info("Shutting down...");
+            if (poller != null) poller.shutdown();
             app.stop();
-            downloadWorker.shutdown();
+            webHandler.shutdown();
+            downloadWorker.shutdown();     // ждёт идущие загрузки до SHUTDOWN_GRACE_SECONDS
+            jobJournal.close();            // checkpoint: в журнале остаются только незавершённые
+            if (clusterQueue != null) clusterQueue.close();   // недоделанное — обратно в общую очередь
+            ytDlpPool.shutdown();
             ytDlpUpdater.shutdown();
+            botHandler.shutdown();
+            sessionStore.shutdown();
+            telegramClient.shutdown();
         }));
     }
 }
@@ -23,24 +23,95 @@ public record AppConfig(
         String  ffmpegPath,
         long    maxFileSizeBytes,
         int     downloadTimeoutSeconds,
-        String cookiesFile      // путь к файлу cookies, null если не задан
+        String cookiesFile,     // путь к файлу cookies, null если не задан
+        long    audioCacheMaxBytes, // бюджет кэша готовых файлов, 0 — кэш выключен
+        int     metadataCacheTtlSeconds,
+        int     metadataCacheMaxEntries,
+        int     maxConcurrentDownloads,   // 0 — посчитать по ресурсам контейнера
+        int     maxConcurrentTranscodes,  // 0 — посчитать по ресурсам контейнера
+        int     ytDlpWorkers,             // долгоживущих процессов yt-dlp, 0 — только one-shot
+        int     ytDlpWorkerMaxJobs,
+        int     ytDlpWorkerMaxRssMb,
+        String  ytDlpWorkerCommand,       // своя команда воркера (например, фейк), null — ytdlp_worker.py
+        boolean speculativePrefetch,      // качать оригинал, пока пользователь выбирает формат
+        boolean streamingUpload,          // yt-dlp → ffmpeg → Telegram без временных файлов
+        String  botApiUrl,                // адрес Bot API без /bot<token>
+        boolean directUpload,             // sendAudio своим multipart через FileChannel.transferTo
+        boolean localBotApi,              // свой telegram-bot-api --local: файлы отдаются путём, лимит 2000 MB
+        int     updateQueueCapacity,      // сколько входящих updates может ждать обработки
+        String  updateMode,               // webhook или polling
+        int     progressIntervalSeconds,  // как часто править статус с процентом, 0 — не показывать
+        int     shutdownGraceSeconds,     // сколько ждать идущие загрузки при остановке
+        String  clusterDir,               // общая директория узлов (очередь и кэш), null — один узел
+        String  nodeId,                   // имя этого узла в общей директории
+        int     clusterLeaseSeconds,      // через сколько без heartbeat задачу узла отдают другим
+        int     batchParallelism,         // сколько видео одного списка готовятся одновременно
+        int     batchMaxItems,            // сколько видео берётся из плейлиста или сообщения
+        int     webFileTtlSeconds         // сколько живёт ссылка на готовый файл веб-версии
 
 ) {
     private static final Logger log = LoggerFactory.getLogger(AppConfig.class);
 
+    public static final String MODE_WEBHOOK = "webhook";
+    public static final String MODE_POLLING = "polling";
+
     public static AppConfig fromEnv() {
+        String updateMode = getEnv("UPDATE_MODE", MODE_WEBHOOK).toLowerCase();
+        boolean localBotApi = Boolean.parseBoolean(getEnv("LOCAL_BOT_API", "false"));
+        // Локальный сервер принимает файлы до 2000 MB, публичный Bot API — до 50 MB
+        long maxFileSize = (localBotApi ? 2000L : 50L) * 1024 * 1024;
         return new AppConfig(
                 requireEnv("BOT_TOKEN"),
                 requireEnv("BOT_USERNAME"),
                 parseAdminIds(getEnv("BOT_ADMIN_CHATIDS", "")),
-                requireEnv("WEBHOOK_URL"),
+                // В режиме polling webhook не регистрируется — адрес не нужен
+                MODE_POLLING.equals(updateMode) ? getEnv("WEBHOOK_URL", null) : requireEnv("WEBHOOK_URL"),
                 Integer.parseInt(getEnv("PORT", "8080")),
                 getEnv("TEMP_DIR", "/app/temp"),
                 getEnv("YT_DLP_PATH", "/app/bin/yt-dlp"),
                 getEnv("FFMPEG_PATH", "ffmpeg"),
-                Long.parseLong(getEnv("MAX_FILE_SIZE_BYTES", String.valueOf(50L * 1024 * 1024))),
+                Long.parseLong(getEnv("MAX_FILE_SIZE_BYTES", String.valueOf(maxFileSize))),
                 Integer.parseInt(getEnv("DOWNLOAD_TIMEOUT_SECONDS", "600")),
-                getEnv("COOKIES_FILE", null)
+                getEnv("COOKIES_FILE", null),
+                Long.parseLong(getEnv("AUDIO_CACHE_MAX_BYTES", String.valueOf(1024L * 1024 * 1024))),
+                Integer.parseInt(getEnv("METADATA_CACHE_TTL_SECONDS", "600")),
+                Integer.parseInt(getEnv("METADATA_CACHE_MAX_ENTRIES", "1000")),
+                Integer.parseInt(getEnv("MAX_CONCURRENT_DOWNLOADS", "0")),
+                Integer.parseInt(getEnv("MAX_CONCURRENT_TRANSCODES", "0")),
+                Integer.parseInt(getEnv("YT_DLP_WORKERS", "2")),
+                Integer.parseInt(getEnv("YT_DLP_WORKER_MAX_JOBS", "100")),
+                Integer.parseInt(getEnv("YT_DLP_WORKER_MAX_RSS_MB", "400")),
+                getEnv("YT_DLP_WORKER_CMD", null),
+                Boolean.parseBoolean(getEnv("SPECULATIVE_PREFETCH", "false")),
+                Boolean.parseBoolean(getEnv("STREAMING_UPLOAD", "false")),
+                stripTrailingSlash(getEnv("BOT_API_URL", "https://api.telegram.org")),
+                Boolean.parseBoolean(getEnv("DIRECT_UPLOAD", "false")),
+                localBotApi,
+                Integer.parseInt(getEnv("UPDATE_QUEUE_CAPACITY", "10000")),
+                updateMode,
+                Integer.parseInt(getEnv("PROGRESS_INTERVAL_SECONDS", "3")),
+                Integer.parseInt(getEnv("SHUTDOWN_GRACE_SECONDS", "25")),
+                getEnv("CLUSTER_DIR", null),
+                getEnv("NODE_ID", defaultNodeId()),
+                Integer.parseInt(getEnv("CLUSTER_LEASE_SECONDS", "30")),
+                Integer.parseInt(getEnv("BATCH_PARALLELISM", "3")),
+                Integer.parseInt(getEnv("BATCH_MAX_ITEMS", "50")),
+                Integer.parseInt(getEnv("WEB_FILE_TTL_SECONDS", "900"))
+        );
+    }
+
+    /** Копия конфига с другим файлом cookies (пишется при старте из base64) */
+    public AppConfig withCookiesFile(String cookiesFile) {
+        return new AppConfig(
+                botToken, botUsername, adminChatIds, webhookUrl, port, tempDir,
+                ytDlpPath, ffmpegPath, maxFileSizeBytes, downloadTimeoutSeconds,
+                cookiesFile, audioCacheMaxBytes, metadataCacheTtlSeconds, metadataCacheMaxEntries,
+                maxConcurrentDownloads, maxConcurrentTranscodes,
+                ytDlpWorkers, ytDlpWorkerMaxJobs, ytDlpWorkerMaxRssMb, ytDlpWorkerCommand,
+                speculativePrefetch, streamingUpload, botApiUrl, directUpload, localBotApi,
+                updateQueueCapacity, updateMode, progressIntervalSeconds, shutdownGraceSeconds,
+                clusterDir, nodeId, clusterLeaseSeconds, batchParallelism, batchMaxItems,
+                webFileTtlSeconds
         );
     }
 
@@ -48,11 +119,37 @@ public record AppConfig(
         if (!botToken.contains(":")) {
             throw new IllegalStateException("BOT_TOKEN has invalid format");
         }
-        if (!webhookUrl.startsWith("https://")) {
+        if (!MODE_WEBHOOK.equals(updateMode) && !MODE_POLLING.equals(updateMode)) {
+            throw new IllegalStateException("UPDATE_MODE must be webhook or polling");
+        }
+        if (!isPolling() && !webhookUrl.startsWith("https://")) {
             throw new IllegalStateException("WEBHOOK_URL must start with https://");
         }
-        log.info("Config loaded: bot={}, port={}, adminCount={}",
-                botUsername, port, adminChatIds.size());
+        // getUpdates может читать только один клиент — остальные узлы получали бы 409
+        if (isClustered() && isPolling()) {
+            throw new IllegalStateException("CLUSTER_DIR requires UPDATE_MODE=webhook");
+        }
+        // Путь к файлу понимает только свой сервер, запущенный с --local
+        if (localBotApi && botApiUrl.equals("https://api.telegram.org")) {
+            throw new IllegalStateException("LOCAL_BOT_API requires BOT_API_URL of a self-hosted server");
+        }
+        log.info("Config loaded: bot={}, port={}, adminCount={}, updates={}, node={}",
+                botUsername, port, adminChatIds.size(), updateMode, isClustered() ? nodeId : "single");
+    }
+
+    /** Лимит размера файла для сообщений пользователю, например "50 MB" */
+    public String maxFileSizeLabel() {
+        return maxFileSizeBytes / (1024 * 1024) + " MB";
+    }
+
+    /** Updates забираются через getUpdates, а не приходят на webhook */
+    public boolean isPolling() {
+        return MODE_POLLING.equals(updateMode);
+    }
+
+    /** Несколько узлов делят очередь задач и кэш в CLUSTER_DIR */
+    public boolean isClustered() {
+        return clusterDir != null;
     }
 
     public boolean isAdmin(long chatId) {
@@ -68,6 +165,16 @@ public record AppConfig(
                 .collect(Collectors.toUnmodifiableSet());
     }
 
+    /** В контейнере HOSTNAME — имя пода/контейнера, иначе хватит PID */
+    private static String defaultNodeId() {
+        String host = System.getenv("HOSTNAME");
+        return host != null && !host.isBlank() ? host : "node-" + ProcessHandle.current().pid();
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
     private static String requireEnv(String name) {
         String value = System.getenv(name);
         if (value == null || value.isBlank()) {
@@ -0,0 +1,367 @@
+package youtubebot;
+
+import youtubebot.model.AudioKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Постоянный кэш готовых аудиофайлов на диске.
+ *
+ * Файлы лежат в TEMP_DIR/cache под именем {videoId}_{FORMAT}.{ext}, поэтому
+ * переживают рестарт контейнера — при старте директория просто пересканируется.
+ *
+ * Публикация атомарная: yt-dlp пишет во временный файл рядом, потом он
+ * переименовывается в кэш. Читатель никогда не увидит недописанный файл.
+ *
+ * Каждый читатель берёт Lease. Пока он открыт, файл не вытесняется,
+ * даже если бюджет превышен. Вытесняются давно не использованные файлы (LRU),
+ * время последнего доступа хранится в mtime файла.
+ *
+ * Общий кэш (shared) лежит в директории, которую видят несколько узлов
+ * (CLUSTER_DIR/cache). Файлы, опубликованные другими узлами, находятся
+ * на диске при промахе и берутся в индекс. Чужие Lease этому узлу не видны,
+ * поэтому вытесняется только то, к чему никто не обращался последние
+ * SHARED_EVICT_GRACE_MILLIS: перед удалением mtime перечитывается с диска.
+ * Бюджет каждый узел считает по известным ему файлам.
+ */
+public class AudioCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioCache.class);
+
+    /** Узел не удаляет файл общего кэша, пока кто-то обращался к нему недавно */
+    private static final long SHARED_EVICT_GRACE_MILLIS = 10 * 60 * 1000L;
+    /** Недописанную другим узлом копию можно удалить только через час */
+    private static final long STALE_PART_MILLIS = 60 * 60 * 1000L;
+
+    private final Path    dir;
+    private final long    maxBytes;
+    private final boolean shared;
+    private final ConcurrentHashMap<AudioKey, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public AudioCache(Path dir, long maxBytes) {
+        this(dir, maxBytes, false);
+    }
+
+    /** shared — директорию используют и другие узлы */
+    public AudioCache(Path dir, long maxBytes, boolean shared) {
+        this.dir      = dir;
+        this.maxBytes = maxBytes;
+        this.shared   = shared;
+        if (isEnabled()) loadExisting();
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Возвращает файл из кэша или null если его там нет.
+     * Lease нужно закрыть после отправки файла.
+     */
+    public Lease acquire(AudioKey key) {
+        Entry entry = lookup(key);
+        if (entry == null) return null;
+        synchronized (entry) {
+            // Файл ещё переносится в кэш — пока это промах, а не пропажа
+            if (entry.removed || entry.publishing) return null;
+            if (!Files.exists(entry.path)) {
+                // Файл удалили снаружи — забываем про него
+                forget(key, entry);
+                return null;
+            }
+            entry.refs++;
+            touch(entry);
+        }
+        return new Lease(this, entry, entry.path);
+    }
+
+    /**
+     * Переносит готовый файл в кэш и возвращает Lease на него.
+     *
+     * Если кэш выключен или файл больше всего бюджета — файл остаётся
+     * временным и удаляется при закрытии Lease, как и раньше.
+     */
+    public Lease publish(AudioKey key, Path tempFile) throws IOException {
+        long size = Files.size(tempFile);
+        if (!isEnabled() || size > maxBytes) {
+            return new Lease(this, null, tempFile);
+        }
+        if (shared) {
+            // Другой узел успел опубликовать этот ключ — его файл не трогаем
+            Lease theirs = acquire(key);
+            if (theirs != null) {
+                deleteQuietly(tempFile);
+                return theirs;
+            }
+        }
+
+        Files.createDirectories(dir);
+        Path target = dir.resolve(key.fileStem() + extensionOf(tempFile));
+
+        // Запись видна в entries с флагом publishing, пока файл не на месте:
+        // acquire считает её промахом и не забывает, вытеснение не трогает (refs = 1)
+        Entry fresh = new Entry(target, size);
+        fresh.refs = 1;
+        fresh.publishing = true;
+        Entry existing = entries.putIfAbsent(key, fresh);
+        if (existing != null) {
+            // Кто-то опубликовал этот ключ раньше нас — наш файл не нужен
+            Lease lease = acquire(key);
+            if (lease != null) {
+                deleteQuietly(tempFile);
+                return lease;
+            }
+            // Чужая публикация ещё идёт или место уже занял кто-то третий —
+            // отдаём свой файл мимо кэша, target не трогаем
+            if (existing.publishing || entries.putIfAbsent(key, fresh) != null) {
+                return new Lease(this, null, tempFile);
+            }
+        }
+
+        try {
+            moveInto(tempFile, target);
+        } catch (IOException e) {
+            entries.remove(key, fresh);
+            throw e;
+        }
+        // Размер учитываем вместе со снятием флага: до этого forget
+        // не может сработать, после — вычтет ровно то, что прибавили
+        synchronized (fresh) {
+            fresh.publishing = false;
+            totalBytes.addAndGet(size);
+        }
+        touch(fresh);
+        log.debug("Cached {} ({} bytes, total {})", key, size, totalBytes.get());
+
+        evictIfNeeded();
+        return new Lease(this, fresh, target);
+    }
+
+    public boolean contains(AudioKey key) {
+        Entry entry = lookup(key);
+        return entry != null && !entry.publishing;
+    }
+
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // ── Вытеснение ─────────────────────────────────────────────────────────
+
+    private synchronized void evictIfNeeded() {
+        while (totalBytes.get() > maxBytes) {
+            var victim = entries.entrySet().stream()
+                    .filter(e -> e.getValue().refs == 0)
+                    .min(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            if (victim.isEmpty()) {
+                // Всё что можно вытеснить — сейчас читается, ждём следующей публикации
+                log.debug("Cache over budget but all entries are in use");
+                return;
+            }
+            Entry entry = victim.get().getValue();
+            if (shared) {
+                long seen = modifiedAt(entry.path);
+                if (seen > entry.lastAccess) {
+                    // Файл читал другой узел — он уже не самый старый
+                    entry.lastAccess = seen;
+                    continue;
+                }
+                if (seen >= 0 && System.currentTimeMillis() - seen < SHARED_EVICT_GRACE_MILLIS) {
+                    log.debug("Shared cache over budget but all entries were used recently");
+                    return;
+                }
+            }
+            synchronized (entry) {
+                if (entry.refs > 0 || entry.removed) continue;
+                forget(victim.get().getKey(), entry);
+            }
+            log.debug("Evicted {} from cache", victim.get().getKey());
+        }
+    }
+
+    /** Вызывается под synchronized(entry) */
+    private void forget(AudioKey key, Entry entry) {
+        entry.removed = true;
+        if (entries.remove(key, entry)) {
+            totalBytes.addAndGet(-entry.size);
+        }
+        deleteQuietly(entry.path);
+    }
+
+    private void release(Entry entry) {
+        synchronized (entry) {
+            entry.refs--;
+        }
+    }
+
+    private void loadExisting() {
+        if (!Files.isDirectory(dir)) return;
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                AudioKey key = AudioKey.fromFileStem(dot > 0 ? name.substring(0, dot) : name);
+                try {
+                    if (key == null) {
+                        // Обрывки публикаций и чужие файлы; в общем кэше — только давние,
+                        // свежие может прямо сейчас дописывать другой узел
+                        if (!shared || System.currentTimeMillis() - modifiedAt(file) > STALE_PART_MILLIS) {
+                            Files.deleteIfExists(file);
+                        }
+                        return;
+                    }
+                    var entry = new Entry(file, Files.size(file));
+                    entry.lastAccess = Files.getLastModifiedTime(file).toMillis();
+                    entries.put(key, entry);
+                    totalBytes.addAndGet(entry.size);
+                } catch (IOException e) {
+                    log.warn("Cannot index cached file {}: {}", file, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Cannot scan cache directory {}: {}", dir, e.getMessage());
+        }
+        log.info("Audio cache: {} files, {} MB of {} MB", entries.size(),
+                totalBytes.get() / (1024 * 1024), maxBytes / (1024 * 1024));
+        evictIfNeeded();
+    }
+
+    /** Запись индекса; в общем кэше при промахе ищем файл, опубликованный другим узлом */
+    private Entry lookup(AudioKey key) {
+        Entry entry = entries.get(key);
+        if (entry != null || !shared || !isEnabled()) return entry;
+
+        try (var files = Files.newDirectoryStream(dir, key.fileStem() + ".*")) {
+            for (Path file : files) {
+                var found = new Entry(file, Files.size(file));
+                found.lastAccess = Files.getLastModifiedTime(file).toMillis();
+                Entry existing = entries.putIfAbsent(key, found);
+                if (existing != null) return existing;
+                totalBytes.addAndGet(found.size);
+                log.debug("Found {} published by another node", key);
+                return found;
+            }
+        } catch (IOException e) {
+            // директории ещё нет или файл удалили, пока смотрели — промах
+        }
+        return null;
+    }
+
+    /**
+     * Атомарный перенос в кэш. Если кэш на другой файловой системе
+     * (общий кэш на NFS, TEMP_DIR локальный), rename между ними невозможен:
+     * файл копируется рядом с целью под скрытым именем и переименовывается уже там.
+     */
+    private void moveInto(Path tempFile, Path target) throws IOException {
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path part = Files.createTempFile(dir, "." + target.getFileName(), ".part");
+            try {
+                Files.copy(tempFile, part, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException copyError) {
+                deleteQuietly(part);
+                throw copyError;
+            }
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /** mtime в мс, -1 если файла уже нет */
+    private static long modifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void touch(Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        try {
+            Files.setLastModifiedTime(entry.path, FileTime.fromMillis(entry.lastAccess));
+        } catch (IOException ignored) {
+            // порядок LRU после рестарта станет чуть менее точным — не страшно
+        }
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot) : "";
+    }
+
+    private static void deleteQuietly(Path file) {
+        try { Files.deleteIfExists(file); }
+        catch (Exception e) { log.warn("Could not delete file: {}", file); }
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        volatile long lastAccess;
+        int     refs;      // guarded by this
+        boolean removed;   // guarded by this
+        volatile boolean publishing;   // пишется под this
+
+        Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Право читать файл. Закрывается после отправки.
+     * Для файлов вне кэша закрытие удаляет временный файл.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final AudioCache cache;
+        private final Entry      entry;   // null — файл не в кэше
+        private final Path       path;
+        private boolean closed;
+
+        private Lease(AudioCache cache, Entry entry, Path path) {
+            this.cache = cache;
+            this.entry = entry;
+            this.path  = path;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        public boolean isCached() {
+            return entry != null;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            if (entry != null) {
+                cache.release(entry);
+            } else {
+                deleteQuietly(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Загрузка аудио в Telegram своим multipart-запросом, мимо Apache HttpClient.
+ *
+ * telegrambots копирует файл через несколько буферов в куче на каждый
+ * sendAudio — на пиках это заметно нагружает GC. Здесь тело запроса
+ * собирается вручную: длина известна заранее (fixed-length, без буферизации
+ * всего тела в HttpURLConnection), а файл идёт через FileChannel.transferTo.
+ * Память на загрузку не зависит от размера файла.
+ *
+ * Настоящий sendfile до сокета невозможен — Bot API работает по TLS и
+ * шифрование идёт в JVM. Но копирований в куче остаётся ровно одно, через
+ * буфер фиксированного размера.
+ */
+public class AudioUploader {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioUploader.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS    = 300_000;
+
+    private final String       methodUrl;
+    private final ObjectMapper json = new ObjectMapper();
+
+    public AudioUploader(String botApiUrl, String botToken) {
+        this.methodUrl = botApiUrl + "/bot" + botToken + "/sendAudio";
+    }
+
+    /**
+     * Загружает файл методом sendAudio. Возвращает file_id загруженного файла.
+     * Ошибки сети и ответы ok=false — IOException.
+     */
+    public TelegramClient.UploadedFile sendAudio(long chatId, Path file, String title,
+                                                 String caption, String performer) throws IOException {
+        var fields = new LinkedHashMap<String, String>();
+        fields.put("chat_id", String.valueOf(chatId));
+        if (title != null)     fields.put("title", title);
+        if (caption != null)   fields.put("caption", caption);
+        if (performer != null) fields.put("performer", performer);
+
+        String boundary = "----audio" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[] head = multipartHead(boundary, fields, "audio", file.getFileName().toString());
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            var conn = (HttpURLConnection) URI.create(methodUrl).toURL().openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            conn.setFixedLengthStreamingMode(head.length + size + tail.length);
+
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(head);
+                WritableByteChannel sink = Channels.newChannel(out);
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, sink);
+                }
+                out.write(tail);
+            }
+
+            JsonNode response = readResponse(conn);
+            long elapsedMs = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+            log.info("Uploaded {} ({} KB) to {} in {} ms, {} KB/s",
+                    file.getFileName(), size / 1024, chatId, elapsedMs, size * 1000 / 1024 / elapsedMs);
+            return uploadedFile(response.path("result"));
+        }
+    }
+
+    private JsonNode readResponse(HttpURLConnection conn) throws IOException {
+        int status = conn.getResponseCode();
+        InputStream body = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (body == null) throw new IOException("Telegram API HTTP " + status);
+
+        JsonNode response;
+        try (body) {
+            response = json.readTree(body);
+        }
+        if (!response.path("ok").asBoolean(false)) {
+            if (response.path("error_code").asInt(status) == 429) {
+                throw new RateLimitedException(
+                        response.path("parameters").path("retry_after").asInt(1));
+            }
+            throw new IOException("Telegram API error %d: %s".formatted(
+                    response.path("error_code").asInt(status),
+                    description(response)));
+        }
+        return response;
+    }
+
+    private static String description(JsonNode response) {
+        JsonNode description = response.path("description");
+        return description.isMissingNode() ? "no description" : description.textValue();
+    }
+
+    private static TelegramClient.UploadedFile uploadedFile(JsonNode message) {
+        if (message.hasNonNull("audio")) {
+            return new TelegramClient.UploadedFile(message.path("audio").path("file_id").asText(), false);
+        }
+        if (message.hasNonNull("document")) {
+            return new TelegramClient.UploadedFile(message.path("document").path("file_id").asText(), true);
+        }
+        return null;
+    }
+
+    private static byte[] multipartHead(String boundary, Map<String, String> fields,
+                                        String fileField, String fileName) {
+        var head = new ByteArrayOutputStream(512);
+        fields.forEach((name, value) -> {
+            head.writeBytes(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + name + "\"\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            head.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            head.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        });
+        head.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + fileField + "\"; filename=\""
+                + fileName.replace("\"", "") + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        return head.toByteArray();
+    }
+
+    /** Telegram ответил 429 — повторить не раньше чем через retryAfterSeconds */
+    public static final class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int retryAfterSeconds;
+
+        public RateLimitedException(int retryAfterSeconds) {
+            super("Telegram API error 429: retry after " + retryAfterSeconds);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int retryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package youtubebot;
+
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+import youtubebot.model.Playlist;
+import youtubebot.model.UserSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Один список видео одного чата: плейлист и/или несколько ссылок.
+ *
+ * Конвейер с окном: видео готовятся (метаданные, загрузка, перекодирование)
+ * задачами пула воркера, но не больше BATCH_PARALLELISM сразу.
+ * Отправляет один поток — строго по порядку списка: следующее видео уходит,
+ * как только готово оно само и все до него. Место в окне освобождается
+ * только после отправки, поэтому готовые, но ещё не отправленные файлы
+ * не копятся, а один медленный элемент не даёт убежать вперёд больше чем
+ * на окно.
+ *
+ * Формат выбирается сам по каждому видео — как проверка в BotHandler:
+ * оригинал, если он влезает в лимит, иначе самый качественный Opus, который влезает.
+ * Если оценка ошиблась и файл всё же не влез — следующий формат поменьше.
+ *
+ * Каждое видео, как только известны его метаданные, пишется в журнал
+ * обычной задачей. Если бот остановится посреди списка, неотправленные
+ * видео после рестарта дойдут по одному, как отдельные загрузки.
+ */
+final class BatchJob {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchJob.class);
+
+    private final DownloadWorker  worker;
+    private final AppConfig       config;
+    private final TelegramClient  telegram;
+    private final JobJournal      journal;
+    private final ExecutorService executor;   // пул воркера: его остановка прерывает и список
+    private final long            chatId;
+    private final List<String>    links;
+
+    BatchJob(DownloadWorker worker, AppConfig config, TelegramClient telegram, JobJournal journal,
+             ExecutorService executor, long chatId, List<String> links) {
+        this.worker   = worker;
+        this.config   = config;
+        this.telegram = telegram;
+        this.journal  = journal;
+        this.executor = executor;
+        this.chatId   = chatId;
+        this.links    = links;
+    }
+
+    /** Подготовленный элемент списка; jobId — его задача в журнале */
+    private record Item(UserSession session, AudioKey key, DownloadWorker.Prepared prepared, long jobId) {}
+
+    void run() {
+        var status = telegram.sendStatus(chatId, "🔍 Получаю список видео...");
+        Playlist list;
+        try {
+            list = expand();
+        } catch (Exception e) {
+            log.error("Cannot expand batch for chatId={}: {}", chatId, e.getMessage());
+            telegram.sendMessage(chatId, "❌ Не удалось получить список видео: " + worker.friendlyError(e));
+            return;
+        }
+        List<Playlist.Entry> entries = list.entries();
+        if (entries.isEmpty()) {
+            telegram.sendMessage(chatId, "❌ В списке нет доступных видео.");
+            return;
+        }
+        telegram.sendMessage(chatId, "📃 %s: %d видео. Присылаю по порядку, по мере готовности.".formatted(
+                list.title(), entries.size()));
+
+        int parallelism = Math.max(1, config.batchParallelism());
+        var window  = new Semaphore(parallelism);
+        var results = new ArrayList<CompletableFuture<Item>>(entries.size());
+        for (int i = 0; i < entries.size(); i++) results.add(new CompletableFuture<>());
+
+        Future<?> launcher = executor.submit(() -> {
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    window.acquire();
+                    var entry  = entries.get(i);
+                    var result = results.get(i);
+                    executor.submit(() -> {
+                        try {
+                            result.complete(prepare(entry));
+                        } catch (Exception e) {
+                            result.completeExceptionally(e);
+                        }
+                    });
+                }
+            } catch (InterruptedException | RejectedExecutionException e) {
+                // список остановлен
+            }
+        });
+
+        int delivered = 0;
+        var failed = new ArrayList<String>();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                Playlist.Entry entry = entries.get(i);
+                try {
+                    Item item = await(results.get(i));
+                    try (var prepared = item.prepared()) {
+                        journal.transition(item.jobId(), JobJournal.State.UPLOADING);
+                        try {
+                            if (worker.deliverPrepared(item.session(), item.key(), prepared)) delivered++;
+                            else failed.add(entry.title());
+                        } finally {
+                            finish(item.jobId());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.warn("Batch item {} for chatId={} failed: {}", entry.videoId(), chatId, e.getMessage());
+                    failed.add(entry.title() + " — " + worker.friendlyError(e));
+                } finally {
+                    window.release();
+                }
+                reportProgress(status, i + 1, entries.size());
+            }
+        } catch (InterruptedException e) {
+            // Остановка бота: недоготовленные файлы освобождаются, когда дойдут
+            log.info("Batch for chatId={} interrupted after {} of {}", chatId, delivered, entries.size());
+            launcher.cancel(true);
+            for (var result : results) {
+                result.thenAccept(item -> item.prepared().close());
+            }
+            return;
+        }
+
+        if (failed.isEmpty()) {
+            telegram.sendMessage(chatId, "✅ Готово: %d из %d.".formatted(delivered, entries.size()));
+        } else {
+            telegram.sendMessage(chatId, "✅ Готово: %d из %d.\n\n⚠️ Не удалось:\n%s".formatted(
+                    delivered, entries.size(), String.join("\n", failed)));
+        }
+    }
+
+    /** Плейлисты раскрываются одним --flat-playlist на каждый, повторы отбрасываются */
+    private Playlist expand() throws Exception {
+        int max = Math.max(1, config.batchMaxItems());
+        var byId  = new LinkedHashMap<String, Playlist.Entry>();
+        String title = links.size() == 1 ? null : "Список";
+        for (String link : links) {
+            if (byId.size() >= max) break;
+            if (DownloadWorker.isPlaylistUrl(link)) {
+                Playlist playlist = worker.probePlaylist(link, max - byId.size());
+                if (title == null) title = "«" + playlist.title() + "»";
+                for (Playlist.Entry entry : playlist.entries()) byId.putIfAbsent(entry.videoId(), entry);
+            } else {
+                String id = worker.videoId(link);
+                byId.putIfAbsent(id, new Playlist.Entry(id, id, 0));
+            }
+        }
+        return new Playlist(title, List.copyOf(byId.values()));
+    }
+
+    /** Выполняется в своём потоке, пока в окне есть место */
+    private Item prepare(Playlist.Entry entry) throws Exception {
+        String url  = "https://www.youtube.com/watch?v=" + entry.videoId();
+        var    info = worker.getMetadata(url);
+        AudioFormat format = AudioFormat.selectFor(info, config.maxFileSizeBytes());
+        if (format == null) throw new RuntimeException("Видео не влезает в лимит Telegram");
+
+        var session = new UserSession(chatId, url, info);
+        session.selectFormat(format);
+        long jobId = journal.queued(session);
+        journal.transition(jobId, JobJournal.State.DOWNLOADING);
+        try {
+            while (true) {
+                var key = new AudioKey(entry.videoId(), format);
+                try {
+                    var prepared = worker.prepare(key, session);
+                    // Файл из кэша мог быть скачан без лимита (предзагрузка, перекодирование)
+                    if (prepared.path == null || Files.size(prepared.path) <= config.maxFileSizeBytes()) {
+                        return new Item(session, key, prepared, jobId);
+                    }
+                    prepared.close();
+                } catch (DownloadWorker.TooLargeException e) {
+                    log.debug("{} does not fit, trying a smaller format", key);
+                }
+                format = format.nextSmaller();
+                if (format == null) throw new RuntimeException("Видео не влезает в лимит Telegram");
+                session.selectFormat(format);
+            }
+        } catch (Exception e) {
+            finish(jobId);
+            throw e;
+        }
+    }
+
+    /** Задача видео закончена. Прерванная остановкой бота остаётся в журнале и продолжится после рестарта. */
+    private void finish(long jobId) {
+        if (!worker.isStopping()) journal.transition(jobId, JobJournal.State.DONE);
+    }
+
+    private static Item await(CompletableFuture<Item> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    /** Статус правится на месте — одно сообщение на весь список */
+    private void reportProgress(CompletableFuture<Message> status, int done, int total) {
+        if (!status.isDone() || status.isCompletedExceptionally()) return;
+        Message message = status.join();
+        if (message == null) return;
+        telegram.editMessage(chatId, message.getMessageId(), "📥 Обработано %d из %d".formatted(done, total));
+    }
+}
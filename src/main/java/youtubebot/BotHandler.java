@@ -1,7 +1,6 @@
 package youtubebot;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import youtubebot.model.AudioFormat;
 import youtubebot.model.UserSession;
@@ -16,6 +15,10 @@ import java.util.List;
 /**
  * Обрабатывает входящие Telegram updates (сообщения и callback-кнопки).
  * Telegram шлёт POST /webhook с JSON-телом при каждом событии.
+ *
+ * Updates одного чата обрабатываются по порядку в своём виртуальном потоке
+ * (см. UpdateDispatcher), поэтому долгие шаги вроде получения метаданных
+ * выполняются прямо здесь, без отдельных потоков.
  */
 public class BotHandler {
 
@@ -25,7 +28,7 @@ public class BotHandler {
     private final TelegramClient telegram;
     private final SessionStore   sessions;
     private final DownloadWorker worker;
-    private final ObjectMapper   json = new ObjectMapper();
+    private final UpdateDispatcher updates;
 
     public BotHandler(AppConfig config, TelegramClient telegram,
                       SessionStore sessions, DownloadWorker worker) {
@@ -33,20 +36,38 @@ public class BotHandler {
         this.telegram = telegram;
         this.sessions = sessions;
         this.worker   = worker;
+        this.updates  = new UpdateDispatcher(config.updateQueueCapacity(), this::handleUpdate);
+        worker.onTooLarge(this::offerSmallerFormats);
     }
 
-    /** Точка входа — Javalin вызывает этот метод при POST /webhook */
+    /**
+     * Точка входа — Javalin вызывает этот метод при POST /webhook.
+     * Тело только ставится в очередь: Telegram требует 200 как можно быстрее.
+     * Если очередь переполнена — 503, Telegram доставит update повторно позже.
+     */
     public void onUpdate(Context ctx) {
-        ctx.status(200); // Telegram требует 200 как можно быстрее
-        try {
-            JsonNode update = json.readTree(ctx.body());
-            if (update.has("message")) {
-                handleMessage(update.get("message"));
-            } else if (update.has("callback_query")) {
-                handleCallback(update.get("callback_query"));
-            }
-        } catch (Exception e) {
-            log.error("Error processing update: {}", e.getMessage(), e);
+        ctx.status(enqueue(ctx.body()) ? 200 : 503);
+    }
+
+    /** Ставит сырой JSON update в очередь обработки. false — очередь переполнена. */
+    public boolean enqueue(String rawUpdate) {
+        return updates.offer(rawUpdate);
+    }
+
+    public UpdateDispatcher updates() {
+        return updates;
+    }
+
+    public void shutdown() {
+        updates.shutdown();
+    }
+
+    /** Обработка одного update — в потоке его чата, по порядку */
+    private void handleUpdate(JsonNode update) {
+        if (update.has("message")) {
+            handleMessage(update.get("message"));
+        } else if (update.has("callback_query")) {
+            handleCallback(update.get("callback_query"));
         }
     }
 
@@ -69,32 +90,34 @@ public class BotHandler {
         } else if (worker.isValidYouTubeUrl(text)) {
             handleUrl(chatId, text);
         } else {
-            telegram.sendMessage(chatId, "Пожалуйста, отправьте ссылку на YouTube видео.");
+            List<String> batch = DownloadWorker.batchLinks(text);
+            if (batch != null) {
+                worker.startBatch(chatId, batch);
+            } else {
+                telegram.sendMessage(chatId, "Пожалуйста, отправьте ссылку на YouTube видео.");
+            }
         }
     }
 
     private void handleUrl(long chatId, String url) {
-        Thread.ofVirtual().start(() -> {
-            try {
-                telegram.sendMessage(chatId, "🔍 Получаю информацию о видео...");
-                VideoInfo info = worker.getMetadata(url);
-
-                AudioFormat selected = AudioFormat.selectFor(info, config.maxFileSizeBytes());
-                if (selected == null) {
-                    telegram.sendMessage(chatId,
-                            "❌ Видео слишком длинное — даже с максимальным сжатием файл превысит 50 MB.");
-                    return;
-                }
+        try {
+            telegram.sendStatus(chatId, "🔍 Получаю информацию о видео...");
+            VideoInfo info = worker.getMetadata(url);
 
-                sessions.put(new UserSession(chatId, url, info));
-                sendFormatSelection(chatId, info);
+            // Даже если одним файлом не влезает ни один формат, остаётся SPLIT;
+            // отказывает sendFormatSelection, если нет и его
+            var session = new UserSession(chatId, url, info);
+            sessions.put(session);
+            sendFormatSelection(chatId, worker.videoId(url), info);
 
-            } catch (Exception e) {
-                log.error("Error getting metadata for {}: {}", url, e.getMessage());
-                telegram.sendMessage(chatId, "❌ Не удалось получить информацию о видео. " +
-                        "Проверьте ссылку или попробуйте позже.");
-            }
-        });
+            // Пока пользователь выбирает формат — начинаем качать оригинал
+            if (config.speculativePrefetch()) worker.prefetch(session);
+
+        } catch (Exception e) {
+            log.error("Error getting metadata for {}: {}", url, e.getMessage());
+            telegram.sendMessage(chatId, "❌ Не удалось получить информацию о видео. " +
+                    "Проверьте ссылку или попробуйте позже.");
+        }
     }
 
     // ── Callback кнопки ────────────────────────────────────────────────────
@@ -106,71 +129,136 @@ public class BotHandler {
         log.debug("Callback from {}: {}", chatId, data);
 
         if (data.startsWith("fmt:")) {
-            handleFormatSelected(chatId, data.substring(4));
+            // fmt:{FORMAT}:{videoId}; у старых кнопок ID видео нет
+            String[] parts = data.split(":", 3);
+            handleFormatSelected(chatId, parts[1], parts.length > 2 ? parts[2] : null);
         }
     }
 
-    private void handleFormatSelected(long chatId, String formatName) {
+    private void handleFormatSelected(long chatId, String formatName, String videoId) {
         UserSession session = sessions.get(chatId);
-        if (session == null || session.isExpired()) {
-            telegram.sendMessage(chatId, "Сессия устарела. Отправьте ссылку повторно.");
+        if (session == null || session.isExpired()
+                || (videoId != null && !videoId.equals(worker.videoId(session.url())))) {
+            // Сессии нет на этом узле (кнопку нажали после рестарта или webhook
+            // пришёл на другой экземпляр) — кнопка знает видео, восстанавливаем
+            session = videoId != null ? restoreSession(chatId, videoId) : null;
+            if (session == null) {
+                telegram.sendMessage(chatId, "Сессия устарела. Отправьте ссылку повторно.");
+                sessions.remove(chatId);
+                return;
+            }
+        }
+        AudioFormat format;
+        try {
+            format = AudioFormat.valueOf(formatName);
+        } catch (IllegalArgumentException e) {
+            telegram.sendMessage(chatId, "Неизвестный формат. Отправьте ссылку повторно.");
             sessions.remove(chatId);
             return;
         }
-        if (session.state() == UserSession.State.DOWNLOADING) {
+        // Другой формат того же видео можно выбрать — например, поменьше,
+        // когда этот не влез в лимит (на другом узле сессия об этом не знает)
+        if (session.state() == UserSession.State.DOWNLOADING && session.selectedFormat() == format) {
             telegram.sendMessage(chatId, "Загрузка уже идёт, подождите.");
             return;
         }
+        session.selectFormat(format);
+        worker.startAsync(session);
+    }
 
+    /** Новая сессия по ID видео из кнопки; null если метаданные не получить */
+    private UserSession restoreSession(long chatId, String videoId) {
+        String url = "https://www.youtube.com/watch?v=" + videoId;
+        if (!worker.isValidYouTubeUrl(url)) return null;
         try {
-            AudioFormat format = AudioFormat.valueOf(formatName);
-            session.selectFormat(format);
-            worker.startAsync(session);
-        } catch (IllegalArgumentException e) {
-            telegram.sendMessage(chatId, "Неизвестный формат. Отправьте ссылку повторно.");
-            sessions.remove(chatId);
+            var session = new UserSession(chatId, url, worker.getMetadata(url));
+            sessions.put(session);
+            return session;
+        } catch (Exception e) {
+            log.warn("Cannot restore session for {}: {}", videoId, e.getMessage());
+            return null;
         }
     }
 
     // ── Формирование сообщений ─────────────────────────────────────────────
 
-    private void sendFormatSelection(long chatId, VideoInfo info) {
+    private void sendFormatSelection(long chatId, String videoId, VideoInfo info) {
+        // Одним файлом не влезает ни один формат — остаётся только SPLIT
+        String note = AudioFormat.selectFor(info, config.maxFileSizeBytes()) == null
+                ? "Одним файлом не помещается в %s даже с максимальным сжатием — можно частями.\n\n"
+                        .formatted(config.maxFileSizeLabel())
+                : "";
         String text = """
                 🎵 *%s*
                 ⏱ Длительность: %s
                 
-                Выберите формат:""".formatted(
+                %sВыберите формат:""".formatted(
                 escapeMarkdown(info.title()),
-                info.formattedDuration()
+                info.formattedDuration(),
+                note
         );
 
-        // Строим кнопки только для форматов которые вписываются в лимит
+        var keyboard = formatKeyboard(videoId, info, null);
+        if (keyboard == null) {
+            telegram.sendMessage(chatId, "❌ Видео слишком длинное для загрузки.");
+            return;
+        }
+        telegram.sendMessageWithKeyboard(chatId, text, keyboard);
+    }
+
+    /**
+     * Загрузку формата failed оборвали по размеру — сразу предлагаем
+     * следующие, более сжатые форматы, чтобы не присылать ссылку заново.
+     */
+    private void offerSmallerFormats(UserSession session, AudioFormat failed) {
+        long chatId = session.chatId();
+        var keyboard = formatKeyboard(worker.videoId(session.url()), session.videoInfo(), failed);
+        if (keyboard == null) {
+            telegram.sendMessage(chatId, "❌ Видео слишком длинное для загрузки.");
+            return;
+        }
+        telegram.sendMessageWithKeyboard(chatId,
+                "⚠️ %s не помещается в %s. Выберите формат поменьше:".formatted(
+                        failed.displayName(), config.maxFileSizeLabel()),
+                keyboard);
+    }
+
+    /**
+     * Кнопки только для форматов, которые по оценке вписываются в лимит,
+     * и «частями», когда не вписывается оригинал; after != null — только для форматов сжатее него. null — ни один не влезает.
+     */
+    private InlineKeyboardMarkup formatKeyboard(String videoId, VideoInfo info, AudioFormat after) {
         var buttons = new ArrayList<org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton>();
         for (AudioFormat fmt : AudioFormat.values()) {
-            long size = (fmt.isOriginal() && info.fileSizeBytes() > 0)
+            if (after != null && fmt.ordinal() <= after.ordinal()) continue;
+            long size = (fmt.ffmpegCodec() == null && info.fileSizeBytes() > 0)
                     ? info.fileSizeBytes()
                     : fmt.estimateSizeBytes(info.durationSeconds(), info.audioBitrateKbps());
 
-            if (size <= config.maxFileSizeBytes()) {
+            if (fmt.isSplit()) {
+                // Частями — только если оригинал целиком не влезает (или уже не влез, вопреки оценке)
+                if (size > config.maxFileSizeBytes() || (after != null && after.isOriginal())) {
+                    String label = "✂️ %s (~%d шт. до %s)".formatted(fmt.displayName(),
+                            DownloadWorker.estimateParts(size, config.maxFileSizeBytes()),
+                            config.maxFileSizeLabel());
+                    buttons.add(TelegramClient.button(label, "fmt:" + fmt.name() + ":" + videoId));
+                }
+            } else if (size <= config.maxFileSizeBytes()) {
                 String label = fmt.isOriginal()
                         ? "⭐ %s (%s)".formatted(fmt.displayName(), info.formattedSize())
                         : "📦 %s (~%.0f MB)".formatted(fmt.displayName(),
                         size / (1024.0 * 1024.0));
-                buttons.add(TelegramClient.button(label, "fmt:" + fmt.name()));
+                buttons.add(TelegramClient.button(label, "fmt:" + fmt.name() + ":" + videoId));
             }
         }
 
-        if (buttons.isEmpty()) {
-            telegram.sendMessage(chatId, "❌ Видео слишком длинное для загрузки.");
-            return;
-        }
+        if (buttons.isEmpty()) return null;
 
         // Каждая кнопка на отдельной строке
         var rows = buttons.stream()
                 .map(List::of)
                 .toList();
-        var keyboard = InlineKeyboardMarkup.builder().keyboard(rows).build();
-        telegram.sendMessageWithKeyboard(chatId, text, keyboard);
+        return InlineKeyboardMarkup.builder().keyboard(rows).build();
     }
 
     private void sendWelcome(long chatId) {
@@ -192,10 +280,13 @@ public class BotHandler {
                 2. Выбери формат (оригинал или сжатый Opus)
                 3. Дождись файла
                 
+                Плейлист или несколько ссылок в одном сообщении — пришлю все видео по порядку,
+                формат подберу сам.
+                
                 *Ограничения:*
-                — Максимальный размер файла: 50 MB
+                — Максимальный размер файла: %s
                 — При превышении предлагаю Opus с меньшим битрейтом
-                """;
+                """.formatted(config.maxFileSizeLabel());
         if (config.isAdmin(chatId)) {
             text += "\n*Команды администратора:*\n/versions — версии компонентов";
         }
@@ -203,26 +294,24 @@ public class BotHandler {
     }
 
     private void sendVersions(long chatId) {
-        Thread.ofVirtual().start(() -> {
-            try {
-                String ytDlpVersion = getProcessOutput(
-                        List.of(config.ytDlpPath(), "--version"));
-                String ffmpegVersion = getProcessOutput(
-                        List.of(config.ffmpegPath(), "-version"))
-                        .lines().findFirst().orElse("unknown");
-
-                telegram.sendMessage(chatId, """
-                        🔧 Версии компонентов:
-                        
-                        yt-dlp: %s
-                        ffmpeg: %s
-                        Java:   %s
-                        """.formatted(ytDlpVersion, ffmpegVersion,
-                        System.getProperty("java.version")));
-            } catch (Exception e) {
-                telegram.sendMessage(chatId, "Ошибка при получении версий: " + e.getMessage());
-            }
-        });
+        try {
+            String ytDlpVersion = getProcessOutput(
+                    List.of(config.ytDlpPath(), "--version"));
+            String ffmpegVersion = getProcessOutput(
+                    List.of(config.ffmpegPath(), "-version"))
+                    .lines().findFirst().orElse("unknown");
+
+            telegram.sendMessage(chatId, """
+                    🔧 Версии компонентов:
+                    
+                    yt-dlp: %s
+                    ffmpeg: %s
+                    Java:   %s
+                    """.formatted(ytDlpVersion, ffmpegVersion,
+                    System.getProperty("java.version")));
+        } catch (Exception e) {
+            telegram.sendMessage(chatId, "Ошибка при получении версий: " + e.getMessage());
+        }
     }
 
     private String getProcessOutput(List<String> cmd) throws Exception {
@@ -232,7 +321,7 @@ public class BotHandler {
         return out;
     }
 
-    private String escapeMarkdown(String text) {
+    static String escapeMarkdown(String text) {
         return text.replace("_", "\\_").replace("*", "\\*")
                 .replace("[", "\\[").replace("`", "\\`");
     }
@@ -0,0 +1,38 @@
+package youtubebot;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Возможность прервать внешний процесс задачи снаружи.
+ *
+ * runProcess привязывает к токену запущенный процесс; cancel() убивает его,
+ * а задача завершается с CancellationException. Если отмена пришла раньше
+ * старта процесса — процесс будет убит сразу при привязке.
+ */
+public final class CancelToken {
+
+    private Process process;     // guarded by this
+    private boolean cancelled;   // guarded by this
+
+    synchronized void attach(Process process) {
+        if (cancelled) {
+            process.destroyForcibly();
+            throw new CancellationException("cancelled before start");
+        }
+        this.process = process;
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        if (process != null) process.destroyForcibly();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Бросает CancellationException, если задачу отменили */
+    public void check() {
+        if (isCancelled()) throw new CancellationException("cancelled");
+    }
+}
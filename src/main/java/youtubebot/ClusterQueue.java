@@ -0,0 +1,343 @@
+package youtubebot;
+
+import youtubebot.model.AudioKey;
+import youtubebot.model.UserSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общая очередь задач нескольких экземпляров бота в общей директории
+ * (NFS, volume). Webhook может принять любой узел, загрузку выполнит тот,
+ * у кого есть свободное место.
+ *
+ * Задача — файл с сессией (кодирование как в JobJournal):
+ *   queue/pending/{chatId}_{videoId}_{FORMAT}~{узел-источник}.job — ждёт
+ *   queue/running/{chatId}_{videoId}_{FORMAT}@{узел-владелец}.job — выполняется
+ *
+ * Захват — атомарный rename из pending в running: из нескольких узлов
+ * rename удаётся ровно одному, остальные получают NoSuchFileException.
+ * mtime файла в running — аренда: владелец обновляет его каждые
+ * lease/3 секунд. Если узел упал или завис дольше срока аренды, любой
+ * другой узел возвращает задачу в pending, и её подхватит следующий.
+ * Поэтому часы узлов должны быть синхронизированы (NTP) с точностью
+ * намного лучше срока аренды.
+ *
+ * Первые AFFINITY_MILLIS задачу может взять только узел-источник:
+ * у него уже может идти предзагрузка этого видео.
+ */
+public class ClusterQueue implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterQueue.class);
+
+    /** Кто выполняет захваченные задачи — DownloadWorker */
+    public interface Runner {
+        /** Есть место ещё под одну задачу */
+        boolean hasCapacity();
+
+        /** Запускает задачу; по её окончании нужно вызвать claim.complete() или claim.release() */
+        void run(UserSession session, Claim claim);
+    }
+
+    private static final long POLL_MILLIS     = 500;
+    private static final long AFFINITY_MILLIS = 2000;
+    private static final String JOB = ".job";
+
+    private final Path   pending;
+    private final Path   running;
+    private final Path   nodes;
+    private final String nodeId;
+    private final long   leaseMillis;
+    private final ConcurrentHashMap<Path, Claim> claims = new ConcurrentHashMap<>();   // захвачены этим узлом
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("cluster-queue").factory());
+    private volatile Runner runner;
+
+    public ClusterQueue(Path root, String nodeId, int leaseSeconds) throws IOException {
+        this.pending     = root.resolve("queue").resolve("pending");
+        this.running     = root.resolve("queue").resolve("running");
+        this.nodes       = root.resolve("nodes");
+        this.nodeId      = nodeId.replaceAll("[^A-Za-z0-9_.-]", "_");
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        Files.createDirectories(pending);
+        Files.createDirectories(running);
+        Files.createDirectories(nodes);
+    }
+
+    /** Начинает забирать задачи. Свои аренды прошлого запуска с тем же NODE_ID сразу возвращаются в очередь. */
+    public void start(Runner runner) {
+        this.runner = runner;
+        for (Path file : list(running, "*@" + nodeId + JOB)) requeue(file);
+
+        long heartbeat = Math.max(1, leaseMillis / 3);
+        scheduler.scheduleAtFixedRate(this::heartbeat, 0, heartbeat, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Cluster node {} joined {}", nodeId, pending.getParent().getParent());
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Кладёт задачу в общую очередь. false — такая же задача этого чата
+     * уже ждёт или выполняется на каком-то узле.
+     */
+    public boolean enqueue(UserSession session, AudioKey key) {
+        String name = session.chatId() + "_" + key.fileStem();
+        if (!list(pending, name + "~*" + JOB).isEmpty() || !list(running, name + "@*" + JOB).isEmpty()) {
+            return false;
+        }
+        Path tmp    = pending.resolve("." + name + "." + nodeId + ".tmp");
+        Path target = pending.resolve(name + "~" + nodeId + JOB);
+        try {
+            Files.write(tmp, JobJournal.encodeSession(session));
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            throw new IllegalStateException("Cannot enqueue job " + name + ": " + e.getMessage(), e);
+        }
+        log.debug("Enqueued {}", target.getFileName());
+        // Своя задача — не ждём следующего опроса
+        if (runner != null) {
+            try {
+                scheduler.execute(this::poll);
+            } catch (RejectedExecutionException e) {
+                // узел останавливается — задачу заберёт другой
+            }
+        }
+        return true;
+    }
+
+    /** Сколько задач ждут в общей очереди */
+    public int pendingJobs() {
+        return list(pending, "*" + JOB).size();
+    }
+
+    /** Сколько задач сейчас выполняет этот узел */
+    public int claimedJobs() {
+        return claims.size();
+    }
+
+    /** Сколько узлов подавали признаки жизни в пределах срока аренды */
+    public int liveNodes() {
+        long cutoff = System.currentTimeMillis() - leaseMillis;
+        int live = 0;
+        for (Path node : list(nodes, "*")) {
+            if (modifiedAt(node) >= cutoff) live++;
+        }
+        return live;
+    }
+
+    /**
+     * Остановка: новые задачи больше не забираются, незавершённые
+     * возвращаются в очередь — их доделает другой узел.
+     */
+    @Override
+    public void close() {
+        runner = null;
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Claim claim : claims.values()) claim.release();
+        deleteQuietly(nodes.resolve(nodeId));
+    }
+
+    // ── Захват ─────────────────────────────────────────────────────────────
+
+    private void poll() {
+        Runner current = runner;
+        if (current == null) return;
+        try {
+            reapExpired();
+            if (!current.hasCapacity()) return;
+
+            long now = System.currentTimeMillis();
+            var candidates = new ArrayList<Candidate>();
+            for (Path file : list(pending, "*" + JOB)) {
+                long queuedAt = modifiedAt(file);
+                if (queuedAt < 0) continue;
+                boolean mine = originOf(file).equals(nodeId);
+                // Чужую свежую задачу оставляем узлу-источнику
+                if (!mine && now - queuedAt < AFFINITY_MILLIS) continue;
+                candidates.add(new Candidate(file, queuedAt));
+            }
+            candidates.sort(Comparator.comparingLong(Candidate::queuedAt));
+
+            for (Candidate candidate : candidates) {
+                if (runner == null || !current.hasCapacity()) return;
+                Claim claim = tryClaim(candidate.file);
+                if (claim == null) continue;
+                try {
+                    UserSession session = JobJournal.decodeSession(ByteBuffer.wrap(Files.readAllBytes(claim.file)));
+                    log.info("Claimed job {} for chatId={}", claim.name, session.chatId());
+                    current.run(session, claim);
+                } catch (Exception e) {
+                    log.error("Dropping unreadable job {}: {}", claim.file.getFileName(), e.getMessage());
+                    claim.complete();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Cluster poll failed: {}", e.getMessage());
+        }
+    }
+
+    /** null — задачу уже забрал другой узел */
+    private Claim tryClaim(Path file) {
+        String name   = stripSuffix(file, '~');
+        Path   target = running.resolve(name + "@" + nodeId + JOB);
+        try {
+            // rename сохраняет mtime — аренда должна начаться свежей, иначе её сразу сочтут истёкшей
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Cannot claim {}: {}", file.getFileName(), e.getMessage());
+            return null;
+        }
+        var claim = new Claim(name, target);
+        claims.put(target, claim);
+        return claim;
+    }
+
+    /** Аренды упавших узлов — обратно в очередь */
+    private void reapExpired() {
+        long cutoff = System.currentTimeMillis() - leaseMillis;
+        for (Path file : list(running, "*" + JOB)) {
+            if (claims.containsKey(file)) continue;
+            long heartbeatAt = modifiedAt(file);
+            if (heartbeatAt < 0 || heartbeatAt >= cutoff) continue;
+            log.warn("Lease {} expired {} ms ago, requeueing", file.getFileName(), cutoff - heartbeatAt);
+            requeue(file);
+        }
+    }
+
+    /** Возвращает задачу в pending без узла-источника: её может взять кто угодно */
+    private boolean requeue(Path runningFile) {
+        Path target = pending.resolve(stripSuffix(runningFile, '@') + "~" + JOB);
+        try {
+            Files.move(runningFile, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;   // другой узел успел раньше
+        } catch (IOException e) {
+            log.warn("Cannot requeue {}: {}", runningFile.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        Path node = nodes.resolve(nodeId);
+        if (!touch(node, now)) {
+            try {
+                Files.createFile(node);
+            } catch (IOException e) {
+                log.warn("Cannot write node heartbeat {}: {}", node, e.getMessage());
+            }
+        }
+        for (Claim claim : claims.values()) {
+            if (!touch(claim.file, now) && !Files.exists(claim.file)) {
+                // Узел не продлевал аренду дольше срока, и задачу отдали другому
+                log.warn("Lease {} was lost, the job may run twice", claim.file.getFileName());
+                claims.remove(claim.file);
+            }
+        }
+    }
+
+    // ── Файлы ──────────────────────────────────────────────────────────────
+
+    /** Имя задачи без суффикса ~источник / @владелец и расширения */
+    private static String stripSuffix(Path file, char separator) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf(separator));
+    }
+
+    private static String originOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(name.lastIndexOf('~') + 1, name.length() - JOB.length());
+    }
+
+    private static List<Path> list(Path dir, String glob) {
+        var files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : stream) files.add(file);
+        } catch (IOException e) {
+            log.warn("Cannot list {}: {}", dir, e.getMessage());
+        }
+        return files;
+    }
+
+    /** mtime в мс, -1 если файла уже нет */
+    private static long modifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static boolean touch(Path file, long now) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try { Files.deleteIfExists(file); }
+        catch (IOException e) { log.warn("Could not delete file: {}", file); }
+    }
+
+    private record Candidate(Path file, long queuedAt) {}
+
+    /** Задача, захваченная этим узлом. Закрывается ровно одним из complete / release. */
+    public final class Claim {
+        private final String name;
+        private final Path   file;
+        private boolean done;
+
+        private Claim(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        /** Задача выполнена (успешно или с ошибкой, о которой пользователь уже знает) */
+        public synchronized void complete() {
+            if (done) return;
+            done = true;
+            claims.remove(file);
+            deleteQuietly(file);
+        }
+
+        /** Задача не доделана — вернуть в очередь другим узлам */
+        public synchronized void release() {
+            if (done) return;
+            done = true;
+            claims.remove(file);
+            if (requeue(file)) log.info("Released job {} back to the queue", name);
+        }
+    }
+}
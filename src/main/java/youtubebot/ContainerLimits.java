@@ -0,0 +1,104 @@
+package youtubebot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Ресурсы, которые реально доступны контейнеру: квота CPU и лимит памяти cgroup.
+ *
+ * По ним считается, сколько yt-dlp и ffmpeg можно запускать одновременно.
+ * Читаем cgroup v2 (/sys/fs/cgroup/cpu.max, memory.max), при его отсутствии — v1.
+ * Вне контейнера лимитов нет: CPU берём у JVM, память считаем неограниченной.
+ */
+public record ContainerLimits(int cpus, long memoryBytes) {
+
+    private static final Logger log = LoggerFactory.getLogger(ContainerLimits.class);
+
+    private static final Path CGROUP = Path.of("/sys/fs/cgroup");
+
+    /** Примерное потребление памяти одним процессом yt-dlp (Python + экстракторы) */
+    private static final long YT_DLP_PROCESS_BYTES = 150L * 1024 * 1024;
+    /** Примерное потребление памяти ffmpeg при перекодировании аудио */
+    private static final long FFMPEG_PROCESS_BYTES = 100L * 1024 * 1024;
+
+    public static ContainerLimits detect() {
+        int  cpus   = Runtime.getRuntime().availableProcessors();
+        long quota  = cpuQuota();
+        if (quota > 0) cpus = (int) Math.min(cpus, quota);
+        var limits = new ContainerLimits(Math.max(1, cpus), memoryLimit());
+        log.info("Container limits: cpus={}, memory={}", limits.cpus,
+                limits.memoryBytes > 0 ? limits.memoryBytes / (1024 * 1024) + " MB" : "unlimited");
+        return limits;
+    }
+
+    /**
+     * Сколько загрузок держать одновременно. Загрузка упирается в сеть,
+     * а не в CPU, поэтому их можно больше чем ядер — но каждая стоит памяти.
+     */
+    public int downloadSlots() {
+        return fitInMemory(cpus * 4, YT_DLP_PROCESS_BYTES);
+    }
+
+    /** Перекодирование упирается в CPU — не больше одного процесса на ядро */
+    public int transcodeSlots() {
+        return fitInMemory(cpus, FFMPEG_PROCESS_BYTES);
+    }
+
+    private int fitInMemory(int wanted, long perProcess) {
+        if (memoryBytes <= 0) return wanted;
+        // Память под кучу JVM уже занята — процессам достаётся остаток
+        long spare = memoryBytes - Runtime.getRuntime().maxMemory();
+        return (int) Math.max(1, Math.min(wanted, spare / perProcess));
+    }
+
+    // ── cgroup ─────────────────────────────────────────────────────────────
+
+    /** Квота CPU в ядрах (округление вверх), -1 если не ограничена */
+    private static long cpuQuota() {
+        // v2: "200000 100000" или "max 100000"
+        String v2 = read(CGROUP.resolve("cpu.max"));
+        if (v2 != null) {
+            String[] parts = v2.split("\\s+");
+            if (parts.length == 2 && !parts[0].equals("max")) {
+                return ceilDiv(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            }
+            return -1;
+        }
+        // v1: отдельные файлы, -1 — без ограничения
+        String quota  = read(CGROUP.resolve("cpu/cpu.cfs_quota_us"));
+        String period = read(CGROUP.resolve("cpu/cpu.cfs_period_us"));
+        if (quota != null && period != null && !quota.startsWith("-")) {
+            return ceilDiv(Long.parseLong(quota), Long.parseLong(period));
+        }
+        return -1;
+    }
+
+    /** Лимит памяти в байтах, -1 если не ограничен */
+    private static long memoryLimit() {
+        String raw = read(CGROUP.resolve("memory.max"));
+        if (raw == null) raw = read(CGROUP.resolve("memory/memory.limit_in_bytes"));
+        if (raw == null || raw.equals("max")) return -1;
+        try {
+            long limit = Long.parseLong(raw);
+            // v1 без ограничения отдаёт число около Long.MAX_VALUE
+            return limit > (1L << 50) ? -1 : limit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return b <= 0 ? -1 : (a + b - 1) / b;
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.isReadable(file) ? Files.readString(file).trim() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package youtubebot;
+
+import youtubebot.model.AudioKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Реестр загрузок, которые идут прямо сейчас: (videoId, формат) → задача.
+ *
+ * Когда видео расходится по группам, десятки чатов выбирают один и тот же
+ * формат почти одновременно. Вместо десятка одинаковых yt-dlp/ffmpeg первый
+ * запрос запускает задачу, а остальные подписываются на её результат.
+ *
+ * Готовый файл принадлежит задаче. Он освобождается (Lease закрывается)
+ * только когда последний подписчик закончил отправку.
+ *
+ * Спекулятивная задача (prefetch) запускается без подписчиков, пока пользователь
+ * ещё выбирает формат. Первый подписчик делает её обычной. До этого её можно
+ * отменить — когда сессия истекла или место нужно подтверждённой загрузке.
+ *
+ * Задача делает файл с лимитом размера (для Telegram) или без него, и лимит —
+ * часть ключа: файл, оборванный на лимите, не годится тому, кому нужен целиком.
+ * Подписчик с лимитом присоединяется и к задаче без лимита — её файл полный,
+ * а влезает ли он, проверяется перед отправкой.
+ */
+public class DownloadJobs {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadJobs.class);
+
+    /** Делает файл; ход работы пишет в progress задачи — его видят все подписчики */
+    @FunctionalInterface
+    public interface Producer {
+        AudioCache.Lease produce(Progress progress) throws Exception;
+    }
+
+    /** Ключ задачи: limit > 0 — producer обрывает файл на этом размере */
+    private record JobKey(AudioKey audio, long limit) {
+        @Override
+        public String toString() {
+            return limit > 0 ? audio + " (limit " + limit + ")" : audio.toString();
+        }
+    }
+
+    private final ConcurrentHashMap<JobKey, Job> running = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public DownloadJobs(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Подписывается на загрузку ключа. Если такой загрузки нет — запускает
+     * producer в отдельной задаче. Подписку нужно закрыть после отправки файла.
+     *
+     * limit — лимит размера, с которым работает producer (0 — без лимита).
+     */
+    public Subscription subscribe(AudioKey key, long limit, Producer producer) {
+        var jobKey = new JobKey(key, Math.max(0, limit));
+        while (true) {
+            if (jobKey.limit() > 0) {
+                Job full = running.get(new JobKey(key, 0));
+                if (full != null && join(full)) return new Subscription(full, true);
+            }
+            var fresh = new Job(jobKey);
+            Job job = running.putIfAbsent(jobKey, fresh);
+            if (job == null) {
+                start(fresh, producer);
+                return new Subscription(fresh, false);
+            }
+            if (join(job)) return new Subscription(job, true);
+            // Задачу только что бросили все подписчики или отменили — запускаем новую
+        }
+    }
+
+    /** Ещё один подписчик идущей задачи; false — она уже освобождена */
+    private boolean join(Job job) {
+        synchronized (job) {
+            if (job.released) return false;
+            job.subscribers++;
+            if (job.token != null) {
+                job.token = null;   // теперь её ждут — отменять нельзя
+                log.info("Speculative job {} confirmed", job.key);
+            }
+            log.debug("Joined running job {} ({} subscribers)", job.key, job.subscribers);
+            return true;
+        }
+    }
+
+    /**
+     * Запускает спекулятивную загрузку без лимита, если этот ключ ещё не грузится.
+     * Повторный prefetch того же ключа только увеличивает число заинтересованных.
+     *
+     * @return true — запущена новая задача; false — ключ уже грузился, producer не вызовется
+     */
+    public boolean prefetch(AudioKey key, CancelToken token, Producer producer) {
+        var fresh = new Job(new JobKey(key, 0), token);
+        Job job = running.putIfAbsent(fresh.key, fresh);
+        if (job == null) {
+            log.debug("Speculative job {} started", key);
+            start(fresh, producer);
+            return true;
+        }
+        synchronized (job) {
+            if (job.token != null) job.watchers++;
+        }
+        return false;
+    }
+
+    /**
+     * Отменяет спекулятивную загрузку ключа, когда она больше никому не нужна.
+     * Задачи, на которые уже подписались, не трогает.
+     */
+    public void cancelSpeculative(AudioKey key) {
+        Job job = running.get(new JobKey(key, 0));
+        if (job == null) return;
+        synchronized (job) {
+            if (job.token == null || --job.watchers > 0) return;
+        }
+        cancel(job, "no longer wanted");
+    }
+
+    /** Отменяет одну любую спекулятивную загрузку, чтобы освободить место. */
+    public boolean cancelAnySpeculative() {
+        for (Job job : running.values()) {
+            if (cancel(job, "slot needed by confirmed job")) return true;
+        }
+        return false;
+    }
+
+    /** true — ключ сейчас грузится (с лимитом или без, в том числе спекулятивно) */
+    public boolean isRunning(AudioKey key) {
+        for (JobKey jobKey : running.keySet()) {
+            if (jobKey.audio().equals(key)) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return running.size();
+    }
+
+    private boolean cancel(Job job, String reason) {
+        CancelToken token;
+        synchronized (job) {
+            if (job.token == null || job.released) return false;
+            token = job.token;
+            job.released = true;
+        }
+        running.remove(job.key, job);
+        token.cancel();
+        job.result.thenAccept(AudioCache.Lease::close);
+        log.info("Speculative job {} cancelled: {}", job.key, reason);
+        return true;
+    }
+
+    private void start(Job job, Producer producer) {
+        executor.submit(() -> {
+            try {
+                job.result.complete(producer.produce(job.progress));
+            } catch (Throwable e) {
+                job.result.completeExceptionally(e);
+            } finally {
+                // Новые запросы дальше пойдут в кэш, а не к этой задаче
+                running.remove(job.key, job);
+                releaseIfUnwatched(job);
+            }
+        });
+    }
+
+    /** Спекулятивная задача закончилась, а подписчиков нет — файл остаётся только в кэше */
+    private void releaseIfUnwatched(Job job) {
+        synchronized (job) {
+            if (job.subscribers > 0 || job.released) return;
+            job.released = true;
+        }
+        job.result.thenAccept(AudioCache.Lease::close);
+    }
+
+    private void unsubscribe(Job job) {
+        synchronized (job) {
+            if (--job.subscribers > 0) return;
+            job.released = true;
+        }
+        running.remove(job.key, job);
+        // Если задача ещё идёт — файл освободится, когда она закончится
+        job.result.thenAccept(AudioCache.Lease::close);
+    }
+
+    private static final class Job {
+        final JobKey key;
+        final CompletableFuture<AudioCache.Lease> result = new CompletableFuture<>();
+        final Progress progress = new Progress();
+        int         subscribers;   // guarded by this
+        int         watchers;      // guarded by this; сколько сессий ждут спекулятивную задачу
+        CancelToken token;         // guarded by this; не null — задача спекулятивная
+        boolean     released;      // guarded by this
+
+        /** Обычная задача — сразу с одним подписчиком */
+        Job(JobKey key) {
+            this.key         = key;
+            this.subscribers = 1;
+        }
+
+        /** Спекулятивная задача — без подписчиков, отменяется через token */
+        Job(JobKey key, CancelToken token) {
+            this.key      = key;
+            this.token    = token;
+            this.watchers = 1;
+        }
+    }
+
+    /** Подписка одного чата на результат загрузки */
+    public final class Subscription implements AutoCloseable {
+
+        private final Job     job;
+        private final boolean joined;
+        private boolean closed;
+
+        private Subscription(Job job, boolean joined) {
+            this.job    = job;
+            this.joined = joined;
+        }
+
+        /** true — загрузку начал кто-то другой, мы присоединились */
+        public boolean joined() {
+            return joined;
+        }
+
+        /** Ход загрузки — общий для всех подписчиков */
+        public Progress progress() {
+            return job.progress;
+        }
+
+        /** Ждёт окончания загрузки. Файл валиден до закрытия подписки. */
+        public Path await() throws Exception {
+            try {
+                return job.result.get().path();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) throw cause;
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            unsubscribe(job);
+        }
+    }
+}
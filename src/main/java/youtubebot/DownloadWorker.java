@@ -1,24 +1,36 @@
 package youtubebot;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+import youtubebot.model.Playlist;
 import youtubebot.model.UserSession;
 import youtubebot.model.VideoInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Message;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -26,30 +38,109 @@ import java.util.regex.Pattern;
  *
  * Каждая загрузка запускается в отдельном виртуальном потоке.
  * Пока yt-dlp работает (блокирующий вызов), виртуальный поток паркуется
- * и не занимает OS-ресурсы.
+ * и не занимает OS-ресурсы. Потоков может быть сколько угодно, а вот
+ * внешних процессов — не больше, чем позволяют ProcessLimiter-ы.
  */
 public class DownloadWorker {
 
     private static final Logger log = LoggerFactory.getLogger(DownloadWorker.class);
 
+    /** yt-dlp печатает ход строкой «PROGRESS скачано/всего» — её разбирает ProgressScanner */
+    private static final String YT_DLP_PROGRESS_TEMPLATE =
+            "download:PROGRESS %(progress.downloaded_bytes)s/%(progress.total_bytes,progress.total_bytes_estimate)s";
+
+    /** Правки статуса на меньший шаг не отправляются */
+    private static final int PROGRESS_MIN_STEP = 5;
+
+    /** Часть режется на такую долю лимита: битрейт внутри файла неровный */
+    private static final double SPLIT_FILL     = 0.9;
+    /** Если часть всё же вышла больше лимита — режем мельче, не больше стольких раз */
+    private static final int    SPLIT_ATTEMPTS = 3;
+
     private static final Pattern YOUTUBE_URL = Pattern.compile(
             "^https?://(?:www\\.)?(?:youtube\\.com/watch\\?v=|youtu\\.be/)([a-zA-Z0-9_-]{11})(?:[&?].*)?$"
     );
 
+    /** Ссылка на сам плейлист; watch?v=...&list=... — это одно видео из него */
+    private static final Pattern PLAYLIST_URL = Pattern.compile(
+            "^https?://(?:www\\.|m\\.)?youtube\\.com/playlist\\?(?:[^#]*&)?list=([a-zA-Z0-9_-]{2,64})(?:&.*)?$"
+    );
+
     private final AppConfig        config;
     private final TelegramClient   telegram;
-    private final ObjectMapper     json    = new ObjectMapper();
+    private final AudioCache       cache;
+    private final FileIdIndex      fileIds;
+    private final MetadataCache    metadataCache;
+    private final YtDlpDaemonPool  ytDlp;
+    private final Metrics          metrics;
+    private final JobJournal       journal;
+    private final ClusterQueue     cluster;   // null — один узел
+    private final AtomicInteger    active = new AtomicInteger();   // задачи пользователей в работе
+    private final Set<Long>        batchChats = ConcurrentHashMap.newKeySet();   // у этих чатов идёт список
+    private volatile BiConsumer<UserSession, AudioFormat> onTooLarge = (session, format) -> {};
+    private volatile boolean draining;   // остановка: новые задачи только в журнал
+    private volatile boolean stopping;   // оставшиеся задачи прерываются
     private final ExecutorService  executor =
             Executors.newVirtualThreadPerTaskExecutor();
+    private final DownloadJobs     jobs    = new DownloadJobs(executor);
+    private final ProcessLimiter   downloads;    // сеть: yt-dlp
+    private final ProcessLimiter   transcodes;   // CPU: ffmpeg
 
-    public DownloadWorker(AppConfig config, TelegramClient telegram) {
+    public DownloadWorker(AppConfig config, TelegramClient telegram,
+                          AudioCache cache, FileIdIndex fileIds, YtDlpDaemonPool ytDlp,
+                          Metrics metrics, JobJournal journal, ClusterQueue cluster) {
         this.config   = config;
         this.telegram = telegram;
+        this.cache    = cache;
+        this.fileIds  = fileIds;
+        this.ytDlp    = ytDlp;
+        this.metrics  = metrics;
+        this.journal  = journal;
+        this.cluster  = cluster;
+        this.metadataCache = new MetadataCache(
+                config.metadataCacheTtlSeconds() * 1000L, config.metadataCacheMaxEntries());
+
+        var limits = ContainerLimits.detect();
+        this.downloads = new ProcessLimiter("download", config.maxConcurrentDownloads() > 0
+                ? config.maxConcurrentDownloads() : limits.downloadSlots());
+        this.transcodes = new ProcessLimiter("transcode", config.maxConcurrentTranscodes() > 0
+                ? config.maxConcurrentTranscodes() : limits.transcodeSlots());
+        // Подтверждённая задача встала в очередь — фоновая предзагрузка уступает место
+        this.downloads.onContention(jobs::cancelAnySpeculative);
+    }
+
+    /**
+     * Файл в формате format не влезает в лимит Telegram. Бросается, как только
+     * это стало ясно, — процесс к этому моменту уже убит.
+     */
+    static final class TooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final AudioFormat format;
+
+        TooLargeException(AudioFormat format) {
+            super("Файл превышает лимит Telegram");
+            this.format = format;
+        }
+
+        AudioFormat format() {
+            return format;
+        }
+    }
+
+    /** Слушатель задач, оборванных по размеру: ему предлагать пользователю формат поменьше */
+    public void onTooLarge(BiConsumer<UserSession, AudioFormat> listener) {
+        this.onTooLarge = listener;
     }
 
     // ── Валидация ──────────────────────────────────────────────────────────
 
     public boolean isValidYouTubeUrl(String url) {
+        return isYouTubeUrl(url);
+    }
+
+    /** Проверка без состояния воркера — её же меряет бенчмарк */
+    static boolean isYouTubeUrl(String url) {
         if (url == null || url.length() > 200) return false;
         if (!YOUTUBE_URL.matcher(url).matches()) return false;
         try {
@@ -62,13 +153,62 @@ public class DownloadWorker {
         }
     }
 
+    static boolean isPlaylistUrl(String url) {
+        return url != null && url.length() <= 200 && PLAYLIST_URL.matcher(url).matches();
+    }
+
+    /**
+     * Ссылки сообщения, если это список: плейлист или несколько ссылок на видео
+     * через пробел или перенос строки. null — обычное сообщение или одна ссылка.
+     */
+    static List<String> batchLinks(String text) {
+        String[] tokens = text.trim().split("\\s+");
+        var links = new ArrayList<String>(tokens.length);
+        boolean playlist = false;
+        for (String token : tokens) {
+            if (isPlaylistUrl(token)) {
+                playlist = true;
+            } else if (!isYouTubeUrl(token)) {
+                return null;
+            }
+            links.add(token);
+        }
+        return playlist || links.size() > 1 ? links : null;
+    }
+
+    /** 11-символьный ID видео из ссылки, null если ссылка не распознана */
+    public String videoId(String url) {
+        if (url == null) return null;
+        Matcher m = YOUTUBE_URL.matcher(url);
+        return m.matches() ? m.group(1) : null;
+    }
+
     // ── Метаданные ─────────────────────────────────────────────────────────
 
     /**
-     * Получает метаданные видео через yt-dlp --dump-json.
+     * Получает метаданные видео — из кэша или через yt-dlp --dump-json.
      * Выбрасывает исключение если видео недоступно или превышен таймаут.
      */
     public VideoInfo getMetadata(String url) throws Exception {
+        String id = videoId(url);
+        if (id == null) return probeMetadata(url);
+        return metadataCache.get(id, () -> probeMetadata(url));
+    }
+
+    public MetadataCache metadataCache() {
+        return metadataCache;
+    }
+
+    private VideoInfo probeMetadata(String url) throws Exception {
+        long started = System.nanoTime();
+        try {
+            return runProbe(url);
+        } finally {
+            metrics.observe(Metrics.Stage.METADATA, started);
+        }
+    }
+
+    private VideoInfo runProbe(String url) throws Exception {
         var cmd = new ArrayList<String>();
         cmd.addAll(List.of(
                 config.ytDlpPath(),
@@ -76,8 +216,36 @@ public class DownloadWorker {
                 "--no-warnings",
                 "--no-playlist",
                 "--no-check-certificate",
-                "--extractor-args", "youtube:skip=dash",
-                "--verbose"   // временно для диагностики, потом заменить на --quiet
+                "--extractor-args", "youtube:skip=dash"
+        ));
+        if (config.cookiesFile() != null) {
+            cmd.add("--cookies");
+            cmd.add(config.cookiesFile());
+        }
+        cmd.add(url);
+
+        if (ytDlp.isEnabled()) {
+            try {
+                return ytDlp.probe(cmd.subList(1, cmd.size()));
+            } catch (YtDlpDaemonPool.WorkerUnavailableException e) {
+                log.warn("yt-dlp worker unavailable, running one-shot: {}", e.getMessage());
+            }
+        }
+        // JSON читается прямо из stdout, диагностика yt-dlp идёт в stderr отдельно
+        return runProcess(cmd, "metadata", MetadataParser::parse);
+    }
+
+    /**
+     * Список видео плейлиста одним вызовом yt-dlp: --flat-playlist не заходит
+     * в каждое видео, поэтому это секунды даже для сотни элементов.
+     */
+    Playlist probePlaylist(String url, int maxEntries) throws Exception {
+        var cmd = new ArrayList<String>();
+        cmd.addAll(List.of(
+                config.ytDlpPath(),
+                "--flat-playlist",
+                "--dump-single-json",
+                "--no-warnings"
         ));
         if (config.cookiesFile() != null) {
             cmd.add("--cookies");
@@ -85,136 +253,908 @@ public class DownloadWorker {
         }
         cmd.add(url);
 
-        String output = runProcess(cmd, "metadata");
-        return parseMetadata(output);
+        long started = System.nanoTime();
+        try {
+            return runProcess(cmd, "playlist", stdout -> MetadataParser.parsePlaylist(stdout, maxEntries));
+        } finally {
+            metrics.observe(Metrics.Stage.METADATA, started);
+        }
     }
 
-    private VideoInfo parseMetadata(String jsonOutput) throws Exception {
-        JsonNode root = json.readTree(jsonOutput);
+    // ── Загрузка ───────────────────────────────────────────────────────────
 
-        String title    = root.path("title").asText("Unknown");
-        long   duration = root.path("duration").asLong(0);
+    /**
+     * Запускает загрузку в виртуальном потоке.
+     * По завершении отправляет файл пользователю или сообщение об ошибке.
+     *
+     * Если этот формат этого видео уже отправлялся — переотправляем по file_id.
+     * Если уже скачивался — файл берётся из кэша и yt-dlp не запускается вовсе.
+     * Если прямо сейчас скачивается для другого чата — ждём ту же загрузку.
+     *
+     * Задача сначала пишется в журнал: если процесс остановится раньше,
+     * чем она закончится, после рестарта её запустит resumeUnfinished.
+     * В кластере вместо журнала — общая очередь: задачу заберёт любой
+     * узел со свободным местом, а если он упадёт — следующий.
+     */
+    public void startAsync(UserSession session) {
+        if (cluster != null) {
+            try {
+                if (!cluster.enqueue(session, new AudioKey(videoId(session.url()), session.selectedFormat()))) {
+                    telegram.sendMessage(session.chatId(), "Загрузка уже идёт, подождите.");
+                }
+                return;
+            } catch (IllegalStateException e) {
+                // Общая директория недоступна — выполняем на этом узле
+                log.error("{}, running locally", e.getMessage());
+            }
+        }
+        long jobId = journal.queued(session);
+        if (draining) {
+            // Бот останавливается — задача дождётся следующего запуска в журнале
+            telegram.sendStatus(session.chatId(), "🔄 Бот перезапускается, загрузка начнётся через минуту.");
+            return;
+        }
+        submit(session, journaled(jobId));
+    }
 
-        // Ищем лучший аудио-only формат
-        JsonNode formats = root.path("formats");
-        String   fmt     = "m4a";
-        String   codec   = "aac";
-        int      bitrate = 128;
-        long     size    = -1;
+    /** Запускает задачи, которые не успели завершиться до остановки бота */
+    public void resumeUnfinished() {
+        for (JobJournal.Pending job : journal.unfinished()) {
+            UserSession session = job.session();
+            log.info("Resuming job {} for chatId={} from {}", job.jobId(), session.chatId(), job.state());
+            telegram.sendStatus(session.chatId(),
+                    "🔄 Бот перезапускался — продолжаю загрузку «%s»...".formatted(session.videoInfo().title()));
+            submit(session, journaled(job.jobId()));
+        }
+    }
+
+    /**
+     * Плейлист или несколько ссылок: видео готовятся параллельно, но не больше
+     * BATCH_PARALLELISM одновременно, а отправляются строго по порядку списка.
+     * У чата идёт не больше одного списка — большой плейлист одного
+     * пользователя не займёт все места загрузки.
+     */
+    public void startBatch(long chatId, List<String> links) {
+        if (!batchChats.add(chatId)) {
+            telegram.sendMessage(chatId, "Дождитесь окончания предыдущего списка.");
+            return;
+        }
+        active.incrementAndGet();
+        executor.submit(() -> {
+            try {
+                new BatchJob(this, config, telegram, journal, executor, chatId, links).run();
+            } finally {
+                batchChats.remove(chatId);
+                active.decrementAndGet();
+            }
+        });
+    }
 
-        for (JsonNode f : formats) {
-            boolean audioOnly = f.path("vcodec").asText().equals("none")
-                    && !f.path("acodec").asText().equals("none");
-            if (!audioOnly) continue;
+    /** Идёт остановка и оставшиеся задачи прерываются — им место в журнале, а не DONE */
+    boolean isStopping() {
+        return stopping;
+    }
 
-            int br = f.path("abr").asInt(0);
-            if (br <= 0) continue;
+    /** Начинает забирать задачи из общей очереди — пока есть свободные места загрузки */
+    public void joinCluster() {
+        if (cluster == null) return;
+        cluster.start(new ClusterQueue.Runner() {
+            @Override
+            public boolean hasCapacity() {
+                return !draining && active.get() < downloads.permits();
+            }
 
-            if (br > bitrate) {
-                bitrate = br;
-                fmt     = f.path("ext").asText("m4a");
-                codec   = f.path("acodec").asText("aac");
-                size    = f.path("filesize").asLong(-1);
-                if (size <= 0) size = f.path("filesize_approx").asLong(-1);
+            @Override
+            public void run(UserSession session, ClusterQueue.Claim claim) {
+                submit(session, new JobHandle() {
+                    @Override public void stage(JobJournal.State state) {
+                        if (state == JobJournal.State.DONE) claim.complete();
+                    }
+                    @Override public void interrupted() {
+                        claim.release();
+                    }
+                });
             }
+        });
+    }
+
+    /** Куда задача сообщает о своих стадиях: журнал этого узла или аренда в общей очереди */
+    private interface JobHandle {
+        void stage(JobJournal.State state);
+
+        /** Задача прервана остановкой бота и должна продолжиться позже */
+        void interrupted();
+    }
+
+    private JobHandle journaled(long jobId) {
+        return new JobHandle() {
+            @Override public void stage(JobJournal.State state) {
+                journal.transition(jobId, state);
+            }
+            @Override public void interrupted() {
+                // остаётся в журнале незавершённой
+            }
+        };
+    }
+
+    private void submit(UserSession session, JobHandle job) {
+        active.incrementAndGet();
+        executor.submit(() -> {
+            try {
+                process(session, job);
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    private void process(UserSession session, JobHandle handle) {
+        long   chatId  = session.chatId();
+        var    key     = new AudioKey(videoId(session.url()), session.selectedFormat());
+        String title   = session.videoInfo().title();
+        String caption = session.selectedFormat().displayName();
+
+        try {
+            if (key.format().isSplit()) {
+                deliverInParts(session, handle);
+                handle.stage(JobJournal.State.DONE);
+                return;
+            }
+            if (resendKnown(chatId, key, title, caption, true)) {
+                handle.stage(JobJournal.State.DONE);
+                return;
+            }
+
+            AudioCache.Lease cached = cache.acquire(key);
+            if (cached != null) {
+                log.info("Cache hit for {}", key);
+                metrics.cacheHit("disk");
+                try (cached) {
+                    handle.stage(JobJournal.State.UPLOADING);
+                    deliver(chatId, key, cached.path(), title, caption, true);
+                }
+            } else if (!shouldStream(key) || !streamToChat(chatId, key, session, handle, title, caption)) {
+                long limit = config.maxFileSizeBytes();
+                try (var job = jobs.subscribe(key, limit, progress -> fetch(key, session, progress, limit))) {
+                    var status = telegram.sendStatus(chatId, job.joined()
+                            ? "⏳ Это видео уже загружается, осталось немного..."
+                            : "⏳ Загружаю аудио...");
+                    var reporter = reportProgress(chatId, status, job.progress());
+                    var stages   = job.progress().listen((stage, percent) ->
+                            handle.stage(stage == Progress.Stage.DOWNLOAD
+                                    ? JobJournal.State.DOWNLOADING
+                                    : JobJournal.State.TRANSCODING));
+                    try {
+                        Path file = job.await();
+                        handle.stage(JobJournal.State.UPLOADING);
+                        deliver(chatId, key, file, title, caption, true);
+                    } finally {
+                        stages.close();
+                        reporter.close();
+                    }
+                }
+            }
+            handle.stage(JobJournal.State.DONE);
+        } catch (TooLargeException e) {
+            log.info("{} for chatId={} exceeds the size limit", key, chatId);
+            handle.stage(JobJournal.State.DONE);
+            metrics.failure(errorCategory(e));
+            session.rejectFormat();
+            onTooLarge.accept(session, e.format());
+        } catch (Exception e) {
+            if (stopping) {
+                // Прервана остановкой бота — продолжится после рестарта или на другом узле
+                log.info("Job {} for chatId={} interrupted by shutdown, will resume", key, chatId);
+                handle.interrupted();
+                return;
+            }
+            log.error("Download failed for chatId={}", chatId, e);
+            handle.stage(JobJournal.State.DONE);
+            metrics.failure(errorCategory(e));
+            telegram.sendMessage(chatId, "❌ Ошибка: " + friendlyError(e));
         }
+    }
 
-        return new VideoInfo(title, duration, fmt, codec, bitrate, size);
+    /**
+     * Переотправляет файл по сохранённому file_id. false — file_id нет или он устарел.
+     * Сетевые ошибки и отказы Telegram по другим причинам пробрасываются, file_id остаётся.
+     */
+    private boolean resendKnown(long chatId, AudioKey key, String title, String caption,
+                                boolean confirm) throws Exception {
+        TelegramClient.UploadedFile known = fileIds.get(key);
+        if (known == null) return false;
+        if (telegram.resendAudio(chatId, known, title, caption)) {
+            log.info("Resent {} by file_id", key);
+            metrics.cacheHit("file_id");
+            if (confirm) telegram.sendMessage(chatId, "✅ Готово!");
+            return true;
+        }
+        fileIds.remove(key);
+        return false;
     }
 
-    // ── Загрузка ───────────────────────────────────────────────────────────
+    /**
+     * confirm — после файла отдельное «Готово» (в списке его нет: там общий итог).
+     * false — upload не удался, об ошибке пользователю уже написал TelegramClient.
+     */
+    private boolean deliver(long chatId, AudioKey key, Path file, String title, String caption,
+                            boolean confirm) throws Exception {
+        // Подписчики общей загрузки отправляют по очереди — после первого
+        // upload остальным достаточно file_id
+        if (resendKnown(chatId, key, title, caption, confirm)) return true;
+
+        if (Files.size(file) > config.maxFileSizeBytes()) throw new TooLargeException(key.format());
+
+        long started = System.nanoTime();
+        var uploaded = telegram.sendAudio(chatId, file, title, caption);
+        metrics.observe(Metrics.Stage.UPLOAD, started);
+        if (uploaded == null) return false;
+        fileIds.put(key, uploaded);
+        if (confirm) telegram.sendMessage(chatId, "✅ Готово!");
+        return true;
+    }
+
+    // ── Части ──────────────────────────────────────────────────────────────
+
+    /** Сколько частей получится из файла size байт — для подписи кнопки */
+    static int estimateParts(long size, long limit) {
+        return parts(size, limit, SPLIT_FILL);
+    }
+
+    /** Части по limit * fill байт, но не меньше двух */
+    private static int parts(long size, long limit, double fill) {
+        return (int) Math.max(2, Math.ceil(size / (limit * fill)));
+    }
 
     /**
-     * Запускает загрузку в виртуальном потоке.
-     * По завершении отправляет файл пользователю или сообщение об ошибке.
+     * Длина части в секундах: длительность делится на parts частей с округлением
+     * вверх, поэтому частей выходит не больше, чем обещала кнопка.
      */
-    public void startAsync(UserSession session) {
-        executor.submit(() -> {
-            long chatId = session.chatId();
-            Path tempFile = null;
+    static long segmentSeconds(long size, long durationSeconds, long limit, double fill) {
+        int parts = parts(size, limit, fill);
+        return Math.max(1, (durationSeconds + parts - 1) / parts);
+    }
+
+    /**
+     * SPLIT: оригинал целиком (он же источник для перекодирования — общий
+     * с ним кэш и загрузка) режется на части и уходит пронумерованными
+     * сообщениями. Части — временные: file_id для них не запоминаются,
+     * а повторная нарезка из кэша — секунды.
+     */
+    private void deliverInParts(UserSession session, JobHandle handle) throws Exception {
+        long   chatId    = session.chatId();
+        var    sourceKey = new AudioKey(videoId(session.url()), AudioFormat.ORIGINAL);
+        String title     = session.videoInfo().title();
+
+        handle.stage(JobJournal.State.DOWNLOADING);
+        try (var source = jobs.subscribe(sourceKey, 0, p -> fetch(sourceKey, session, p, 0))) {
+            var  status = telegram.sendStatus(chatId, "⏳ Загружаю аудио...");
+            Path file;
+            var  reporter = reportProgress(chatId, status, source.progress());
+            try {
+                file = source.await();
+            } finally {
+                reporter.close();
+            }
+
+            handle.stage(JobJournal.State.TRANSCODING);
+            telegram.sendStatus(chatId, "✂️ Делю на части...");
+            try (var parts = splitFile(file, session.videoInfo())) {
+                handle.stage(JobJournal.State.UPLOADING);
+                int total = parts.files().size();
+                for (int i = 0; i < total; i++) {
+                    long started = System.nanoTime();
+                    var uploaded = telegram.sendAudio(chatId, parts.files().get(i),
+                            "%s (%d/%d)".formatted(title, i + 1, total),
+                            "%s: %d из %d".formatted(AudioFormat.SPLIT.displayName(), i + 1, total));
+                    metrics.observe(Metrics.Stage.UPLOAD, started);
+                    if (uploaded == null) return;   // об ошибке уже написал TelegramClient
+                }
+            }
+        }
+        telegram.sendMessage(chatId, "✅ Готово!");
+    }
+
+    /** Части во временной директории; close() удаляет их вместе с ней */
+    private record Parts(Path dir, List<Path> files) implements AutoCloseable {
+        @Override
+        public void close() {
+            try (var stream = Files.list(dir)) {
+                for (Path file : stream.toList()) Files.deleteIfExists(file);
+                Files.deleteIfExists(dir);
+            } catch (Exception e) {
+                log.warn("Could not delete parts in {}: {}", dir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ffmpeg -c copy с сегментным muxer-ом: без декодирования, только remux,
+     * поэтому идёт со скоростью диска и без места в очереди CPU. Режет по
+     * границам пакетов (в аудио каждый пакет — ключевой), длина части — по
+     * среднему битрейту файла с запасом SPLIT_FILL. Если из-за неровного
+     * битрейта часть всё же вышла больше лимита — режем заново мельче.
+     */
+    private Parts splitFile(Path source, VideoInfo info) throws Exception {
+        long   limit    = config.maxFileSizeBytes();
+        long   size     = Math.max(1, Files.size(source));
+        long   duration = Math.max(1, info.durationSeconds());
+        double fill     = SPLIT_FILL;
+        String ext      = AudioFormat.SPLIT.fileExtension(info);
+
+        for (int attempt = 0; attempt < SPLIT_ATTEMPTS; attempt++) {
+            long segmentSeconds = segmentSeconds(size, duration, limit, fill);
+            var  parts = new Parts(Files.createTempDirectory(Path.of(config.tempDir()), "split_"), new ArrayList<>());
+            try {
+                long started = System.nanoTime();
+                runProcess(buildSplitCommand(source, segmentSeconds, parts.dir().resolve("part_%03d." + ext)),
+                        "split");
+                metrics.observe(Metrics.Stage.TRANSCODE, started);
+                try (var stream = Files.list(parts.dir())) {
+                    parts.files().addAll(stream.sorted().toList());
+                }
+                if (parts.files().isEmpty()) throw new RuntimeException("ffmpeg не создал ни одной части");
+                long largest = 0;
+                for (Path part : parts.files()) largest = Math.max(largest, Files.size(part));
+                if (largest <= limit) {
+                    log.info("Split {} into {} parts of {}s", source.getFileName(), parts.files().size(), segmentSeconds);
+                    return parts;
+                }
+                log.info("Part of {} is {} bytes at {}s segments, splitting finer",
+                        source.getFileName(), largest, segmentSeconds);
+                fill *= (double) limit / largest * SPLIT_FILL;
+            } catch (Exception e) {
+                parts.close();
+                throw e;
+            }
+            parts.close();
+        }
+        // Не TooLargeException: меньше SPLIT предложить нечего — это окончательная ошибка
+        throw new RuntimeException("Части файла не влезают в лимит Telegram");
+    }
+
+    private List<String> buildSplitCommand(Path source, long segmentSeconds, Path pattern) {
+        return List.of(
+                config.ffmpegPath(),
+                "-nostdin", "-hide_banner", "-loglevel", "error",
+                "-y",
+                "-i", source.toString(),
+                "-map", "0:a:0",
+                "-c", "copy",
+                "-f", "segment",
+                "-segment_time", Long.toString(segmentSeconds),
+                "-reset_timestamps", "1",
+                pattern.toString()
+        );
+    }
+
+    // ── Списки ─────────────────────────────────────────────────────────────
+
+    /**
+     * Файл видео из списка, готовый к отправке: держит Lease кэша или
+     * подписку на общую загрузку, пока его не отправят. path == null — файл
+     * уже есть в Telegram, хватит file_id.
+     */
+    static final class Prepared implements AutoCloseable {
+        final Path path;
+        private final AutoCloseable owner;
+
+        Prepared(Path path, AutoCloseable owner) {
+            this.path  = path;
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() {
             try {
-                telegram.sendMessage(chatId, "⏳ Загружаю аудио...");
-                tempFile = download(session);
-                telegram.sendAudio(chatId, tempFile, session.videoInfo().title(),
-                        session.selectedFormat().displayName());
-                telegram.sendMessage(chatId, "✅ Готово!");
+                if (owner != null) owner.close();
             } catch (Exception e) {
-                log.error("Download failed for chatId={}", chatId, e);
-                telegram.sendMessage(chatId, "❌ Ошибка: " + friendlyError(e));
+                log.warn("Could not release prepared file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /** Готовит файл видео списка, не отправляя его: этим занимается BatchJob по порядку */
+    Prepared prepare(AudioKey key, UserSession session) throws Exception {
+        if (fileIds.get(key) != null) return new Prepared(null, null);
+        return prepareFile(key, session, (stage, percent) -> {}, true);
+    }
+
+    /**
+     * Сам файл, даже если он уже есть в Telegram, — для веб-версии.
+     * listener получает ход загрузки и перекодирования.
+     * forDelivery = false — файл не пойдёт в Telegram, и его лимит не действует.
+     */
+    Prepared prepareFile(AudioKey key, UserSession session, Progress.Listener listener,
+                         boolean forDelivery) throws Exception {
+        AudioCache.Lease cached = cache.acquire(key);
+        if (cached != null) {
+            metrics.cacheHit("disk");
+            return new Prepared(cached.path(), cached);
+        }
+        // Лимит — часть ключа задачи: файлу без лимита не достанется обрезанный для Telegram
+        long limit = forDelivery ? config.maxFileSizeBytes() : 0;
+        var  job   = jobs.subscribe(key, limit, progress -> fetch(key, session, progress, limit));
+        var  relay = job.progress().listen(listener);
+        try {
+            return new Prepared(job.await(), job);
+        } catch (Exception e) {
+            job.close();
+            throw e;
+        } finally {
+            relay.close();
+        }
+    }
+
+    /** Отправляет подготовленный файл без отдельного «Готово». false — upload не удался. */
+    boolean deliverPrepared(UserSession session, AudioKey key, Prepared prepared) throws Exception {
+        long   chatId  = session.chatId();
+        String title   = session.videoInfo().title();
+        String caption = key.format().displayName();
+        if (prepared.path != null) return deliver(chatId, key, prepared.path, title, caption, false);
+
+        if (resendKnown(chatId, key, title, caption, false)) return true;
+        // file_id устарел — файл всё-таки нужен
+        try (var fresh = prepare(key, session)) {
+            return deliver(chatId, key, fresh.path, title, caption, false);
+        }
+    }
+
+    /**
+     * Выполняется задачей реестра. Кэш проверяется ещё раз: соседняя задача могла успеть.
+     *
+     * Пайплайн из двух стадий:
+     *  1. оригинальное аудио (bestaudio) скачивается один раз и кладётся в кэш как ORIGINAL;
+     *  2. любой сжатый формат получается из него локальным ffmpeg, без сети.
+     * Пользователь, который после OPUS_96 попросил OPUS_64, не качает видео повторно.
+     *
+     * limit > 0 — файл пойдёт в Telegram: загрузка оригинала и перекодирование
+     * обрываются на его лимите. Источник для перекодирования и файлы веб-версии
+     * делаются целиком (limit = 0).
+     */
+    private AudioCache.Lease fetch(AudioKey key, UserSession session, Progress progress,
+                                   long limit) throws Exception {
+        AudioCache.Lease cached = cache.acquire(key);
+        if (cached != null) return cached;
+        return key.format().isOriginal()
+                ? fetchSource(key, session, progress, limit)
+                : transcode(key, session, progress, limit);
+    }
+
+    /** Стадия 1: скачать оригинальное аудио. Сеть — место в очереди загрузок. */
+    private AudioCache.Lease fetchSource(AudioKey key, UserSession session, Progress progress,
+                                         long limit) throws Exception {
+        long chatId = session.chatId();
+        var net = downloads.acquire(pos -> reportQueue(chatId, pos));
+        try {
+            return cache.publish(key, downloadSource(session.url(), session.videoInfo(), null, progress, limit));
+        } finally {
+            net.close();
+        }
+    }
+
+    /**
+     * Стадия 2: перекодировать оригинал в нужный формат.
+     * Оригинал берётся из кэша или из идущей (в том числе спекулятивной) загрузки.
+     */
+    private AudioCache.Lease transcode(AudioKey key, UserSession session, Progress progress,
+                                       long limit) throws Exception {
+        var sourceKey = new AudioKey(key.videoId(), AudioFormat.ORIGINAL);
+
+        AudioCache.Lease cachedSource = cache.acquire(sourceKey);
+        if (cachedSource != null) {
+            try (cachedSource) {
+                return transcodeFile(key, session, cachedSource.path(), progress, limit);
+            }
+        }
+        return transcodeFromJob(key, sourceKey, session, progress, limit);
+    }
+
+    /** Пока качается оригинал, подписчики этой задачи видят ход его загрузки */
+    private AudioCache.Lease transcodeFromJob(AudioKey key, AudioKey sourceKey, UserSession session,
+                                              Progress progress, long limit) throws Exception {
+        // Источник нужен целиком — без лимита
+        try (var source = jobs.subscribe(sourceKey, 0, p -> fetch(sourceKey, session, p, 0))) {
+            var relay = source.progress().listen(progress::update);
+            try {
+                return transcodeFile(key, session, source.await(), progress, limit);
+            } finally {
+                relay.close();
+            }
+        }
+    }
+
+    /**
+     * ffmpeg локально: CPU — место в очереди перекодирования.
+     * limit > 0 — размер выхода ограничен: SizeWatchdog убивает ffmpeg
+     * по прогнозу, -fs — страховка, если прогноз не сработал.
+     */
+    private AudioCache.Lease transcodeFile(AudioKey key, UserSession session, Path source,
+                                           Progress progress, long limit) throws Exception {
+        AudioFormat format = key.format();
+        Path output = Files.createTempFile(
+                Path.of(config.tempDir()), "tr_", "." + format.fileExtension(session.videoInfo()));
+
+        long chatId = session.chatId();
+        var  token  = new CancelToken();
+        try {
+            var cpu = transcodes.acquire(pos -> reportQueue(chatId, pos));
+            try (var watchdog = limit > 0
+                    ? new SizeWatchdog(output, limit, token, progress, Progress.Stage.TRANSCODE)
+                    : null) {
+                long started = System.nanoTime();
+                try {
+                    runProcess(buildTranscodeCommand(source, format, output, limit), "transcode", token,
+                            ProgressScanner.ffmpeg(progress, session.videoInfo().durationSeconds()));
+                } catch (CancellationException e) {
+                    if (watchdog != null && watchdog.exceeded()) throw new TooLargeException(format);
+                    throw e;
+                }
+                metrics.observe(Metrics.Stage.TRANSCODE, started);
+                checkOutput(output);
+                // -fs останавливает запись ровно на лимите и завершается без ошибки
+                if (limit > 0 && Files.size(output) >= limit) throw new TooLargeException(format);
+                return cache.publish(key, output);
             } finally {
-                deleteQuietly(tempFile);
+                cpu.close();
+            }
+        } catch (Exception e) {
+            deleteQuietly(output);
+            throw e;
+        }
+    }
+
+    // ── Спекулятивная предзагрузка ─────────────────────────────────────────
+
+    /**
+     * Пока пользователь смотрит на кнопки выбора формата, начинаем качать
+     * оригинал (bestaudio) в кэш. Что бы он ни выбрал, handleFormatSelected
+     * подхватит готовый файл или присоединится к идущей загрузке: оригинал
+     * отправляется как есть, остальные форматы перекодируются из него.
+     *
+     * Работает только на свободном месте: не встаёт в очередь и отменяется,
+     * как только место понадобилось подтверждённой задаче.
+     */
+    public void prefetch(UserSession session) {
+        var key = new AudioKey(videoId(session.url()), AudioFormat.ORIGINAL);
+        if (fileIds.get(key) != null || cache.contains(key)) return;
+
+        // Место берём до регистрации задачи: пока она в реестре, на неё могут
+        // подписаться, и тогда отказ из-за нехватки места уже стал бы ошибкой пользователя
+        var net = downloads.tryAcquire();
+        if (net == null) return;
+
+        var token = new CancelToken();
+        boolean started = jobs.prefetch(key, token, progress -> {
+            try (net) {
+                AudioCache.Lease cached = cache.acquire(key);
+                if (cached != null) return cached;
+                return cache.publish(key, downloadSource(session.url(), session.videoInfo(), token, progress, 0));
             }
         });
+        if (!started) net.close();
     }
 
-    private Path download(UserSession session) throws Exception {
-        VideoInfo   info   = session.videoInfo();
-        AudioFormat format = session.selectedFormat();
+    /** Сессия истекла — её предзагрузка больше не нужна */
+    public void cancelPrefetch(UserSession session) {
+        String id = videoId(session.url());
+        if (id != null) jobs.cancelSpeculative(new AudioKey(id, AudioFormat.ORIGINAL));
+    }
 
-        String ext = format.isOriginal() ? info.audioFormat() : "ogg";
+    /**
+     * Скачивает оригинальное аудио во временный файл.
+     * Лимит Telegram здесь не проверяется: из большого оригинала ещё можно
+     * сделать сжатый формат. Он проверяется перед отправкой.
+     *
+     * token != null — процесс можно прервать снаружи, поэтому yt-dlp запускается
+     * отдельным процессом, а не через общий воркер.
+     *
+     * limit > 0 — оригинал пойдёт пользователю как есть, и больше лимита он
+     * не нужен: yt-dlp получает --max-filesize, а SizeWatchdog убивает процесс,
+     * как только файл (или прогноз по ходу загрузки) вышел за лимит.
+     * Убивать можно только свой процесс, поэтому и здесь — без общего воркера.
+     */
+    private Path downloadSource(String url, VideoInfo info, CancelToken token,
+                                Progress progress, long limit) throws Exception {
         Path output = Files.createTempFile(
-                Path.of(config.tempDir()), "yt_", "." + ext);
+                Path.of(config.tempDir()), "yt_", "." + AudioFormat.ORIGINAL.fileExtension(info));
 
-        List<String> cmd = buildDownloadCommand(session.url(), format, output);
-        runProcess(cmd, "download");
+        try {
+            List<String> cmd = buildSourceCommand(url, output, limit);
+            long started = System.nanoTime();
+            if (limit > 0) {
+                downloadLimited(cmd, output, limit, token != null ? token : new CancelToken(), progress);
+            } else if (token != null) {
+                runProcess(cmd, "prefetch", token, ProgressScanner.ytDlp(progress));
+            } else {
+                runYtDlp(cmd, "download", progress);
+            }
+            metrics.observe(Metrics.Stage.DOWNLOAD, started);
+            checkOutput(output);
+            return output;
+        } catch (Exception e) {
+            deleteQuietly(output);
+            throw e;
+        }
+    }
+
+    private void downloadLimited(List<String> cmd, Path output, long limit, CancelToken token,
+                                 Progress progress) throws Exception {
+        try (var watchdog = new SizeWatchdog(output, limit, token, progress, Progress.Stage.DOWNLOAD)) {
+            try {
+                runProcess(cmd, "download", token, ProgressScanner.ytDlp(progress));
+            } catch (CancellationException e) {
+                if (watchdog.exceeded()) throw new TooLargeException(AudioFormat.ORIGINAL);
+                throw e;
+            }
+        }
+        // Размер известен заранее и больше --max-filesize — yt-dlp выходит без ошибки, не скачав ничего
+        if (Files.size(output) == 0) throw new TooLargeException(AudioFormat.ORIGINAL);
+    }
 
+    private void checkOutput(Path output) throws Exception {
         if (!Files.exists(output) || Files.size(output) == 0) {
             throw new RuntimeException("Файл не был создан или пуст");
         }
-        if (Files.size(output) > config.maxFileSizeBytes()) {
-            throw new RuntimeException("Файл превышает лимит Telegram (50 MB)");
-        }
-        return output;
     }
 
-    private List<String> buildDownloadCommand(String url, AudioFormat format, Path output) {
+    private List<String> buildSourceCommand(String url, Path output, long limit) {
         var cmd = new ArrayList<String>();
         cmd.add(config.ytDlpPath());
         cmd.add("--no-warnings");
         cmd.add("--no-playlist");
-        cmd.add("--quiet");
+        // Без --quiet: в тихом режиме прогресс уходит в stderr, а читаем мы stdout
+        cmd.add("--newline");
+        cmd.addAll(List.of("--progress-template", YT_DLP_PROGRESS_TEMPLATE));
+        // Временный файл уже создан — без этого yt-dlp решит, что всё скачано
+        cmd.add("--force-overwrites");
+        if (limit > 0) cmd.addAll(List.of("--max-filesize", Long.toString(limit)));
         if (config.cookiesFile() != null) {
             cmd.add("--cookies");
             cmd.add(config.cookiesFile());
         }
         cmd.add("--ffmpeg-location");
         cmd.add(config.ffmpegPath());
+        cmd.addAll(List.of("-f", "bestaudio", "-o", output.toString()));
+        cmd.add(url);
+        return cmd;
+    }
+
+    /** В файл: stdout свободен, ffmpeg пишет в него свой ход (-progress) */
+    private List<String> buildTranscodeCommand(Path source, AudioFormat format, Path output, long limit) {
+        var cmd = buildTranscodeCommand(source.toString(), format, null, output.toString());
+        cmd.addAll(cmd.size() - 1, List.of("-progress", "pipe:1", "-nostats"));
+        if (limit > 0) cmd.addAll(cmd.size() - 1, List.of("-fs", Long.toString(limit)));
+        return cmd;
+    }
+
+    /**
+     * Кодек и битрейт берутся из AudioFormat — ffmpeg вызывается напрямую.
+     * muxer нужен, когда выход — pipe и формат не угадать по расширению.
+     */
+    private ArrayList<String> buildTranscodeCommand(String input, AudioFormat format,
+                                                    String muxer, String output) {
+        var cmd = new ArrayList<String>(List.of(
+                config.ffmpegPath(),
+                "-nostdin", "-hide_banner", "-loglevel", "error",
+                "-y",
+                "-i", input,
+                "-vn",
+                "-c:a", format.ffmpegCodec(),
+                "-b:a", format.bitrateKbps() + "k"
+        ));
+        if (muxer != null) cmd.addAll(List.of("-f", muxer));
+        cmd.add(output);
+        return cmd;
+    }
+
+    // ── Потоковая загрузка ─────────────────────────────────────────────────
+
+    /**
+     * Стримить имеет смысл только перекодированный формат, и только если
+     * его нечем заменить: оригинала нет ни в кэше, ни в загрузке, и тот же
+     * формат никто не грузит прямо сейчас. Оригинал всегда идёт через файл —
+     * m4a без перемотки в конец не собрать.
+     */
+    private boolean shouldStream(AudioKey key) {
+        if (!config.streamingUpload() || key.format().isOriginal()) return false;
+        if (!"libopus".equals(key.format().ffmpegCodec())) return false;
+        var sourceKey = new AudioKey(key.videoId(), AudioFormat.ORIGINAL);
+        return !jobs.isRunning(key) && !jobs.isRunning(sourceKey) && !cache.contains(sourceKey);
+    }
 
-        if (format.isOriginal()) {
-            cmd.addAll(List.of("-f", "bestaudio", "-o", output.toString()));
-        } else {
-            // Скачиваем лучшее аудио и перекодируем в Opus через ffmpeg
-            cmd.addAll(List.of(
-                    "-f", "bestaudio",
-                    "--postprocessor-args",
-                    "ffmpeg:-c:a libopus -b:a %dk".formatted(format.bitrateKbps()),
-                    "-x", "--audio-format", "vorbis",  // контейнер ogg для opus
-                    "-o", output.toString()
-            ));
+    /**
+     * yt-dlp пишет аудио в stdout, ffmpeg читает его из stdin и пишет ogg
+     * в свой stdout, а тот сразу уходит multipart-запросом в Telegram.
+     * Процессы соединены pipe-ами ОС напрямую (ProcessBuilder.startPipeline),
+     * в JVM — только буфер HTTP-клиента, поэтому память не растёт с числом
+     * параллельных задач, а на диск не пишется ничего.
+     *
+     * Счётчик байт обрывает загрузку на первом байте сверх лимита Telegram.
+     * Результат не попадает в кэш — повторные запросы обслуживает file_id.
+     *
+     * false — Telegram ответил 429, не прочитав из потока ни байта. Поток
+     * не повторить, а файл очередь отправит после паузы сама, поэтому
+     * вызывающий код загружает видео обычным путём.
+     */
+    private boolean streamToChat(long chatId, AudioKey key, UserSession session, JobHandle handle,
+                                 String title, String caption) throws Exception {
+        telegram.sendStatus(chatId, "⏳ Загружаю аудио...");
+        handle.stage(JobJournal.State.DOWNLOADING);
+        var net = downloads.acquire(pos -> reportQueue(chatId, pos));
+        try {
+            var cpu = transcodes.acquire(pos -> reportQueue(chatId, pos));
+            try {
+
+                    List<String> sourceCmd  = buildStreamSourceCommand(session.url());
+                    List<String> encoderCmd = buildTranscodeCommand("pipe:0", key.format(), "ogg", "pipe:1");
+                    log.debug("[stream] Running: {} | {}", String.join(" ", sourceCmd), String.join(" ", encoderCmd));
+
+                    List<Process> pipeline = ProcessBuilder.startPipeline(List.of(
+                            new ProcessBuilder(sourceCmd),
+                            new ProcessBuilder(encoderCmd)));
+                    long started = System.nanoTime();
+                    Process source  = pipeline.get(0);
+                    Process encoder = pipeline.get(1);
+
+                    var sourceErr  = new StderrTail("stream-download");
+                    var encoderErr = new StderrTail("stream-transcode");
+                    Thread.ofVirtual().start(() -> sourceErr.drain(source.getErrorStream()));
+                    Thread.ofVirtual().start(() -> encoderErr.drain(encoder.getErrorStream()));
+
+                    var timedOut = new AtomicBoolean();
+                    Thread watchdog = Thread.ofVirtual().start(() -> {
+                        try {
+                            if (!encoder.waitFor(config.downloadTimeoutSeconds(), TimeUnit.SECONDS)) {
+                                timedOut.set(true);
+                                pipeline.forEach(Process::destroyForcibly);
+                            }
+                        } catch (InterruptedException ignored) {
+                            // загрузка закончилась раньше
+                        }
+                    });
+
+                    var audio = new SizeLimitedInputStream(encoder.getInputStream(), config.maxFileSizeBytes());
+                    TelegramClient.UploadedFile uploaded = null;
+                    Exception uploadError = null;
+                    try (audio) {
+                        uploaded = telegram.sendAudio(chatId, audio,
+                                key.fileStem() + "." + key.format().fileExtension(session.videoInfo()),
+                                title, caption);
+                    } catch (Exception e) {
+                        uploadError = e;
+                    } finally {
+                        watchdog.interrupt();
+                        if (uploadError != null) pipeline.forEach(Process::destroyForcibly);
+                    }
+
+                    boolean sourceFailed  = waitExit(source)  != 0;
+                    boolean encoderFailed = waitExit(encoder) != 0;
+
+                    if (uploadError != null && audio.count() == 0 && OutboundQueue.retryAfterSeconds(uploadError) >= 0) {
+                        log.info("Telegram rate limit before streaming {} to chatId={}, falling back to file", key, chatId);
+                        return false;
+                    }
+                    if (audio.exceeded()) throw new TooLargeException(key.format());
+                    if (timedOut.get()) {
+                        throw new RuntimeException("Превышено время ожидания (%d сек)".formatted(
+                                config.downloadTimeoutSeconds()));
+                    }
+                    // Telegram мог принять обрезанный файл — такой file_id не запоминаем
+                    if (sourceFailed && !sourceErr.toString().isEmpty()) {
+                        throw processFailed(sourceCmd, "stream-download", sourceErr);
+                    }
+                    if (encoderFailed && !encoderErr.toString().isEmpty()) {
+                        throw processFailed(encoderCmd, "stream-transcode", encoderErr);
+                    }
+                    if (uploadError != null) throw uploadError;
+                    if (sourceFailed || encoderFailed) {
+                        throw new RuntimeException("Потоковая загрузка прервалась");
+                    }
+
+                    metrics.observe(Metrics.Stage.STREAM, started);
+                    log.info("Streamed {} ({} bytes) without temp files", key, audio.count());
+                    if (uploaded != null) {
+                        fileIds.put(key, uploaded);
+                        telegram.sendMessage(chatId, "✅ Готово!");
+                    }
+                    return true;
+            } finally {
+                cpu.close();
+            }
+        } finally {
+            net.close();
         }
+    }
+
+    /** yt-dlp без постобработки: сырое bestaudio в stdout */
+    private List<String> buildStreamSourceCommand(String url) {
+        var cmd = new ArrayList<String>();
+        cmd.add(config.ytDlpPath());
+        cmd.add("--no-warnings");
+        cmd.add("--no-playlist");
+        cmd.add("--quiet");
+        if (config.cookiesFile() != null) {
+            cmd.add("--cookies");
+            cmd.add(config.cookiesFile());
+        }
+        cmd.addAll(List.of("-f", "bestaudio", "-o", "-"));
         cmd.add(url);
         return cmd;
     }
 
+    /** Код выхода процесса; убитый процесс даёт ненулевой код */
+    private static int waitExit(Process process) throws InterruptedException {
+        if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroyForcibly();
+        return process.waitFor();
+    }
+
     // ── Вспомогательные методы ─────────────────────────────────────────────
 
-    private String runProcess(List<String> cmd, String stage) throws Exception {
-        log.debug("[{}] Running: {}", stage, String.join(" ", cmd));
+    /** Что делать с stdout процесса. Вызывается в потоке, запустившем процесс. */
+    @FunctionalInterface
+    interface OutputHandler<T> {
+        T handle(InputStream stdout) throws Exception;
+    }
 
-        var pb = new ProcessBuilder(cmd)
-                .redirectErrorStream(true);
-        Files.createDirectories(Path.of(config.tempDir()));
+    /** Запуск yt-dlp: через долгоживущий воркер, а если он недоступен — отдельным процессом */
+    private void runYtDlp(List<String> cmd, String stage, Progress progress) throws Exception {
+        if (ytDlp.isEnabled()) {
+            try {
+                ytDlp.run(cmd.subList(1, cmd.size()),
+                        percent -> progress.update(Progress.Stage.DOWNLOAD, percent));
+                return;
+            } catch (YtDlpDaemonPool.WorkerUnavailableException e) {
+                log.warn("yt-dlp worker unavailable, running one-shot: {}", e.getMessage());
+            }
+        }
+        runProcess(cmd, stage, null, ProgressScanner.ytDlp(progress));
+    }
 
-        Process process = pb.start();
-        var output = new StringBuilder();
+    private void runProcess(List<String> cmd, String stage) throws Exception {
+        runProcess(cmd, stage, (CancelToken) null);
+    }
 
-        try (var reader = new BufferedReader(
-                new InputStreamReader(process.getInputStream()))) {
+    private void runProcess(List<String> cmd, String stage, CancelToken token) throws Exception {
+        runProcess(cmd, stage, token, stdout -> {
+            // Не закрываем: stdout закрывает runProcess, после дочитывания
+            var reader = new BufferedReader(new InputStreamReader(stdout));
             String line;
             while ((line = reader.readLine()) != null) {
-                output.append(line).append('\n');
                 log.debug("[{}] {}", stage, line);
             }
+            return null;
+        });
+    }
+
+    /**
+     * Запускает процесс, отдаёт его stdout обработчику, stderr собирает отдельно.
+     * stderr не смешивается с полезным выводом (JSON), но его хвост попадает
+     * в текст исключения — по нему friendlyError понимает причину ошибки.
+     */
+    private <T> T runProcess(List<String> cmd, String stage, OutputHandler<T> handler) throws Exception {
+        return runProcess(cmd, stage, null, handler);
+    }
+
+    private <T> T runProcess(List<String> cmd, String stage, CancelToken token,
+                             OutputHandler<T> handler) throws Exception {
+        log.debug("[{}] Running: {}", stage, String.join(" ", cmd));
+
+        Files.createDirectories(Path.of(config.tempDir()));
+        Process process = new ProcessBuilder(cmd).start();
+        if (token != null) token.attach(process);
+
+        var stderr = new StderrTail(stage);
+        Thread stderrReader = Thread.ofVirtual().start(() -> stderr.drain(process.getErrorStream()));
+
+        T result = null;
+        Exception handlerError = null;
+        try (InputStream stdout = process.getInputStream()) {
+            result = handler.handle(stdout);
+            // Обработчик мог остановиться раньше — дочитываем, чтобы процесс не встал на записи в pipe
+            stdout.transferTo(OutputStream.nullOutputStream());
+        } catch (Exception e) {
+            handlerError = e;
         }
 
         boolean finished = process.waitFor(config.downloadTimeoutSeconds(), TimeUnit.SECONDS);
@@ -223,23 +1163,128 @@ public class DownloadWorker {
             throw new RuntimeException("Превышено время ожидания (%d сек)".formatted(
                     config.downloadTimeoutSeconds()));
         }
+        stderrReader.join();
+
+        if (token != null) token.check();
+        if (process.exitValue() != 0) throw processFailed(cmd, stage, stderr);
+        if (handlerError != null) throw handlerError;
+        return result;
+    }
+
+    /** Текст ошибки называет программу и этап: ffmpeg падает и на перекодировании, и на нарезке */
+    private static RuntimeException processFailed(List<String> cmd, String stage, StderrTail stderr) {
+        String program = Path.of(cmd.get(0)).getFileName().toString();
+        return new RuntimeException("%s (%s) завершился с ошибкой. Вывод:\n%s".formatted(program, stage, stderr));
+    }
+
+    /** Последние строки stderr процесса — для логов и текста ошибки */
+    private static final class StderrTail {
+        private static final int MAX_LINES = 50;
+
+        private final String stage;
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+        StderrTail(String stage) {
+            this.stage = stage;
+        }
+
+        void drain(InputStream stderr) {
+            try (var reader = new BufferedReader(new InputStreamReader(stderr))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.debug("[{}] {}", stage, line);
+                    synchronized (this) {
+                        if (lines.size() == MAX_LINES) lines.removeFirst();
+                        lines.addLast(line);
+                    }
+                }
+            } catch (Exception e) {
+                log.debug("[{}] stderr closed: {}", stage, e.getMessage());
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.join("\n", lines);
+        }
+    }
+
+    /**
+     * Подписывает статусное сообщение чата на ход задачи.
+     * PROGRESS_INTERVAL_SECONDS = 0 — ход не показывается.
+     */
+    private Progress.Registration reportProgress(long chatId, CompletableFuture<Message> status,
+                                                 Progress progress) {
+        if (config.progressIntervalSeconds() <= 0) return () -> {};
+        return progress.listen(new StatusReporter(chatId, status));
+    }
+
+    /**
+     * Правит статусное сообщение по ходу задачи. Правка уходит не чаще
+     * раза в PROGRESS_INTERVAL_SECONDS и только если процент сдвинулся хотя бы
+     * на PROGRESS_MIN_STEP или сменилась стадия.
+     */
+    private final class StatusReporter implements Progress.Listener {
+        private final long chatId;
+        private final CompletableFuture<Message> status;
+        private Progress.Stage lastStage;
+        private int  lastPercent = -1;
+        private long lastEditAt;
+
+        StatusReporter(long chatId, CompletableFuture<Message> status) {
+            this.chatId = chatId;
+            this.status = status;
+        }
+
+        @Override
+        public synchronized void onProgress(Progress.Stage stage, int percent) {
+            // Статус ещё не отправлен, не ушёл или был вытеснен — править нечего
+            if (!status.isDone() || status.isCompletedExceptionally()) return;
+            Message message = status.join();
+            if (message == null) return;
 
-        if (process.exitValue() != 0) {
-            throw new RuntimeException("yt-dlp завершился с ошибкой. Вывод:\n" + output);
+            long now = System.nanoTime();
+            if (stage == lastStage) {
+                if (percent - lastPercent < PROGRESS_MIN_STEP && percent < 100) return;
+                if (now - lastEditAt < TimeUnit.SECONDS.toNanos(config.progressIntervalSeconds())) return;
+            }
+            lastStage   = stage;
+            lastPercent = percent;
+            lastEditAt  = now;
+            telegram.editMessage(chatId, message.getMessageId(),
+                    "%s... %d%%".formatted(stage.label(), percent));
         }
+    }
 
-        return output.toString().trim();
+    private void reportQueue(long chatId, int position) {
+        if (chatId == UserSession.WEB_CHAT_ID) return;   // веб-задача видит очередь как стадию без процента
+        telegram.sendStatus(chatId,
+                "🕐 Сейчас много загрузок. Ваше место в очереди: %d".formatted(position));
     }
 
-    private String friendlyError(Exception e) {
+    public ProcessLimiter downloadLimiter()  { return downloads; }
+    public ProcessLimiter transcodeLimiter() { return transcodes; }
+
+    String friendlyError(Exception e) {
+        return switch (errorCategory(e)) {
+            case "unknown"     -> "Неизвестная ошибка";
+            case "private"     -> "Видео является приватным";
+            case "unavailable" -> "Видео недоступно в вашем регионе";
+            case "timeout"     -> "Превышено время ожидания. Попробуйте видео покороче";
+            case "too_large"   -> "Видео слишком длинное для загрузки";
+            default            -> "Не удалось загрузить видео. Попробуйте позже";
+        };
+    }
+
+    /** Причина ошибки — она же метка category в метрике failures_total */
+    private static String errorCategory(Exception e) {
         String msg = e.getMessage();
-        if (msg == null) return "Неизвестная ошибка";
-        if (msg.contains("Private video"))   return "Видео является приватным";
-        if (msg.contains("not available"))   return "Видео недоступно в вашем регионе";
-        if (msg.contains("тайм") || msg.contains("timeout"))
-            return "Превышено время ожидания. Попробуйте видео покороче";
-        if (msg.contains("50 MB"))           return "Видео слишком длинное для загрузки";
-        return "Не удалось загрузить видео. Попробуйте позже";
+        if (msg == null) return "unknown";
+        if (msg.contains("Private video"))   return "private";
+        if (msg.contains("not available"))   return "unavailable";
+        if (msg.contains("тайм") || msg.contains("timeout")) return "timeout";
+        if (msg.contains("лимит Telegram"))  return "too_large";
+        return "other";
     }
 
     private void deleteQuietly(Path file) {
@@ -248,7 +1293,30 @@ public class DownloadWorker {
         catch (Exception e) { log.warn("Could not delete temp file: {}", file); }
     }
 
+    /**
+     * Мягкая остановка: новые задачи только пишутся в журнал (в кластере —
+     * в общую очередь, и их забирают другие узлы), идущие получают
+     * SHUTDOWN_GRACE_SECONDS, чтобы закончить. Кто не успел — прерывается
+     * и остаётся в журнале незавершённым.
+     */
     public void shutdown() {
+        draining = true;
+        while (jobs.cancelAnySpeculative()) {
+            // предзагрузки не журналируются — освобождаем места для настоящих задач
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.shutdownGraceSeconds());
+        try {
+            while (active.get() > 0 && System.nanoTime() < deadline) Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (active.get() > 0) log.info("Shutdown grace period over, interrupting {} jobs", active.get());
+        stopping = true;
         executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -0,0 +1,115 @@
+package youtubebot;
+
+import youtubebot.TelegramClient.UploadedFile;
+import youtubebot.model.AudioKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс уже загруженных в Telegram файлов: (videoId, формат) → file_id.
+ *
+ * Telegram позволяет переотправить однажды загруженный файл по его file_id
+ * без повторной загрузки. Поэтому повторный запрос того же видео — это один
+ * короткий вызов API, без yt-dlp, ffmpeg и upload.
+ *
+ * На диске — текстовый журнал, по строке на изменение:
+ *   {videoId} {FORMAT} {A|D} {file_id}   — файл загружен как аудио / документ
+ *   {videoId} {FORMAT} -                 — file_id отклонён Telegram, забыть
+ * При старте журнал читается целиком и, если мусора много, переписывается.
+ */
+public class FileIdIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FileIdIndex.class);
+
+    private final Path file;
+    private final ConcurrentHashMap<AudioKey, UploadedFile> fileIds = new ConcurrentHashMap<>();
+
+    public FileIdIndex(Path file) {
+        this.file = file;
+        load();
+    }
+
+    public UploadedFile get(AudioKey key) {
+        return fileIds.get(key);
+    }
+
+    public void put(AudioKey key, UploadedFile uploaded) {
+        if (uploaded.equals(fileIds.put(key, uploaded))) return;
+        append(key.videoId() + " " + key.format().name() + " "
+                + (uploaded.asDocument() ? "D " : "A ") + uploaded.fileId());
+    }
+
+    public void remove(AudioKey key) {
+        if (fileIds.remove(key) == null) return;
+        append(key.videoId() + " " + key.format().name() + " -");
+    }
+
+    public int size() {
+        return fileIds.size();
+    }
+
+    // ── Журнал на диске ────────────────────────────────────────────────────
+
+    private synchronized void append(String line) {
+        try {
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, line + "\n",
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Индекс — только оптимизация, бот работает и без него
+            log.warn("Cannot write file_id index {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (IOException e) {
+            log.warn("Cannot read file_id index {}: {}", file, e.getMessage());
+            return;
+        }
+
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            if (parts.length < 3) continue;
+            AudioKey key = AudioKey.fromFileStem(parts[0] + "_" + parts[1]);
+            if (key == null) continue;
+            if (parts[2].equals("-")) {
+                fileIds.remove(key);
+            } else if (parts.length == 4) {
+                fileIds.put(key, new UploadedFile(parts[3], parts[2].equals("D")));
+            }
+        }
+        log.info("File_id index: {} entries", fileIds.size());
+
+        if (lines.size() > 2 * fileIds.size() + 100) compact();
+    }
+
+    private synchronized void compact() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        var sb = new StringBuilder();
+        fileIds.forEach((key, uploaded) -> sb
+                .append(key.videoId()).append(' ')
+                .append(key.format().name()).append(' ')
+                .append(uploaded.asDocument() ? 'D' : 'A').append(' ')
+                .append(uploaded.fileId()).append('\n'));
+        try {
+            Files.writeString(tmp, sb);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.debug("File_id index compacted to {} entries", fileIds.size());
+        } catch (IOException e) {
+            log.warn("Cannot compact file_id index {}: {}", file, e.getMessage());
+        }
+    }
+}
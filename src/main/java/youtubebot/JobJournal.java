@@ -0,0 +1,373 @@
+package youtubebot;
+
+import youtubebot.model.AudioFormat;
+import youtubebot.model.UserSession;
+import youtubebot.model.VideoInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал задач на диске: переживает рестарт и падение процесса.
+ *
+ * Каждая задача пользователя (выбранный формат) пишет в журнал переходы
+ * QUEUED → DOWNLOADING → TRANSCODING → UPLOADING → DONE. При старте журнал
+ * читается, и незавершённые задачи запускаются заново — пользователю
+ * не нужно присылать ссылку повторно после деплоя.
+ *
+ * Файл отображён в память (MappedByteBuffer), запись — это копирование
+ * в страницы ОС без системного вызова. Если процесс упал, страницы всё
+ * равно дойдут до диска; от отключения питания защищает force() раз в
+ * FLUSH_MILLIS и на checkpoint.
+ *
+ * Формат записи: [int длина][int CRC32C][тело]. Длина пишется последней —
+ * пока её нет, запись невидима; оборванную запись отсекает CRC.
+ * Когда место кончается (и раз в COMPACT_MINUTES), журнал переписывается
+ * заново: остаются только незавершённые задачи.
+ */
+public class JobJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JobJournal.class);
+
+    public enum State { QUEUED, DOWNLOADING, TRANSCODING, UPLOADING, DONE }
+
+    /** Незавершённая задача из журнала */
+    public record Pending(long jobId, State state, UserSession session) {}
+
+    private static final int  INITIAL_CAPACITY = 4 * 1024 * 1024;
+    private static final int  HEADER_BYTES     = 8;
+    private static final long FLUSH_MILLIS     = 1000;
+    private static final long COMPACT_MINUTES  = 10;
+
+    private final Path          file;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Живые задачи в порядке постановки — из них собирается журнал при сжатии; guarded by lock
+    private final LinkedHashMap<Long, Entry> live = new LinkedHashMap<>();
+    private MappedByteBuffer buffer;   // guarded by lock
+    private long    nextJobId = 1;     // guarded by lock
+    private int     deadRecords;       // guarded by lock
+    private boolean dirty;             // guarded by lock
+    private boolean closed;            // guarded by lock
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofVirtual().name("job-journal").factory()
+            );
+
+    public JobJournal(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        replay();
+        lock.lock();
+        try {
+            compact(Math.max(INITIAL_CAPACITY, liveBytes() * 2));
+        } finally {
+            lock.unlock();
+        }
+        flusher.scheduleAtFixedRate(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        flusher.scheduleAtFixedRate(this::compactIfWorthIt, COMPACT_MINUTES, COMPACT_MINUTES, TimeUnit.MINUTES);
+        if (!live.isEmpty()) log.info("Job journal: {} unfinished jobs to resume", live.size());
+    }
+
+    /** Новая задача. Возвращает её ID для последующих переходов. */
+    public long queued(UserSession session) {
+        lock.lock();
+        try {
+            long jobId = nextJobId++;
+            var entry = new Entry(jobId, session);
+            live.put(jobId, entry);
+            append(encodeQueued(entry));
+            return jobId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Задача перешла в state. DONE убирает её из журнала. */
+    public void transition(long jobId, State state) {
+        lock.lock();
+        try {
+            Entry entry = live.get(jobId);
+            if (entry == null || entry.state == state) return;
+            if (state == State.DONE) {
+                live.remove(jobId);
+                // QUEUED, переходы и сам DONE больше не нужны при replay
+                deadRecords += entry.records + 1;
+            } else {
+                entry.state = state;
+                entry.records++;
+            }
+            append(encodeTransition(jobId, state));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Незавершённые задачи — для повторного запуска при старте */
+    public List<Pending> unfinished() {
+        lock.lock();
+        try {
+            var pending = new ArrayList<Pending>(live.size());
+            for (Entry e : live.values()) pending.add(new Pending(e.jobId, e.state, e.session));
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pending() {
+        lock.lock();
+        try { return live.size(); } finally { lock.unlock(); }
+    }
+
+    /** Сжатие и сброс на диск: после него журнал содержит ровно живые задачи */
+    public void checkpoint() {
+        lock.lock();
+        try {
+            if (closed) return;
+            compact(buffer.capacity());
+            log.info("Job journal checkpoint: {} unfinished jobs", live.size());
+        } catch (IOException e) {
+            log.error("Job journal checkpoint failed: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        checkpoint();
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Запись ─────────────────────────────────────────────────────────────
+
+    /** Вызывается под lock */
+    private void append(byte[] body) {
+        if (closed) return;
+        int needed = HEADER_BYTES + body.length + Integer.BYTES;   // + место под нулевой терминатор
+        if (buffer.remaining() < needed) {
+            try {
+                compact(Math.max(buffer.capacity(), (liveBytes() + needed) * 2));
+            } catch (IOException e) {
+                log.error("Job journal compaction failed, record dropped: {}", e.getMessage());
+                return;
+            }
+        }
+        write(buffer, body);
+        dirty = true;
+    }
+
+    /** Тело и CRC, затем длина — запись становится видимой одним int */
+    private static void write(ByteBuffer to, byte[] body) {
+        int start = to.position();
+        var crc = new CRC32C();
+        crc.update(body);
+        to.putInt(start + Integer.BYTES, (int) crc.getValue());
+        to.put(start + HEADER_BYTES, body);
+        to.putInt(start, body.length);
+        to.position(start + HEADER_BYTES + body.length);
+    }
+
+    /**
+     * Переписывает живые задачи в новый файл рядом и атомарно подменяет журнал.
+     * Вызывается под lock.
+     */
+    private void compact(int capacity) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        MappedByteBuffer fresh;
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            fresh = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        for (Entry entry : live.values()) {
+            write(fresh, encodeQueued(entry));
+            entry.records = 1;
+            if (entry.state != State.QUEUED) {
+                write(fresh, encodeTransition(entry.jobId, entry.state));
+                entry.records++;
+            }
+        }
+        fresh.force();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer      = fresh;
+        deadRecords = 0;
+        dirty       = false;
+    }
+
+    private void compactIfWorthIt() {
+        lock.lock();
+        try {
+            if (closed || deadRecords < 1000) return;
+            compact(buffer.capacity());
+        } catch (IOException e) {
+            log.warn("Job journal compaction failed: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        lock.lock();
+        try {
+            if (closed || !dirty) return;
+            buffer.force();
+            dirty = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int liveBytes() {
+        int bytes = 0;
+        for (Entry entry : live.values()) bytes += HEADER_BYTES * 2 + encodeQueued(entry).length + 9;
+        return bytes;
+    }
+
+    // ── Чтение ─────────────────────────────────────────────────────────────
+
+    private void replay() throws IOException {
+        if (!Files.exists(file)) return;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        int records = 0;
+        while (in.remaining() >= HEADER_BYTES) {
+            int start  = in.position();
+            int length = in.getInt();
+            int crc    = in.getInt();
+            if (length <= 0 || length > in.remaining()) break;   // конец журнала или оборванная запись
+
+            byte[] body = new byte[length];
+            in.get(body);
+            var actual = new CRC32C();
+            actual.update(body);
+            if ((int) actual.getValue() != crc) {
+                log.warn("Job journal: corrupted record at offset {}, ignoring the rest", start);
+                break;
+            }
+            try {
+                apply(ByteBuffer.wrap(body));
+                records++;
+            } catch (RuntimeException e) {
+                log.warn("Job journal: unreadable record at offset {}: {}", start, e.toString());
+            }
+        }
+        log.info("Job journal replayed {} records from {}", records, file);
+    }
+
+    private void apply(ByteBuffer body) {
+        State state = State.values()[body.get()];
+        long  jobId = body.getLong();
+        nextJobId = Math.max(nextJobId, jobId + 1);
+
+        if (state == State.QUEUED) {
+            live.put(jobId, new Entry(jobId, decodeSession(body)));
+            return;
+        }
+
+        Entry entry = live.get(jobId);
+        if (entry == null) return;
+        if (state == State.DONE) live.remove(jobId);
+        else entry.state = state;
+    }
+
+    // ── Кодирование ────────────────────────────────────────────────────────
+
+    private static byte[] encodeQueued(Entry entry) {
+        byte[] session = encodeSession(entry.session);
+        return ByteBuffer.allocate(1 + Long.BYTES + session.length)
+                .put((byte) State.QUEUED.ordinal()).putLong(entry.jobId).put(session).array();
+    }
+
+    /** Сессия с выбранным форматом — всё, что нужно, чтобы запустить задачу заново. Её же пишет ClusterQueue. */
+    static byte[] encodeSession(UserSession s) {
+        VideoInfo info = s.videoInfo();
+        byte[][] strings = {
+                utf8(s.url()), utf8(s.selectedFormat().name()),
+                utf8(info.title()), utf8(info.audioFormat()), utf8(info.audioCodec())
+        };
+        int size = Long.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES;
+        for (byte[] str : strings) size += Short.BYTES + str.length;
+
+        var out = ByteBuffer.allocate(size);
+        out.putLong(s.chatId());
+        putString(out, strings[0]);
+        putString(out, strings[1]);
+        putString(out, strings[2]);
+        out.putLong(info.durationSeconds());
+        putString(out, strings[3]);
+        putString(out, strings[4]);
+        out.putInt(info.audioBitrateKbps()).putLong(info.fileSizeBytes());
+        return out.array();
+    }
+
+    static UserSession decodeSession(ByteBuffer in) {
+        long   chatId = in.getLong();
+        String url    = getString(in);
+        var    format = AudioFormat.valueOf(getString(in));
+        var    info   = new VideoInfo(getString(in), in.getLong(), getString(in),
+                getString(in), in.getInt(), in.getLong());
+        var session = new UserSession(chatId, url, info);
+        session.selectFormat(format);
+        return session;
+    }
+
+    private static byte[] encodeTransition(long jobId, State state) {
+        return ByteBuffer.allocate(1 + Long.BYTES)
+                .put((byte) state.ordinal()).putLong(jobId).array();
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        // Название видео может быть длинным — обрезаем, лишь бы влезло в short
+        return bytes.length <= Short.MAX_VALUE ? bytes : Arrays.copyOf(bytes, Short.MAX_VALUE);
+    }
+
+    private static void putString(ByteBuffer out, byte[] value) {
+        out.putShort((short) value.length).put(value);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0 || length > in.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        final long        jobId;
+        final UserSession session;
+        State state = State.QUEUED;
+        int   records = 1;   // сколько записей этой задачи сейчас в файле
+
+        Entry(long jobId, UserSession session) {
+            this.jobId   = jobId;
+            this.session = session;
+        }
+    }
+}
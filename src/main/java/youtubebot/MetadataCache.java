@@ -0,0 +1,128 @@
+package youtubebot;
+
+import youtubebot.model.VideoInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш метаданных видео в памяти: videoId → VideoInfo.
+ *
+ * Каждый промах — это запуск yt-dlp --dump-json (2–5 секунд), поэтому:
+ *  - запись живёт ttlMillis, после чего метаданные запрашиваются заново
+ *    (ссылки на форматы и размеры у YouTube со временем меняются);
+ *  - размер ограничен maxEntries, вытесняется давно не использованная запись;
+ *  - single-flight: если видео уже запрашивается, остальные ждут тот же
+ *    результат, а не запускают свой yt-dlp.
+ * Ошибки не кэшируются — следующий запрос попробует снова.
+ */
+public class MetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataCache.class);
+
+    @FunctionalInterface
+    public interface Loader {
+        VideoInfo load() throws Exception;
+    }
+
+    private record Cached(VideoInfo info, long expiresAt) {}
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Cached> entries;   // guarded by this
+    private final ConcurrentHashMap<String, CompletableFuture<VideoInfo>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder hits      = new LongAdder();
+    private final LongAdder misses    = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public MetadataCache(long ttlMillis, int maxEntries) {
+        this(ttlMillis, maxEntries, System::currentTimeMillis);
+    }
+
+    /** clock — текущее время в мс (тесты подставляют свои часы) */
+    MetadataCache(long ttlMillis, int maxEntries, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock     = clock;
+        this.entries   = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Возвращает метаданные из кэша или загружает их через loader.
+     * Одновременные вызовы для одного videoId разделяют одну загрузку.
+     */
+    public VideoInfo get(String videoId, Loader loader) throws Exception {
+        VideoInfo cached = lookup(videoId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        var mine     = new CompletableFuture<VideoInfo>();
+        var existing = inFlight.putIfAbsent(videoId, mine);
+        if (existing != null) {
+            coalesced.increment();
+            log.debug("Joining in-flight metadata request for {}", videoId);
+            return await(existing);
+        }
+
+        try {
+            // Между промахом и putIfAbsent предыдущая загрузка могла успеть закончиться
+            VideoInfo info = lookup(videoId);
+            if (info != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                info = loader.load();
+                synchronized (this) {
+                    entries.put(videoId, new Cached(info, clock.getAsLong() + ttlMillis));
+                }
+            }
+            mine.complete(info);
+            return info;
+        } catch (Throwable e) {
+            // И Error тоже: иначе ждущие этот future зависнут навсегда
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(videoId, mine);
+        }
+    }
+
+    private synchronized VideoInfo lookup(String videoId) {
+        Cached cached = entries.get(videoId);
+        if (cached == null) return null;
+        if (cached.expiresAt() < clock.getAsLong()) {
+            entries.remove(videoId);
+            return null;
+        }
+        return cached.info();
+    }
+
+    private static VideoInfo await(CompletableFuture<VideoInfo> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    public synchronized int size()  { return entries.size(); }
+    public long hits()              { return hits.sum(); }
+    public long misses()            { return misses.sum(); }
+    public long coalesced()         { return coalesced.sum(); }
+}
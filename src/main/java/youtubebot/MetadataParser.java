@@ -0,0 +1,171 @@
+package youtubebot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import youtubebot.model.Playlist;
+import youtubebot.model.VideoInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Потоковый разбор вывода yt-dlp --dump-json.
+ *
+ * Документ весит сотни килобайт: formats, thumbnails, automatic_captions
+ * и т.д. Дерево JsonNode для него строить незачем — нам нужны title, duration
+ * и несколько полей аудио-форматов. Всё остальное пропускается токенами
+ * (skipChildren), не превращаясь в объекты.
+ *
+ * Так же разбирается плейлист (--flat-playlist --dump-single-json):
+ * из entries берутся только id, title и duration.
+ */
+final class MetadataParser {
+
+    // stdout процесса закрывает вызывающий код — после разбора он его ещё дочитывает
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private MetadataParser() {}
+
+    /** Читает JSON прямо из stdout процесса */
+    static VideoInfo parse(InputStream in) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("yt-dlp output is not a JSON object");
+            }
+            return parse(p);
+        }
+    }
+
+    /** Разбирает объект метаданных; парсер должен стоять на его START_OBJECT */
+    static VideoInfo parse(JsonParser p) throws IOException {
+        String title    = "Unknown";
+        long   duration = 0;
+        var    best     = new BestAudio();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "title"    -> title    = value == JsonToken.VALUE_STRING ? p.getText() : title;
+                case "duration" -> duration = value.isNumeric() ? p.getValueAsLong() : 0;
+                case "formats"  -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        while (nextObject(p)) parseFormat(p, best);
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+        return new VideoInfo(title, duration, best.ext, best.codec, best.bitrate, best.size);
+    }
+
+    /** Читает плейлист из stdout процесса; maxEntries — сколько видео оставить */
+    static Playlist parsePlaylist(InputStream in, int maxEntries) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("yt-dlp output is not a JSON object");
+            }
+            String title   = "Плейлист";
+            var    entries = new ArrayList<Playlist.Entry>();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "title"   -> title = text(p, value, title);
+                    case "entries" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            while (nextObject(p)) {
+                                Playlist.Entry entry = parseEntry(p);
+                                if (entry != null && entries.size() < maxEntries) entries.add(entry);
+                            }
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    default -> p.skipChildren();
+                }
+            }
+            return new Playlist(title, entries);
+        }
+    }
+
+    /** Элемент плейлиста; null — без id (например, вложенный плейлист канала) */
+    private static Playlist.Entry parseEntry(JsonParser p) throws IOException {
+        String id = null, title = null;
+        long   duration = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "id"       -> id       = text(p, value, null);
+                case "title"    -> title    = text(p, value, null);
+                case "duration" -> duration = value.isNumeric() ? p.getValueAsLong() : 0;
+                default -> p.skipChildren();
+            }
+        }
+        if (id == null || id.length() != 11) return null;
+        return new Playlist.Entry(id, title != null ? title : id, duration);
+    }
+
+    /** Ищем аудио-only формат с наибольшим битрейтом */
+    private static void parseFormat(JsonParser p, BestAudio best) throws IOException {
+        String vcodec = "", acodec = "", ext = null;
+        int    abr    = 0;
+        long   size   = -1, sizeApprox = -1;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "vcodec"          -> vcodec     = text(p, value, "");
+                case "acodec"          -> acodec     = text(p, value, "");
+                case "ext"             -> ext        = text(p, value, null);
+                case "abr"             -> abr        = value.isNumeric() ? p.getValueAsInt() : 0;
+                case "filesize"        -> size       = value.isNumeric() ? p.getValueAsLong() : -1;
+                case "filesize_approx" -> sizeApprox = value.isNumeric() ? p.getValueAsLong() : -1;
+                default -> p.skipChildren();
+            }
+        }
+
+        boolean audioOnly = vcodec.equals("none") && !acodec.equals("none");
+        if (!audioOnly || abr <= 0 || abr <= best.bitrate) return;
+
+        best.bitrate = abr;
+        best.ext     = ext != null ? ext : "m4a";
+        best.codec   = acodec.isEmpty() ? "aac" : acodec;
+        best.size    = size > 0 ? size : sizeApprox;
+    }
+
+    /**
+     * Переходит к следующему объекту массива. null и прочие не-объекты
+     * пропускаются — yt-dlp ставит null на месте недоступных видео плейлиста.
+     * false — массив кончился.
+     */
+    private static boolean nextObject(JsonParser p) throws IOException {
+        JsonToken token;
+        while ((token = p.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) return true;
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    private static String text(JsonParser p, JsonToken value, String fallback) throws IOException {
+        if (value == JsonToken.VALUE_STRING) return p.getText();
+        p.skipChildren();
+        return fallback;
+    }
+
+    /** Значения по умолчанию — как раньше: m4a/aac 128 kbps, размер неизвестен */
+    private static final class BestAudio {
+        String ext     = "m4a";
+        String codec   = "aac";
+        int    bitrate = 128;
+        long   size    = -1;
+    }
+}
@@ -0,0 +1,183 @@
+package youtubebot;
+
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Метрики в текстовом формате Prometheus для GET /metrics.
+ *
+ * Запись идёт из горячего пути (каждая загрузка, каждый upload), поэтому
+ * счётчики — LongAdder/DoubleAdder без блокировок: потоки пишут каждый
+ * в свою ячейку, сумма считается только при чтении.
+ *
+ * Гистограммы стадий, счётчики и gauges объявляются заранее; gauges читают
+ * значение при каждом запросе /metrics через переданную функцию — у самих
+ * компонентов уже есть нужные счётчики, дублировать их не нужно.
+ */
+public class Metrics {
+
+    private static final String PREFIX = "youtubebot_";
+
+    /** Стадии задачи — метка stage у гистограммы длительностей */
+    public enum Stage { METADATA, DOWNLOAD, TRANSCODE, UPLOAD, STREAM }
+
+    /** Границы корзин в секундах: от быстрого probe до часовой загрузки */
+    private static final double[] BUCKETS = {0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800};
+
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+    private final ConcurrentHashMap<String, LongAdder> cacheHits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> failures  = new ConcurrentHashMap<>();
+    private final List<Sampled> sampled = new ArrayList<>();
+
+    public Metrics() {
+        for (Stage stage : Stage.values()) stages[stage.ordinal()] = new Histogram();
+    }
+
+    // ── Запись ─────────────────────────────────────────────────────────────
+
+    /** Стадия заняла время с startNanos (System.nanoTime()) до сейчас */
+    public void observe(Stage stage, long startNanos) {
+        stages[stage.ordinal()].observe((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /** Файл нашёлся без загрузки: source — file_id, disk */
+    public void cacheHit(String source) {
+        cacheHits.computeIfAbsent(source, k -> new LongAdder()).increment();
+    }
+
+    /** Задача закончилась ошибкой; category — причина в терминах friendlyError */
+    public void failure(String category) {
+        failures.computeIfAbsent(category, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Gauge: текущее значение, читается при каждом запросе /metrics.
+     * Значения одного семейства с разными метками регистрируются подряд.
+     */
+    public Metrics gauge(String name, String help, DoubleSupplier value) {
+        return register(name, help, "gauge", value);
+    }
+
+    /** Счётчик, который уже ведёт сам компонент (например, 429 в OutboundQueue) */
+    public Metrics counter(String name, String help, DoubleSupplier value) {
+        return register(name, help, "counter", value);
+    }
+
+    private synchronized Metrics register(String name, String help, String type, DoubleSupplier value) {
+        sampled.add(new Sampled(PREFIX + name, help, type, value));
+        return this;
+    }
+
+    // ── Экспорт ────────────────────────────────────────────────────────────
+
+    public void handle(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(render());
+    }
+
+    public String render() {
+        var out = new StringBuilder(4096);
+
+        header(out, PREFIX + "stage_duration_seconds", "Duration of job stages", "histogram");
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()].write(out, PREFIX + "stage_duration_seconds",
+                    "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"");
+        }
+
+        header(out, PREFIX + "cache_hits_total", "Requests served without downloading", "counter");
+        labeled(out, PREFIX + "cache_hits_total", "source", cacheHits);
+
+        header(out, PREFIX + "failures_total", "Failed jobs by user-facing error category", "counter");
+        labeled(out, PREFIX + "failures_total", "category", failures);
+
+        synchronized (this) {
+            String family = null;
+            for (Sampled s : sampled) {
+                // name может нести метки: active_processes{kind="download"} — заголовок один на семейство
+                int brace = s.name.indexOf('{');
+                String current = brace < 0 ? s.name : s.name.substring(0, brace);
+                if (!current.equals(family)) header(out, current, s.help, s.type);
+                family = current;
+                out.append(s.name).append(' ').append(format(s.value.getAsDouble())).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /** Сколько байт занимают файлы в директории (с поддиректориями); 0 если её нет */
+    public static long directoryBytes(Path dir) {
+        if (!Files.isDirectory(dir)) return 0;
+        try (var files = Files.walk(dir)) {
+            return files.mapToLong(file -> {
+                try {
+                    return Files.isRegularFile(file) ? Files.size(file) : 0;
+                } catch (IOException e) {
+                    return 0;   // файл удалили, пока обходили директорию
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void labeled(StringBuilder out, String name, String label, Map<String, LongAdder> values) {
+        values.forEach((value, count) -> out.append(name).append('{').append(label).append("=\"")
+                .append(value).append("\"} ").append(count.sum()).append('\n'));
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private record Sampled(String name, String help, String type, DoubleSupplier value) {}
+
+    /**
+     * Гистограмма с фиксированными корзинами. Каждое наблюдение — один
+     * инкремент своей корзины; накопительные значения le считаются при экспорте.
+     */
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];   // последняя — +Inf
+        private final DoubleAdder sum     = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(double seconds) {
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i]) i++;
+            buckets[i].increment();
+            sum.add(seconds);
+        }
+
+        void write(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf";
+                out.append(name).append("_bucket{").append(labels).append(",le=\"").append(le)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{").append(labels).append("} ").append(sum.sum()).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+}
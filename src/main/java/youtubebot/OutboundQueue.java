@@ -0,0 +1,395 @@
+package youtubebot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Очередь исходящих вызовов Bot API с учётом лимитов Telegram.
+ *
+ * Telegram пропускает около 30 сообщений в секунду на бота, 1 в секунду
+ * в личный чат и 20 в минуту в группу. Всё сверх — 429 с retry_after.
+ * Раньше такие сообщения просто терялись; теперь:
+ *  - общий token bucket (30/с) и отдельный bucket на каждый чат;
+ *  - на 429 вызов возвращается в начало очереди своего чата, а чат
+ *    замолкает на retry_after секунд;
+ *  - внутри чата сначала уходят файлы, потом ответы, потом статусы;
+ *  - статус, который ещё не ушёл, заменяется более свежим с тем же mergeKey,
+ *    а с отправкой файла все неотправленные статусы чата теряют смысл.
+ *
+ * В один чат одновременно идёт не больше одного вызова — порядок сохраняется.
+ * Файлы (DELIVERY) занимают не больше maxDeliveries мест из maxInFlight:
+ * upload длится минутами, и без такого потолка 16 загрузок забирают все
+ * соединения — ответы и статусы остальным чатам встают до конца загрузок.
+ *
+ * Сами вызовы выполняются в пуле обычных потоков размером с пул HTTP-соединений.
+ * telegrambots (Apache HttpClient) ждёт свободное соединение и читает сокет
+ * внутри synchronized; на виртуальных потоках это прикалывает carrier-потоки,
+ * и при паре CPU приложение встаёт целиком.
+ */
+public class OutboundQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /** Порядок объявления — порядок отправки внутри чата */
+    public enum Priority { DELIVERY, REPLY, STATUS }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private static final int  GLOBAL_PER_SECOND = 30;
+    private static final long PRIVATE_INTERVAL  = TimeUnit.SECONDS.toNanos(1);
+    private static final long GROUP_INTERVAL    = TimeUnit.SECONDS.toNanos(3);   // 20 в минуту
+    private static final int  MAX_RETRIES       = 5;
+
+    private final ReentrantLock lock    = new ReentrantLock();
+    private final Condition     changed = lock.newCondition();
+    private final HashMap<Long, ChatQueue> chats = new HashMap<>();   // guarded by lock
+    private double globalTokens = GLOBAL_PER_SECOND;                  // guarded by lock
+    private long   globalRefilledAt;                                  // guarded by lock
+    private long   sequence;                                          // guarded by lock
+    private int    pending;                                           // guarded by lock
+    private int    inFlight;                                          // guarded by lock
+    private int    deliveriesInFlight;                                // guarded by lock
+    private volatile boolean running = true;
+
+    private final int             maxInFlight;
+    private final int             maxDeliveries;
+    private final ExecutorService executor;
+    private final LongSupplier    clock;
+    private final LongAdder rateLimited = new LongAdder();
+    private final Thread scheduler;
+
+    /**
+     * maxInFlight — сколько вызовов идёт одновременно, не больше пула соединений клиента;
+     * maxDeliveries — сколько из них могут быть файлами, остальные места держатся для сообщений.
+     */
+    public OutboundQueue(int maxInFlight, int maxDeliveries) {
+        this(maxInFlight, maxDeliveries, System::nanoTime);
+    }
+
+    /** clock — время в нс; после его перевода в тестах нужно вызвать wakeUp() */
+    OutboundQueue(int maxInFlight, int maxDeliveries, LongSupplier clock) {
+        this.maxInFlight   = Math.max(1, maxInFlight);
+        this.maxDeliveries = Math.max(1, Math.min(maxDeliveries, this.maxInFlight - 1));
+        this.clock         = clock;
+        this.globalRefilledAt = clock.getAsLong();
+        this.executor    = Executors.newFixedThreadPool(this.maxInFlight,
+                Thread.ofPlatform().name("outbound-", 0).daemon().factory());
+        this.scheduler = Thread.ofVirtual().name("outbound-scheduler").start(this::schedule);
+    }
+
+    /**
+     * Ставит вызов в очередь чата. mergeKey != null — вызов заменяет ещё не
+     * отправленный вызов с тем же ключом (оба получат один результат).
+     * retryable = false — вызов нельзя повторить (например, поток уже прочитан),
+     * на 429 он завершится ошибкой.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(long chatId, Priority priority, String mergeKey,
+                                           boolean retryable, Call<T> call) {
+        lock.lock();
+        try {
+            if (!running) {
+                return CompletableFuture.failedFuture(new IllegalStateException("outbound queue stopped"));
+            }
+            ChatQueue chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+            if (mergeKey != null) {
+                Task<?> queued = chat.find(priority, mergeKey);
+                if (queued != null) {
+                    ((Task<T>) queued).call = call;
+                    return (CompletableFuture<T>) queued.result;
+                }
+            }
+            if (priority == Priority.DELIVERY) pending -= chat.dropStatuses();
+
+            var task = new Task<>(priority, mergeKey, retryable, call, sequence++);
+            chat.queue(priority).addLast(task);
+            pending++;
+            changed.signal();
+            return task.result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(long chatId, Priority priority, Call<T> call) {
+        return submit(chatId, priority, null, true, call);
+    }
+
+    /** Сколько вызовов ждут отправки */
+    public int pending() {
+        lock.lock();
+        try { return pending; } finally { lock.unlock(); }
+    }
+
+    /** Сколько раз Telegram ответил 429 */
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * Останавливает очередь. Неотправленные вызовы завершаются CancellationException —
+     * иначе те, кто ждёт их результат, висели бы вечно. Идущие вызовы прерываются.
+     */
+    public void shutdown() {
+        List<Task<?>> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            running = false;
+            for (ChatQueue chat : chats.values()) chat.drainTo(dropped);
+            chats.clear();
+            pending = 0;
+        } finally {
+            lock.unlock();
+        }
+        scheduler.interrupt();
+        for (Runnable never : executor.shutdownNow()) {
+            if (never instanceof Dispatch dispatch) dropped.add(dispatch.task);
+        }
+        for (Task<?> task : dropped) {
+            task.result.completeExceptionally(new CancellationException("outbound queue stopped"));
+        }
+        if (!dropped.isEmpty()) log.info("Outbound queue stopped, {} calls cancelled", dropped.size());
+    }
+
+    /** Будит планировщик, чтобы он перечитал часы (для тестов с управляемым временем) */
+    void wakeUp() {
+        lock.lock();
+        try { changed.signal(); } finally { lock.unlock(); }
+    }
+
+    // ── Планировщик ────────────────────────────────────────────────────────
+
+    private void schedule() {
+        lock.lock();
+        try {
+            while (running) {
+                long now  = clock.getAsLong();
+                long wait = inFlight >= maxInFlight ? Long.MAX_VALUE : refillGlobal(now);
+                ChatQueue next = null;
+                if (wait == 0) {
+                    long earliest = Long.MAX_VALUE;
+                    boolean deliveriesFull = deliveriesInFlight >= maxDeliveries;
+                    for (Iterator<ChatQueue> it = chats.values().iterator(); it.hasNext(); ) {
+                        ChatQueue chat = it.next();
+                        if (chat.busy) continue;
+                        if (chat.isEmpty()) {
+                            if (chat.readyAt <= now) it.remove();   // лимит чата уже не важен
+                            continue;
+                        }
+                        // Файл чата ждёт свободного места под загрузку — освободит его execute
+                        if (deliveriesFull && chat.head().priority == Priority.DELIVERY) continue;
+                        if (chat.readyAt > now) {
+                            earliest = Math.min(earliest, chat.readyAt);
+                        } else if (next == null || chat.before(next)) {
+                            next = chat;
+                        }
+                    }
+                    if (next == null) wait = earliest == Long.MAX_VALUE ? Long.MAX_VALUE : earliest - now;
+                }
+
+                if (next == null) {
+                    if (wait == Long.MAX_VALUE) changed.await();
+                    else changed.awaitNanos(wait);
+                    continue;
+                }
+
+                Task<?> task = next.poll();
+                pending--;
+                globalTokens -= 1;
+                next.busy = true;
+                inFlight++;
+                if (task.priority == Priority.DELIVERY) deliveriesInFlight++;
+                executor.execute(new Dispatch(next, task));
+            }
+        } catch (InterruptedException e) {
+            // остановка
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Пополняет общий bucket. 0 — токен есть, иначе сколько наносекунд ждать. */
+    private long refillGlobal(long now) {
+        globalTokens = Math.min(GLOBAL_PER_SECOND,
+                globalTokens + (now - globalRefilledAt) * GLOBAL_PER_SECOND / 1e9);
+        globalRefilledAt = now;
+        if (globalTokens >= 1) return 0;
+        return (long) ((1 - globalTokens) * 1e9 / GLOBAL_PER_SECOND) + 1;
+    }
+
+    private <T> void execute(ChatQueue chat, Task<T> task) {
+        T result = null;
+        Exception error = null;
+        try {
+            result = task.call.call();
+        } catch (Exception e) {
+            error = e;
+        }
+
+        int retryAfter = error != null ? retryAfterSeconds(error) : -1;
+        if (retryAfter >= 0) rateLimited.increment();
+
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            chat.busy    = false;
+            inFlight--;
+            if (task.priority == Priority.DELIVERY) deliveriesInFlight--;
+            // Пауза из 429 действует и без повтора: следующий вызов в чат её дождётся
+            chat.readyAt = retryAfter >= 0
+                    ? now + TimeUnit.SECONDS.toNanos(Math.max(1, retryAfter))
+                    : now + chat.interval;
+            if (running && retryAfter >= 0 && task.retryable && ++task.attempts <= MAX_RETRIES) {
+                log.warn("Telegram rate limit for chat {}, retry in {} s", chat.chatId, retryAfter);
+                chat.queue(task.priority).addFirst(task);
+                pending++;
+                changed.signal();
+                return;
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (error == null) {
+            task.result.complete(result);
+        } else {
+            log.warn("Outbound call to {} failed: {}", chat.chatId, error.getMessage());
+            task.result.completeExceptionally(error);
+        }
+    }
+
+    /** retry_after из ответа 429, -1 — это не 429 */
+    static int retryAfterSeconds(Throwable e) {
+        if (e instanceof TelegramApiRequestException r && r.getErrorCode() != null && r.getErrorCode() == 429) {
+            var params = r.getParameters();
+            return params != null && params.getRetryAfter() != null ? params.getRetryAfter() : 1;
+        }
+        if (e instanceof AudioUploader.RateLimitedException r) {
+            return r.retryAfterSeconds();
+        }
+        return -1;
+    }
+
+    // ── Очередь чата ───────────────────────────────────────────────────────
+
+    /** Вызов, отданный пулу; shutdownNow возвращает такие, если они не начались */
+    private final class Dispatch implements Runnable {
+        final ChatQueue chat;
+        final Task<?>   task;
+
+        Dispatch(ChatQueue chat, Task<?> task) {
+            this.chat = chat;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            execute(chat, task);
+        }
+    }
+
+    private static final class Task<T> {
+        final Priority priority;
+        final String   mergeKey;
+        final boolean  retryable;
+        final long     sequence;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        Call<T> call;
+        int     attempts;
+
+        Task(Priority priority, String mergeKey, boolean retryable, Call<T> call, long sequence) {
+            this.priority  = priority;
+            this.mergeKey  = mergeKey;
+            this.retryable = retryable;
+            this.call      = call;
+            this.sequence  = sequence;
+        }
+    }
+
+    /** Все поля — guarded by lock очереди */
+    private static final class ChatQueue {
+        final long chatId;
+        final long interval;
+        // EnumMap обходит ключи в порядке объявления — то есть по приоритету
+        final EnumMap<Priority, ArrayDeque<Task<?>>> byPriority = new EnumMap<>(Priority.class);
+        long    readyAt;
+        boolean busy;
+
+        ChatQueue(long chatId) {
+            this.chatId   = chatId;
+            // Отрицательные id — группы и каналы, у них лимит строже
+            this.interval = chatId < 0 ? GROUP_INTERVAL : PRIVATE_INTERVAL;
+            for (Priority priority : Priority.values()) byPriority.put(priority, new ArrayDeque<>());
+        }
+
+        ArrayDeque<Task<?>> queue(Priority priority) {
+            return byPriority.get(priority);
+        }
+
+        boolean isEmpty() {
+            for (var q : byPriority.values()) if (!q.isEmpty()) return false;
+            return true;
+        }
+
+        Task<?> head() {
+            for (var q : byPriority.values()) if (!q.isEmpty()) return q.peekFirst();
+            return null;
+        }
+
+        Task<?> poll() {
+            for (var q : byPriority.values()) if (!q.isEmpty()) return q.pollFirst();
+            return null;
+        }
+
+        void drainTo(List<Task<?>> out) {
+            for (var q : byPriority.values()) {
+                out.addAll(q);
+                q.clear();
+            }
+        }
+
+        /** Этот чат отправляет раньше other: выше приоритет, при равном — кто раньше встал */
+        boolean before(ChatQueue other) {
+            Task<?> mine = head(), theirs = other.head();
+            int cmp = mine.priority.compareTo(theirs.priority);
+            return cmp != 0 ? cmp < 0 : mine.sequence < theirs.sequence;
+        }
+
+        Task<?> find(Priority priority, String mergeKey) {
+            for (Task<?> task : queue(priority)) {
+                if (mergeKey.equals(task.mergeKey)) return task;
+            }
+            return null;
+        }
+
+        /** Неотправленные статусы больше не нужны. Возвращает, сколько выброшено. */
+        int dropStatuses() {
+            var statuses = queue(Priority.STATUS);
+            int dropped = statuses.size();
+            for (Task<?> task : statuses) task.result.complete(null);
+            statuses.clear();
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package youtubebot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Ограничитель числа одновременно работающих внешних процессов.
+ *
+ * Без него всплеск из 200 нажатий запускает 200 yt-dlp/ffmpeg, контейнер
+ * уходит в своп и все задачи падают по таймауту. С ним лишние задачи ждут
+ * в очереди строго по порядку (FIFO), а пользователь видит своё место.
+ *
+ * Освободившееся место передаётся следующему в очереди напрямую, поэтому
+ * новые задачи не могут обогнать тех, кто уже ждёт.
+ *
+ * Фоновые (спекулятивные) задачи берут место только через tryAcquire — если
+ * оно свободно прямо сейчас. Когда подтверждённой задаче приходится вставать
+ * в очередь, вызывается onContention, чтобы фоновую работу можно было прервать.
+ */
+public class ProcessLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessLimiter.class);
+
+    private final String name;
+    private final int    permits;
+    private final ReentrantLock      lock  = new ReentrantLock();
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();   // guarded by lock
+    private int active;                                            // guarded by lock
+    private volatile Runnable onContention = () -> {};
+
+    public ProcessLimiter(String name, int permits) {
+        this.name    = name;
+        this.permits = Math.max(1, permits);
+        log.info("Process limiter '{}': {} slots", name, this.permits);
+    }
+
+    /**
+     * Занимает место. Если мест нет — встаёт в очередь и сообщает свою позицию
+     * через onQueued (вызывается один раз, вне блокировки), затем ждёт.
+     */
+    public Permit acquire(IntConsumer onQueued) throws InterruptedException {
+        Waiter waiter;
+        int    position;
+        lock.lock();
+        try {
+            if (active < permits && queue.isEmpty()) {
+                active++;
+                return new Permit();
+            }
+            waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            position = queue.size();
+        } finally {
+            lock.unlock();
+        }
+
+        log.debug("[{}] queued at position {}", name, position);
+        onContention.run();
+        onQueued.accept(position);
+
+        lock.lock();
+        try {
+            while (!waiter.granted) waiter.ready.await();
+            return new Permit();
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                releaseLocked();          // место уже передали нам — отдаём дальше
+            } else {
+                queue.remove(waiter);
+            }
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Место без ожидания: null если свободных мест нет или кто-то уже ждёт */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (active >= permits || !queue.isEmpty()) return null;
+            active++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Вызывается (вне блокировки), когда задаче пришлось встать в очередь */
+    public void onContention(Runnable listener) {
+        this.onContention = listener;
+    }
+
+    public int active() {
+        lock.lock();
+        try { return active; } finally { lock.unlock(); }
+    }
+
+    public int queued() {
+        lock.lock();
+        try { return queue.size(); } finally { lock.unlock(); }
+    }
+
+    public int permits() {
+        return permits;
+    }
+
+    private void release() {
+        lock.lock();
+        try { releaseLocked(); } finally { lock.unlock(); }
+    }
+
+    private void releaseLocked() {
+        Waiter next = queue.pollFirst();
+        if (next != null) {
+            next.granted = true;
+            next.ready.signal();
+        } else {
+            active--;
+        }
+    }
+
+    private static final class Waiter {
+        final Condition ready;
+        boolean granted;   // guarded by lock
+
+        Waiter(Condition ready) {
+            this.ready = ready;
+        }
+    }
+
+    /** Занятое место. Освобождается при закрытии. */
+    public final class Permit implements AutoCloseable {
+        private boolean closed;
+
+        private Permit() {}
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            release();
+        }
+    }
+}
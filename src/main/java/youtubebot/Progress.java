@@ -0,0 +1,71 @@
+package youtubebot;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ход одной задачи загрузки: стадия и процент.
+ *
+ * Пишет в него тот, кто запустил процесс (разбор вывода yt-dlp / ffmpeg),
+ * читают — подписчики задачи, каждый обновляет своё статусное сообщение.
+ * Слушатели вызываются только когда процент или стадия действительно изменились.
+ */
+public final class Progress {
+
+    public enum Stage {
+        DOWNLOAD("⏳ Загружаю аудио"),
+        TRANSCODE("🔄 Перекодирую");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        void onProgress(Stage stage, int percent);
+    }
+
+    /** Отписка; close() не бросает исключений */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** Ход, который никто не слушает — для фоновых задач и вызовов без подписчиков */
+    public static Progress none() {
+        return new Progress();
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private Stage stage;       // guarded by this
+    private int   percent = -1; // guarded by this
+
+    public void update(Stage stage, int percent) {
+        int clamped = Math.max(0, Math.min(100, percent));
+        synchronized (this) {
+            if (stage == this.stage && clamped == this.percent) return;
+            this.stage   = stage;
+            this.percent = clamped;
+        }
+        for (Listener listener : listeners) listener.onProgress(stage, clamped);
+    }
+
+    /** Подписывает listener; если ход уже известен — сразу сообщает его */
+    public Registration listen(Listener listener) {
+        listeners.add(listener);
+        Stage current;
+        int   value;
+        synchronized (this) {
+            current = stage;
+            value   = percent;
+        }
+        if (current != null) listener.onProgress(current, value);
+        return () -> listeners.remove(listener);
+    }
+}
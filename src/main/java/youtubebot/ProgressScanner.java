@@ -0,0 +1,111 @@
+package youtubebot;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Разбор прогресса из stdout yt-dlp и ffmpeg без аллокаций на строку.
+ *
+ * yt-dlp с --newline --progress-template печатает строки вида
+ *   PROGRESS 1048576/4194304        (всего байт может не быть: NA)
+ * ffmpeg с -progress pipe:1 — блоки key=value, из них нужен
+ *   out_time_us=12345678
+ *
+ * Поток читается в один буфер фиксированного размера, строки ищутся
+ * по '\n', числа разбираются прямо из байтов — ни String, ни char[]
+ * на каждую строку не создаётся. Остальные строки пропускаются.
+ */
+final class ProgressScanner implements DownloadWorker.OutputHandler<Void> {
+
+    private static final byte[] YT_DLP_PREFIX = "PROGRESS ".getBytes();
+    private static final byte[] FFMPEG_PREFIX = "out_time_us=".getBytes();
+    private static final int    BUFFER_SIZE   = 8192;
+
+    private final Progress       progress;
+    private final Progress.Stage stage;
+    private final byte[]         prefix;
+    private final long           totalMicros;   // только для ffmpeg
+
+    private ProgressScanner(Progress progress, Progress.Stage stage, byte[] prefix, long totalMicros) {
+        this.progress    = progress;
+        this.stage       = stage;
+        this.prefix      = prefix;
+        this.totalMicros = totalMicros;
+    }
+
+    /** Прогресс скачивания по шаблону PROGRESS downloaded/total */
+    static ProgressScanner ytDlp(Progress progress) {
+        return new ProgressScanner(progress, Progress.Stage.DOWNLOAD, YT_DLP_PREFIX, 0);
+    }
+
+    /** Прогресс перекодирования: позиция ffmpeg относительно длительности */
+    static ProgressScanner ffmpeg(Progress progress, long durationSeconds) {
+        return new ProgressScanner(progress, Progress.Stage.TRANSCODE, FFMPEG_PREFIX,
+                Math.max(1, durationSeconds) * 1_000_000L);
+    }
+
+    @Override
+    public Void handle(InputStream stdout) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int filled = 0;
+        boolean skipping = false;   // строка длиннее буфера — дочитываем её до '\n' впустую
+        int n;
+        while ((n = stdout.read(buf, filled, buf.length - filled)) > 0) {
+            int end = filled + n;
+            int lineStart = 0;
+            for (int i = filled; i < end; i++) {
+                if (buf[i] != '\n') continue;
+                if (!skipping) line(buf, lineStart, i);
+                skipping  = false;
+                lineStart = i + 1;
+            }
+            int rest = end - lineStart;
+            if (rest == buf.length) {
+                skipping = true;
+                filled = 0;
+            } else {
+                System.arraycopy(buf, lineStart, buf, 0, rest);
+                filled = rest;
+            }
+        }
+        return null;
+    }
+
+    private void line(byte[] buf, int from, int to) {
+        if (to - from < prefix.length) return;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) return;
+        }
+        int pos = from + prefix.length;
+
+        if (prefix == FFMPEG_PREFIX) {
+            long micros = parseLong(buf, pos, to);
+            if (micros >= 0) progress.update(stage, (int) (micros * 100 / totalMicros));
+            return;
+        }
+
+        long done = parseLong(buf, pos, to);
+        int slash = indexOf(buf, pos, to, (byte) '/');
+        long total = slash < 0 ? -1 : parseLong(buf, slash + 1, to);
+        if (done >= 0 && total > 0) progress.update(stage, (int) (done * 100 / total));
+    }
+
+    /** Десятичное число с начала диапазона; -1 если цифр нет (NA, None) */
+    private static long parseLong(byte[] buf, int from, int to) {
+        long value = 0;
+        int i = from;
+        for (; i < to; i++) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') break;
+            value = value * 10 + (b - '0');
+        }
+        return i == from ? -1 : value;
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) return i;
+        }
+        return -1;
+    }
+}
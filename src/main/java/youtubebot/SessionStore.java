@@ -4,49 +4,287 @@ import youtubebot.model.UserSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 /**
  * Хранилище пользовательских сессий в памяти.
- * Автоматически удаляет устаревшие сессии каждые 15 минут.
+ *
+ * Ключ — chat ID как примитивный long: таблица с открытой адресацией хранит
+ * узлы, в которых лежит сам ID, поэтому на сессию не создаётся ни Long,
+ * ни узел ConcurrentHashMap.
+ *
+ * Истечение — hashed timing wheel: каждая сессия при добавлении попадает
+ * в ячейку колеса по своему сроку. Раз в TICK_MILLIS тикер разбирает одну
+ * ячейку и удаляет только то, что истекло именно сейчас, — O(1) на сессию
+ * вместо обхода всей карты. Сессия уходит через секунду после срока,
+ * а не через 15–45 минут, как при периодической чистке.
+ *
+ * Карта разбита на сегменты со своей блокировкой; у каждого сегмента своё
+ * колесо, поэтому тикер и обработчики разных чатов почти не пересекаются.
+ * Об истёкших сессиях сообщается слушателю onExpired — вне блокировок.
  */
 public class SessionStore {
 
     private static final Logger log = LoggerFactory.getLogger(SessionStore.class);
 
-    private final ConcurrentHashMap<Long, UserSession> sessions = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService cleaner =
-            Executors.newSingleThreadScheduledExecutor(
-                    Thread.ofVirtual().name("session-cleaner").factory()
-            );
+    private static final int  SEGMENTS     = 32;     // степень двойки
+    private static final int  SEGMENT_BITS = Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final long TICK_MILLIS  = 1000;
+    /** 2048 тиков по секунде — больше TTL, поэтому почти все сессии истекают на первом обороте */
+    private static final int  WHEEL_SIZE   = 2048;   // степень двойки
+    private static final int  INITIAL_CAPACITY = 16;
+
+    private final Segment[]    segments = new Segment[SEGMENTS];
+    private final LongSupplier clock;
+    private final long         epoch;
+    private volatile long      processedTick;   // все ячейки до этого тика включительно разобраны
+    private volatile Consumer<UserSession> onExpired = session -> {};
+    private ScheduledExecutorService ticker;
 
     public SessionStore() {
-        cleaner.scheduleAtFixedRate(this::removeExpired, 15, 15, TimeUnit.MINUTES);
+        this(System::currentTimeMillis);
+    }
+
+    /** clock — текущее время в мс; до start() колесо крутится только вызовами advance() (тесты, бенчмарки) */
+    SessionStore(LongSupplier clock) {
+        this.clock = clock;
+        this.epoch = clock.getAsLong();
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    /** Запускает тикер истечения — после того как слушатель onExpired назначен */
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofVirtual().name("session-expiry").factory());
+        ticker.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     public void put(UserSession session) {
-        sessions.put(session.chatId(), session);
+        long deadline = tickOf(session.createdAt() + UserSession.TTL_MILLIS - 1) + 1;
+        // Срок уже прошёл — в ближайшую ещё не разобранную ячейку
+        deadline = Math.max(deadline, processedTick + 1);
+        segmentFor(session.chatId()).put(session, deadline);
     }
 
     public UserSession get(long chatId) {
-        return sessions.get(chatId);
+        return segmentFor(chatId).get(chatId);
     }
 
     public void remove(long chatId) {
-        sessions.remove(chatId);
+        segmentFor(chatId).remove(chatId);
     }
 
-    private void removeExpired() {
-        int before = sessions.size();
-        sessions.values().removeIf(UserSession::isExpired);
-        int removed = before - sessions.size();
-        if (removed > 0) log.debug("Removed {} expired sessions", removed);
+    public int size() {
+        int total = 0;
+        for (Segment segment : segments) total += segment.size;
+        return total;
+    }
+
+    /** Слушатель истёкших сессий — например, чтобы отменить их предзагрузку */
+    public void onExpired(Consumer<UserSession> listener) {
+        this.onExpired = listener;
     }
 
     public void shutdown() {
-        cleaner.shutdownNow();
+        if (ticker != null) ticker.shutdownNow();
+    }
+
+    // ── Колесо ─────────────────────────────────────────────────────────────
+
+    /** Разбирает ячейки всех тиков до текущего времени. Вызывается только тикером. */
+    void advance() {
+        long now  = tickOf(clock.getAsLong());
+        long from = processedTick + 1;
+        if (now < from) return;
+        // Отстали больше чем на оборот — достаточно пройти каждую ячейку один раз
+        if (now - from >= WHEEL_SIZE) from = now - WHEEL_SIZE + 1;
+
+        var expired = new ArrayList<UserSession>();
+        for (long tick = from; tick <= now; tick++) {
+            for (Segment segment : segments) segment.expire(tick, now, expired);
+        }
+        processedTick = now;
+
+        for (UserSession session : expired) {
+            try {
+                onExpired.accept(session);
+            } catch (Exception e) {
+                log.warn("Expiry listener failed for chat {}: {}", session.chatId(), e.getMessage());
+            }
+        }
+        if (!expired.isEmpty()) log.debug("Expired {} sessions", expired.size());
+    }
+
+    private long tickOf(long millis) {
+        return Math.floorDiv(millis - epoch, TICK_MILLIS);
+    }
+
+    private Segment segmentFor(long chatId) {
+        return segments[hash(chatId) >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * Перемешивание битов: у chat ID младшие биты распределены неравномерно.
+     * Старшие биты выбирают сегмент, младшие — ячейку в его таблице.
+     */
+    static int hash(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ── Сегмент ────────────────────────────────────────────────────────────
+
+    /** Узел и карты, и колеса: сессия, её срок и соседи по ячейке */
+    private static final class Node {
+        final long  chatId;
+        UserSession session;
+        long        deadline;   // тик
+        Node        prev, next;
+
+        Node(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    /** Все поля — guarded by lock, кроме size (читается без блокировки) */
+    private static final class Segment {
+        private final ReentrantLock lock  = new ReentrantLock();
+        private final Node[]        wheel = new Node[WHEEL_SIZE];
+        private Node[]       table = new Node[INITIAL_CAPACITY];
+        private volatile int size;
+
+        void put(UserSession session, long deadline) {
+            lock.lock();
+            try {
+                int i = find(session.chatId());
+                Node node = table[i];
+                if (node == null) {
+                    node = new Node(session.chatId());
+                    table[i] = node;
+                    size++;
+                    if (size * 4 > table.length * 3) resize();
+                } else {
+                    unlink(node);
+                }
+                node.session  = session;
+                node.deadline = deadline;
+                link(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        UserSession get(long chatId) {
+            lock.lock();
+            try {
+                Node node = table[find(chatId)];
+                return node == null ? null : node.session;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(long chatId) {
+            lock.lock();
+            try {
+                int i = find(chatId);
+                Node node = table[i];
+                if (node == null) return;
+                unlink(node);
+                delete(i);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Снимает с ячейки тика tick всё, что истекло к now */
+        void expire(long tick, long now, List<UserSession> out) {
+            lock.lock();
+            try {
+                Node node = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+                while (node != null) {
+                    Node next = node.next;
+                    if (node.deadline <= now) {
+                        unlink(node);
+                        delete(find(node.chatId));
+                        out.add(node.session);
+                    }
+                    node = next;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // ── Колесо сегмента ──
+
+        private void link(Node node) {
+            int slot = (int) (node.deadline & (WHEEL_SIZE - 1));
+            Node head = wheel[slot];
+            node.prev = null;
+            node.next = head;
+            if (head != null) head.prev = node;
+            wheel[slot] = node;
+        }
+
+        private void unlink(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                wheel[(int) (node.deadline & (WHEEL_SIZE - 1))] = node.next;
+            }
+            if (node.next != null) node.next.prev = node.prev;
+            node.prev = node.next = null;
+        }
+
+        // ── Таблица с линейным пробированием ──
+
+        /** Ячейка с этим ключом или пустая ячейка, куда его положить */
+        private int find(long chatId) {
+            int mask = table.length - 1;
+            int i = hash(chatId) & mask;
+            while (table[i] != null && table[i].chatId != chatId) i = (i + 1) & mask;
+            return i;
+        }
+
+        /** Удаление со сдвигом назад: цепочки пробирования остаются без дыр */
+        private void delete(int i) {
+            int mask = table.length - 1;
+            table[i] = null;
+            size--;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                Node node = table[j];
+                if (node == null) return;
+                int home = hash(node.chatId) & mask;
+                // node можно сдвинуть в i, если i лежит между его домашней ячейкой и j
+                boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+                if (movable) {
+                    table[i] = node;
+                    table[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize() {
+            Node[] old = table;
+            table = new Node[old.length * 2];
+            int mask = table.length - 1;
+            for (Node node : old) {
+                if (node == null) continue;
+                int i = hash(node.chatId) & mask;
+                while (table[i] != null) i = (i + 1) & mask;
+                table[i] = node;
+            }
+        }
     }
 }
@@ -0,0 +1,63 @@
+package youtubebot;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Поток, который обрывается, как только через него прошло больше limit байт.
+ *
+ * При потоковой загрузке размер файла заранее неизвестен. Вместо того чтобы
+ * отправить в Telegram 50 MB и получить отказ, загрузка прерывается на первом
+ * лишнем байте.
+ */
+final class SizeLimitedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private long    count;
+    private volatile boolean exceeded;
+
+    SizeLimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) add(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        int n = super.read(buf, off, len);
+        if (n > 0) add(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        add(skipped);
+        return skipped;
+    }
+
+    /** Сколько байт уже прочитано */
+    long count() {
+        return count;
+    }
+
+    /** true — поток оборвался из-за лимита */
+    boolean exceeded() {
+        return exceeded;
+    }
+
+    private void add(long n) throws IOException {
+        count += n;
+        if (count > limit) {
+            exceeded = true;
+            throw new IOException("Файл превышает лимит Telegram (%d байт)".formatted(limit));
+        }
+    }
+}
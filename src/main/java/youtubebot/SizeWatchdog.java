@@ -0,0 +1,104 @@
+package youtubebot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Следит за размером файла, который пишет внешний процесс, и убивает
+ * процесс (через CancelToken), как только файл не влезет в лимит:
+ *  - уже записано больше лимита;
+ *  - или по ходу (Progress) видно, что к концу будет больше: записано
+ *    size байт за percent процентов — значит всего около size * 100 / percent.
+ * Прогноз учитывается только после MIN_PERCENT и с запасом PROJECTION_MARGIN:
+ * битрейт в начале бывает выше среднего, а отказ от формата, который
+ * в итоге влез бы, хуже лишней минуты работы.
+ *
+ * yt-dlp пишет в {файл}.part и переименовывает в конце — смотрим оба.
+ */
+final class SizeWatchdog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SizeWatchdog.class);
+
+    private static final long   CHECK_MILLIS      = 250;
+    private static final int    MIN_PERCENT       = 10;
+    private static final double PROJECTION_MARGIN = 1.10;
+
+    private final long        limit;
+    private final CancelToken token;
+    private final Path        file;
+    private final Path        partFile;
+    private final Progress.Registration registration;
+    private final Thread      thread;
+    private volatile int      percent = -1;
+    private volatile boolean  exceeded;
+
+    /** Следит за file, пока процесс пишет стадию stage; при превышении отменяет token */
+    SizeWatchdog(Path file, long limit, CancelToken token, Progress progress, Progress.Stage stage) {
+        this.file     = file;
+        this.partFile = file.resolveSibling(file.getFileName() + ".part");
+        this.limit    = limit;
+        this.token    = token;
+        this.registration = progress.listen((s, value) -> {
+            if (s == stage) percent = value;
+        });
+        this.thread = Thread.ofVirtual().name("size-watchdog").start(this::watch);
+    }
+
+    /** true — процесс убит из-за размера */
+    boolean exceeded() {
+        return exceeded;
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        registration.close();
+    }
+
+    private void watch() {
+        try {
+            while (!token.isCancelled()) {
+                long fileBytes = sizeOf(file);
+                long partBytes = sizeOf(partFile);
+                int  done      = percent;
+                if (exceeds(fileBytes, partBytes, done, limit)) {
+                    long size = Math.max(fileBytes, partBytes);
+                    log.info("Killing process writing {}: {} bytes at {}%, projected {} > limit {}",
+                            file.getFileName(), size, done, projected(size, done), limit);
+                    exceeded = true;
+                    token.cancel();
+                    return;
+                }
+                Thread.sleep(CHECK_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // процесс закончился
+        }
+    }
+
+    /**
+     * Решение сторожа по размерам файла и его .part (отсутствующий — 0)
+     * и ходу стадии percent (-1 — ещё неизвестен).
+     */
+    static boolean exceeds(long fileBytes, long partBytes, int percent, long limit) {
+        long size = Math.max(fileBytes, partBytes);
+        return size > limit || projected(size, percent) > limit * PROJECTION_MARGIN;
+    }
+
+    /** Ожидаемый итоговый размер; 0 — прогноза ещё нет (меньше MIN_PERCENT) */
+    static long projected(long size, int percent) {
+        return percent >= MIN_PERCENT ? size * 100 / percent : 0;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -6,16 +6,23 @@ import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.DefaultAbsSender;
 import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.api.methods.send.SendAudio;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 //import org.telegram.telegrambots.meta.api.methods.webhooks.SetWebhook;
 import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Тонкая обёртка над telegrambots для отправки сообщений и файлов.
@@ -25,11 +32,30 @@ public class TelegramClient extends DefaultAbsSender {
 
     private static final Logger log = LoggerFactory.getLogger(TelegramClient.class);
 
-    private final String botToken;
+    /** HTTP-соединений к Bot API; по умолчанию у telegrambots оно одно на всех */
+    private static final int CONNECTIONS = 16;
+    /** Из них под файлы; остальные всегда свободны для ответов и статусов */
+    private static final int UPLOADS = 12;
 
-    public TelegramClient(String botToken) {
-        super(new DefaultBotOptions());
-        this.botToken = botToken;
+    private final String        botToken;
+    private final AudioUploader uploader;   // null — загрузка через telegrambots
+    private final boolean       localFiles; // свой сервер Bot API читает файлы с диска сам
+    private final OutboundQueue outbound = new OutboundQueue(CONNECTIONS, UPLOADS);
+
+    public TelegramClient(AppConfig config) {
+        super(botOptions(config.botApiUrl()));
+        this.botToken = config.botToken();
+        this.uploader = config.directUpload()
+                ? new AudioUploader(config.botApiUrl(), config.botToken())
+                : null;
+        this.localFiles = config.localBotApi();
+    }
+
+    private static DefaultBotOptions botOptions(String botApiUrl) {
+        var options = new DefaultBotOptions();
+        options.setBaseUrl(botApiUrl + "/bot");
+        options.setMaxThreads(CONNECTIONS);
+        return options;
     }
 
     @Override
@@ -38,59 +64,190 @@ public class TelegramClient extends DefaultAbsSender {
     }
 
     // ── Отправка сообщений ─────────────────────────────────────────────────
+    //
+    // Все вызовы, адресованные чату, идут через OutboundQueue: она держит
+    // лимиты Telegram и повторяет вызов после 429. Ошибки не глотаются —
+    // они приходят в CompletableFuture (и пишутся в лог очередью).
 
-    public void sendMessage(long chatId, String text) {
-        try {
-            execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(text)
-                    .build());
-        } catch (Exception e) {
-            log.error("Failed to send message to {}: {}", chatId, e.getMessage());
-        }
+    public CompletableFuture<Message> sendMessage(long chatId, String text) {
+        return outbound.submit(chatId, OutboundQueue.Priority.REPLY, () ->
+                execute(SendMessage.builder()
+                        .chatId(chatId)
+                        .text(text)
+                        .build()));
     }
 
-    public void sendMessageWithKeyboard(long chatId, String text, InlineKeyboardMarkup keyboard) {
-        try {
-            execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(text)
-                    .replyMarkup(keyboard)
-                    .build());
-        } catch (Exception e) {
-            log.error("Failed to send message with keyboard to {}: {}", chatId, e.getMessage());
-        }
+    /**
+     * Служебное сообщение о ходе работы («получаю информацию», место в очереди).
+     * Отправляется после файлов и ответов; если предыдущий статус ещё не ушёл,
+     * уйдёт только последний.
+     */
+    public CompletableFuture<Message> sendStatus(long chatId, String text) {
+        return outbound.submit(chatId, OutboundQueue.Priority.STATUS, "status", true, () ->
+                execute(SendMessage.builder()
+                        .chatId(chatId)
+                        .text(text)
+                        .build()));
     }
 
-    public void editMessage(long chatId, int messageId, String newText) {
-        try {
+    public CompletableFuture<Message> sendMessageWithKeyboard(long chatId, String text,
+                                                              InlineKeyboardMarkup keyboard) {
+        return outbound.submit(chatId, OutboundQueue.Priority.REPLY, () ->
+                execute(SendMessage.builder()
+                        .chatId(chatId)
+                        .text(text)
+                        .replyMarkup(keyboard)
+                        .build()));
+    }
+
+    /** Правки одного сообщения сливаются — уходит только последний текст */
+    public CompletableFuture<Void> editMessage(long chatId, int messageId, String newText) {
+        return outbound.submit(chatId, OutboundQueue.Priority.STATUS, "edit:" + messageId, true, () -> {
             execute(EditMessageText.builder()
                     .chatId(chatId)
                     .messageId(messageId)
                     .text(newText)
                     .build());
-        } catch (Exception e) {
-            log.warn("Failed to edit message {}: {}", messageId, e.getMessage());
-        }
+            return null;
+        });
+    }
+
+    public OutboundQueue outbound() {
+        return outbound;
+    }
+
+    public void shutdown() {
+        outbound.shutdown();
     }
 
     // ── Отправка аудио ─────────────────────────────────────────────────────
 
-    public void sendAudio(long chatId, Path audioFile, String title, String caption) {
+    /**
+     * Файл, уже лежащий на серверах Telegram.
+     * asDocument — Telegram принял его как документ (например, .ogg), а не как аудио;
+     * переотправлять такой file_id нужно через sendDocument.
+     */
+    public record UploadedFile(String fileId, boolean asDocument) {}
+
+    /**
+     * Загружает файл в Telegram.
+     * Возвращает file_id для повторной отправки или null если загрузка не удалась
+     * (пользователю в этом случае уже отправлено сообщение об ошибке).
+     *
+     * С локальным сервером Bot API (--local) вместо тела запроса уходит
+     * file:// путь: сервер читает файл с общего диска сам. Файл должен
+     * существовать, пока вызов не вернулся, — его держит Lease кэша.
+     */
+    public UploadedFile sendAudio(long chatId, Path audioFile, String title, String caption) {
         try {
-            execute(SendAudio.builder()
-                    .chatId(chatId)
-                    .audio(new InputFile(audioFile.toFile()))
-                    .title(title)
-                    .caption(caption)
-                    .performer("YouTube Audio")
-                    .build());
+            return await(outbound.submit(chatId, OutboundQueue.Priority.DELIVERY, () -> {
+                if (localFiles) {
+                    return uploadedFile(execute(SendAudio.builder()
+                            .chatId(chatId)
+                            .audio(new InputFile("file://" + audioFile.toAbsolutePath()))
+                            .title(title)
+                            .caption(caption)
+                            .performer("YouTube Audio")
+                            .build()));
+                }
+                if (uploader != null) {
+                    return uploader.sendAudio(chatId, audioFile, title, caption, "YouTube Audio");
+                }
+                return uploadedFile(execute(SendAudio.builder()
+                        .chatId(chatId)
+                        .audio(new InputFile(audioFile.toFile()))
+                        .title(title)
+                        .caption(caption)
+                        .performer("YouTube Audio")
+                        .build()));
+            }));
         } catch (Exception e) {
             log.error("Failed to send audio to {}: {}", chatId, e.getMessage());
             sendMessage(chatId, "❌ Не удалось отправить файл: " + e.getMessage());
+            return null;
         }
     }
 
+    /**
+     * Загружает аудио прямо из потока: multipart уходит chunked-кодированием,
+     * файл на диске не нужен.
+     *
+     * В отличие от sendAudio(Path) ошибку не сообщает пользователю, а бросает:
+     * поток мог оборваться из-за источника (yt-dlp, ffmpeg, лимит размера),
+     * и что ответить, решает вызывающий код. Прочитанный поток не повторить,
+     * поэтому на 429 вызов сразу завершается ошибкой — если поток ещё не
+     * читали, вызывающий код может отправить файл обычным путём.
+     */
+    public UploadedFile sendAudio(long chatId, InputStream audio, String fileName,
+                                  String title, String caption) throws Exception {
+        return await(outbound.submit(chatId, OutboundQueue.Priority.DELIVERY, null, false, () ->
+                uploadedFile(execute(SendAudio.builder()
+                        .chatId(chatId)
+                        .audio(new InputFile(audio, fileName))
+                        .title(title)
+                        .caption(caption)
+                        .performer("YouTube Audio")
+                        .build()))));
+    }
+
+    /**
+     * Переотправляет ранее загруженный файл по file_id — без upload.
+     * Возвращает false если Telegram не принял file_id (устарел, другой бот и т.п.),
+     * тогда вызывающий код должен загрузить файл заново. Прочие ошибки — таймаут,
+     * 429, бот заблокирован — пробрасываются: file_id при них остаётся рабочим.
+     */
+    public boolean resendAudio(long chatId, UploadedFile file, String title, String caption) throws Exception {
+        try {
+            await(outbound.submit(chatId, OutboundQueue.Priority.DELIVERY, () -> {
+                if (file.asDocument()) {
+                    return execute(SendDocument.builder()
+                            .chatId(chatId)
+                            .document(new InputFile(file.fileId()))
+                            .caption(caption)
+                            .build());
+                }
+                return execute(SendAudio.builder()
+                        .chatId(chatId)
+                        .audio(new InputFile(file.fileId()))
+                        .title(title)
+                        .caption(caption)
+                        .performer("YouTube Audio")
+                        .build());
+            }));
+            return true;
+        } catch (TelegramApiRequestException e) {
+            if (!isInvalidFileId(e)) throw e;
+            log.warn("Telegram rejected cached file_id for {}: {}", chatId, e.getApiResponse());
+            return false;
+        }
+    }
+
+    /** 400 «wrong file identifier» / «invalid file_id» — file_id больше не годится */
+    static boolean isInvalidFileId(TelegramApiRequestException e) {
+        if (e.getErrorCode() == null || e.getErrorCode() != 400) return false;
+        String response = e.getApiResponse();
+        if (response == null) return false;
+        String text = response.toLowerCase(Locale.ROOT);
+        return text.contains("file identifier") || text.contains("file_id");
+    }
+
+    /** Ждёт результат вызова из очереди; исключение — исходное, без обёрток */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static UploadedFile uploadedFile(Message sent) {
+        if (sent == null) return null;
+        if (sent.getAudio() != null)    return new UploadedFile(sent.getAudio().getFileId(), false);
+        if (sent.getDocument() != null) return new UploadedFile(sent.getDocument().getFileId(), true);
+        return null;
+    }
+
     // ── Клавиатуры ─────────────────────────────────────────────────────────
 
     public static InlineKeyboardMarkup singleRowKeyboard(List<InlineKeyboardButton> buttons) {
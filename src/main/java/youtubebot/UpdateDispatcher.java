@@ -0,0 +1,209 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Очередь входящих Telegram updates между HTTP-потоком и обработкой.
+ *
+ * Webhook только кладёт сырое тело в очередь и сразу отвечает 200 —
+ * разбор и обработка идут отдельно:
+ *  - повторная доставка того же update_id (Telegram повторяет при таймауте)
+ *    отбрасывается по окну последних ID;
+ *  - updates одного чата обрабатываются строго по порядку, в своём
+ *    виртуальном потоке; разные чаты — параллельно;
+ *  - всего в работе не больше capacity updates. Если очередь полна,
+ *    offer возвращает false, и webhook отвечает ошибкой — Telegram
+ *    доставит update позже.
+ */
+public class UpdateDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    /** Сколько последних update_id помнить для отсева повторов */
+    private static final int DEDUP_WINDOW = 10_000;
+
+    private final Consumer<JsonNode>    handler;
+    private final Semaphore             capacity;
+    private final BlockingQueue<Object> ingress = new LinkedBlockingQueue<>();   // String или JsonNode
+    private final ObjectMapper          json    = new ObjectMapper();
+    private final ExecutorService       executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Окно последних update_id — только поток router
+    private final long[]        recentIds = new long[DEDUP_WINDOW];
+    private final HashSet<Long> recentSet = new HashSet<>();
+    private int recentNext;
+
+    // Очереди чатов: есть ключ — чат сейчас обрабатывается
+    private final HashMap<Long, ArrayDeque<JsonNode>> chats = new HashMap<>();   // guarded by chats
+
+    private final LongAdder accepted   = new LongAdder();
+    private final LongAdder rejected   = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder processed  = new LongAdder();
+    private final Thread    router;
+
+    private volatile LongConsumer onProcessed = updateId -> {};
+
+    public UpdateDispatcher(int capacity, Consumer<JsonNode> handler) {
+        this.handler  = handler;
+        this.capacity = new Semaphore(Math.max(1, capacity));
+        this.router   = Thread.ofVirtual().name("update-router").start(this::route);
+    }
+
+    /** Ставит сырой update в очередь. false — очередь переполнена. */
+    public boolean offer(String rawUpdate) {
+        return enqueue(rawUpdate);
+    }
+
+    /** Update, уже разобранный вызывающим (long polling получает их массивом) */
+    public boolean offer(JsonNode update) {
+        return enqueue(update);
+    }
+
+    private boolean enqueue(Object update) {
+        if (!capacity.tryAcquire()) {
+            rejected.increment();
+            return false;
+        }
+        accepted.increment();
+        ingress.add(update);
+        return true;
+    }
+
+    /** Сколько updates принято, но ещё не обработано */
+    public int depth() {
+        return ingress.size() + backlog();
+    }
+
+    /** Сколько разобранных updates ждут в очередях чатов (включая обрабатываемые) */
+    public int backlog() {
+        synchronized (chats) {
+            return chats.values().stream().mapToInt(ArrayDeque::size).sum();
+        }
+    }
+
+    /**
+     * Вызывается с update_id после того, как handler отработал (успешно или нет).
+     * Отброшенные повторы сюда не попадают — их update_id сообщит исходный update.
+     */
+    public void onProcessed(LongConsumer listener) {
+        this.onProcessed = listener;
+    }
+
+    public long accepted()   { return accepted.sum(); }
+    public long rejected()   { return rejected.sum(); }
+    public long duplicates() { return duplicates.sum(); }
+    public long processed()  { return processed.sum(); }
+
+    public void shutdown() {
+        router.interrupt();
+        executor.shutdownNow();
+    }
+
+    // ── Разбор и маршрутизация ─────────────────────────────────────────────
+
+    private void route() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Object item;
+            try {
+                item = ingress.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            JsonNode update;
+            try {
+                update = item instanceof JsonNode parsed ? parsed : json.readTree((String) item);
+            } catch (Exception e) {
+                log.warn("Dropping malformed update: {}", e.getMessage());
+                capacity.release();
+                continue;
+            }
+
+            if (update.has("update_id") && !remember(update.get("update_id").asLong())) {
+                log.debug("Duplicate update {} dropped", update.get("update_id").asLong());
+                duplicates.increment();
+                capacity.release();
+                continue;
+            }
+            dispatch(chatIdOf(update), update);
+        }
+    }
+
+    /** false — этот update_id уже встречался */
+    private boolean remember(long updateId) {
+        if (!recentSet.add(updateId)) return false;
+        if (recentSet.size() > DEDUP_WINDOW) recentSet.remove(recentIds[recentNext]);
+        recentIds[recentNext] = updateId;
+        recentNext = (recentNext + 1) % DEDUP_WINDOW;
+        return true;
+    }
+
+    private void dispatch(long chatId, JsonNode update) {
+        synchronized (chats) {
+            ArrayDeque<JsonNode> queue = chats.get(chatId);
+            if (queue != null) {
+                queue.addLast(update);   // чат уже обрабатывается — своя очередь дойдёт
+                return;
+            }
+            queue = new ArrayDeque<>();
+            queue.addLast(update);
+            chats.put(chatId, queue);
+        }
+        executor.submit(() -> drain(chatId));
+    }
+
+    /** Обрабатывает updates чата по одному, пока его очередь не опустеет */
+    private void drain(long chatId) {
+        while (true) {
+            JsonNode update;
+            synchronized (chats) {
+                ArrayDeque<JsonNode> queue = chats.get(chatId);
+                update = queue.peekFirst();
+            }
+            try {
+                handler.accept(update);
+            } catch (Exception e) {
+                log.error("Error processing update: {}", e.getMessage(), e);
+            } finally {
+                processed.increment();
+                capacity.release();
+                if (update.has("update_id")) onProcessed.accept(update.get("update_id").asLong());
+            }
+            synchronized (chats) {
+                ArrayDeque<JsonNode> queue = chats.get(chatId);
+                queue.pollFirst();
+                if (queue.isEmpty()) {
+                    chats.remove(chatId);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Чат, к которому относится update; 0 — updates без чата идут одной очередью */
+    static long chatIdOf(JsonNode update) {
+        if (update.has("message")) {
+            return update.get("message").path("chat").path("id").asLong();
+        }
+        if (update.has("callback_query")) {
+            return update.get("callback_query").path("message").path("chat").path("id").asLong();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,216 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeSet;
+
+/**
+ * Получение updates через getUpdates (long polling) — вместо webhook.
+ *
+ * Нужен там, где нельзя выставить наружу HTTPS: за NAT, на стенде, локально.
+ * За один вызов забирается до 100 updates; Telegram держит соединение до
+ * POLL_TIMEOUT секунд, если updates нет. Каждый update уходит в ту же
+ * очередь, что и тело webhook (UpdateDispatcher) — дальше путь общий.
+ *
+ * offset в getUpdates — это подтверждение: updates ниже него Telegram
+ * удаляет навсегда. Поэтому offset двигается только за обработанными
+ * updates — до первого, который ещё в работе (UpdateDispatcher сообщает
+ * о завершении через onProcessed), — и записывается в файл до того, как
+ * уйдёт в Telegram. Упавший бот после рестарта получит заново всё, что
+ * не успел обработать (и, возможно, часть уже обработанных updates других
+ * чатов, закончивших раньше). Updates, которые вернулись повторно, пока
+ * предыдущий экземпляр ещё в работе, в очередь второй раз не ставятся.
+ */
+public class UpdatePoller {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdatePoller.class);
+
+    private static final int  BATCH_LIMIT        = 100;
+    private static final int  POLL_TIMEOUT       = 50;   // секунд
+    private static final long MAX_BACKOFF_MS     = 30_000;
+    private static final long QUEUE_FULL_WAIT_MS = 200;
+    private static final long SHUTDOWN_WAIT_MS   = 5_000;
+
+    private final String           apiUrl;
+    private final Path             offsetFile;
+    private final UpdateDispatcher updates;
+    private final ObjectMapper     json = new ObjectMapper();
+    private volatile boolean running;
+    private Thread  thread;
+    private long    offset;       // последний подтверждённый Telegram (и записанный в файл)
+
+    // update_id, отданные в UpdateDispatcher и ещё не обработанные
+    private final TreeSet<Long> inFlight = new TreeSet<>();   // guarded by inFlight
+    private long nextUnseen;                                  // guarded by inFlight
+
+    public UpdatePoller(AppConfig config, UpdateDispatcher updates) {
+        this.apiUrl     = config.botApiUrl() + "/bot" + config.botToken();
+        this.offsetFile = Path.of(config.tempDir(), "updates_offset.txt");
+        this.updates    = updates;
+        updates.onProcessed(this::processed);
+    }
+
+    public void start() {
+        offset  = loadOffset();
+        synchronized (inFlight) {
+            nextUnseen = offset;
+        }
+        running = true;
+        thread  = Thread.ofVirtual().name("update-poller").start(this::run);
+        log.info("Long polling started, offset {}", offset);
+    }
+
+    /** Прерывает getUpdates (сокет виртуального потока закрывается по interrupt) и ждёт поток */
+    public void shutdown() {
+        running = false;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join(SHUTDOWN_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        // getUpdates не работает, пока у бота зарегистрирован webhook
+        try {
+            call("deleteWebhook", "", 10);
+        } catch (Exception e) {
+            log.warn("Failed to delete webhook: {}", e.getMessage());
+        }
+
+        long backoff = 1000;
+        while (running) {
+            try {
+                pollOnce();
+                backoff = 1000;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if (!running) return;
+                log.warn("getUpdates failed, retry in {} ms: {}", backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void pollOnce() throws Exception {
+        long from = committedOffset();
+        if (from != offset) {
+            offset = from;
+            saveOffset();
+        }
+        String query = "offset=" + offset
+                + "&limit=" + BATCH_LIMIT
+                + "&timeout=" + POLL_TIMEOUT
+                + "&allowed_updates=" + URLEncoder.encode("[\"message\",\"callback_query\"]", StandardCharsets.UTF_8);
+        JsonNode result = call("getUpdates", query, POLL_TIMEOUT + 10);
+        if (result.isEmpty()) return;
+
+        int fresh = 0;
+        for (JsonNode update : result) {
+            long updateId = update.path("update_id").asLong();
+            synchronized (inFlight) {
+                if (updateId < nextUnseen) continue;   // уже в работе — вернулся, т.к. не подтверждён
+                // В inFlight до offer: обработка может закончиться раньше, чем offer вернёт true
+                inFlight.add(updateId);
+                nextUnseen = updateId + 1;
+            }
+            // Очередь полна — ждём, а не теряем
+            while (!updates.offer(update)) {
+                Thread.sleep(QUEUE_FULL_WAIT_MS);
+            }
+            fresh++;
+        }
+        log.debug("Polled {} updates ({} new), confirmed offset {}", result.size(), fresh, offset);
+
+        if (fresh == 0) {
+            // Telegram вернул только то, что ещё обрабатывается, — без ожидания
+            // следующий getUpdates вернёт то же самое сразу
+            synchronized (inFlight) {
+                if (committedOffset() == offset) inFlight.wait(POLL_TIMEOUT * 1000L);
+            }
+        }
+    }
+
+    private void processed(long updateId) {
+        synchronized (inFlight) {
+            inFlight.remove(updateId);
+            inFlight.notifyAll();
+        }
+    }
+
+    /** offset, который можно подтвердить: первый необработанный update_id */
+    private long committedOffset() {
+        synchronized (inFlight) {
+            return inFlight.isEmpty() ? nextUnseen : inFlight.first();
+        }
+    }
+
+    /** Вызов метода Bot API. Возвращает поле result или бросает IOException. */
+    private JsonNode call(String method, String query, int timeoutSeconds) throws IOException {
+        var conn = (HttpURLConnection) URI.create(apiUrl + "/" + method + (query.isEmpty() ? "" : "?" + query))
+                .toURL().openConnection();
+        conn.setConnectTimeout(10_000);
+        conn.setReadTimeout(timeoutSeconds * 1000);
+
+        // Тело дочитывается до конца — соединение остаётся в keep-alive для следующего вызова
+        int status = conn.getResponseCode();
+        InputStream body = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (body == null) throw new IOException(method + ": HTTP " + status);
+
+        JsonNode response;
+        try (body) {
+            response = json.readTree(body);
+        }
+        if (!response.path("ok").asBoolean(false)) {
+            throw new IOException("%s: Telegram API error %d: %s".formatted(method,
+                    response.path("error_code").asInt(status),
+                    description(response)));
+        }
+        return response.path("result");
+    }
+
+    private static String description(JsonNode response) {
+        JsonNode description = response.path("description");
+        return description.isMissingNode() ? "no description" : description.textValue();
+    }
+
+    private long loadOffset() {
+        try {
+            if (Files.exists(offsetFile)) return Long.parseLong(Files.readString(offsetFile).trim());
+        } catch (Exception e) {
+            log.warn("Cannot read update offset from {}: {}", offsetFile, e.getMessage());
+        }
+        return 0;
+    }
+
+    private void saveOffset() {
+        try {
+            Files.createDirectories(offsetFile.getParent());
+            Path tmp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+            Files.writeString(tmp, Long.toString(offset));
+            Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot save update offset: {}", e.getMessage());
+        }
+    }
+}
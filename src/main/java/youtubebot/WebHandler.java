@@ -0,0 +1,485 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+import youtubebot.model.UserSession;
+import youtubebot.model.VideoInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * REST API веб-версии.
+ *
+ *  POST /api/download        {"url": ..., "format": "OPUS_64"} — ставит задачу и сразу
+ *                            отвечает 202 с её ID; формат не указан — выбирается сам
+ *  GET  /api/status/{id}     текущее состояние задачи
+ *  SSE  /api/events/{id}     то же состояние потоком: событие на каждую смену стадии
+ *                            или процента, в конце done / failed — опрашивать не нужно
+ *  GET  /api/file/{token}    готовый файл: Range (перемотка, докачка) и отправка
+ *                            прямо из page cache — регион файла отображается в память
+ *                            и уходит в сокет без копий в куче
+ *
+ * Задача идёт тем же конвейером, что и в боте (кэш, общие загрузки, очереди
+ * процессов), только без Telegram: вместо отправки файл держится Lease-ом кэша
+ * под случайным токеном. Через WEB_FILE_TTL_SECONDS токен и задача забываются,
+ * Lease отпускается — дальше файлом распоряжается вытеснение кэша.
+ */
+public class WebHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(WebHandler.class);
+
+    /** Незавершённых веб-задач одновременно; сверх — 503 */
+    private static final int  MAX_ACTIVE_JOBS = 100;
+    /** Файл отображается в память окнами: регион MappedByteBuffer не больше 2 GB */
+    private static final long MAP_WINDOW      = 64L * 1024 * 1024;
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private final AppConfig      config;
+    private final DownloadWorker worker;
+    private final ObjectMapper   json   = new ObjectMapper();
+    private final SecureRandom   random = new SecureRandom();
+    private final ConcurrentHashMap<String, WebJob>  jobs  = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, WebFile> files = new ConcurrentHashMap<>();
+    private final AtomicInteger  active = new AtomicInteger();
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("web-expiry").factory());
+    // Отправка SSE: медленный клиент держит свой поток, а не читателя вывода yt-dlp/ffmpeg
+    private final ExecutorService sseSender = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("web-sse-", 0).factory());
+
+    public WebHandler(AppConfig config, DownloadWorker worker) {
+        this.config = config;
+        this.worker = worker;
+    }
+
+    /** Готовый файл под токеном: держит Lease, пока токен не истёк */
+    private record WebFile(DownloadWorker.Prepared prepared, String fileName, String contentType) {}
+
+    // ── Задачи ─────────────────────────────────────────────────────────────
+
+    public void startDownload(Context ctx) {
+        String url;
+        AudioFormat format = null;
+        try {
+            JsonNode body = json.readTree(ctx.body());
+            url = body.path("url").asText("").trim();
+            String name = body.path("format").asText("");
+            if (!name.isEmpty()) format = AudioFormat.valueOf(name);
+        } catch (Exception e) {
+            ctx.status(400).json(error("Ожидается JSON: {\"url\": ..., \"format\": ...}"));
+            return;
+        }
+        if (!worker.isValidYouTubeUrl(url)) {
+            ctx.status(400).json(error("Это не похоже на ссылку YouTube"));
+            return;
+        }
+        // Части — несколько файлов, веб-версия отдаёт один
+        if (format != null && format.isSplit()) {
+            ctx.status(400).json(error("Формат SPLIT доступен только в боте"));
+            return;
+        }
+        if (active.incrementAndGet() > MAX_ACTIVE_JOBS) {
+            active.decrementAndGet();
+            ctx.status(503).json(error("Сейчас много загрузок, попробуйте позже"));
+            return;
+        }
+
+        var job = new WebJob(newId(), url, sseSender);
+        jobs.put(job.id, job);
+        AudioFormat requested = format;
+        Thread.ofVirtual().name("web-" + job.id).start(() -> {
+            try {
+                run(job, requested);
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+
+        var response = new LinkedHashMap<String, Object>();
+        response.put("id", job.id);
+        response.put("status", "/api/status/" + job.id);
+        response.put("events", "/api/events/" + job.id);
+        ctx.status(202).json(response);
+    }
+
+    public void getStatus(Context ctx) {
+        WebJob job = jobs.get(ctx.pathParam("id"));
+        if (job == null) {
+            ctx.status(404).json(error("Задача не найдена или устарела"));
+            return;
+        }
+        ctx.json(job.snapshot());
+    }
+
+    /** SSE: сразу текущее состояние, дальше — каждое изменение; после done / failed поток закрывается */
+    public void events(SseClient client) {
+        WebJob job = jobs.get(client.ctx().pathParam("id"));
+        if (job == null) {
+            client.sendEvent("failed", error("Задача не найдена или устарела"));
+            client.close();
+            return;
+        }
+        var sink = EventSink.of(client);
+        client.keepAlive();
+        client.onClose(() -> job.unsubscribe(sink));
+        job.subscribe(sink);
+    }
+
+    private void run(WebJob job, AudioFormat requested) {
+        try {
+            job.update(State.METADATA, -1);
+            VideoInfo info = worker.getMetadata(job.url);
+            // Файл отдаётся по HTTP, лимит Telegram тут ни при чём — по умолчанию лучшее качество
+            AudioFormat format = requested != null ? requested : AudioFormat.ORIGINAL;
+            job.describe(info.title(), format);
+
+            var session = new UserSession(UserSession.WEB_CHAT_ID, job.url, info);
+            session.selectFormat(format);
+            var key = new AudioKey(worker.videoId(job.url), format);
+            var prepared = worker.prepareFile(key, session, (stage, percent) -> job.update(
+                    stage == Progress.Stage.DOWNLOAD ? State.DOWNLOAD : State.TRANSCODE, percent), false);
+
+            String token = newId();
+            long   expiresAt = System.currentTimeMillis() + config.webFileTtlSeconds() * 1000L;
+            files.put(token, new WebFile(prepared, fileName(info, prepared.path), contentType(prepared.path)));
+            job.done("/api/file/" + token, Files.size(prepared.path), expiresAt);
+            scheduleExpiry(job.id, token);
+            log.info("Web job {} ready: {}", job.id, key);
+        } catch (Exception e) {
+            log.warn("Web job {} for {} failed: {}", job.id, job.url, e.getMessage());
+            job.fail(worker.friendlyError(e));
+            scheduleExpiry(job.id, null);
+        }
+    }
+
+    private void scheduleExpiry(String jobId, String token) {
+        try {
+            cleaner.schedule(() -> {
+                jobs.remove(jobId);
+                WebFile file = token != null ? files.remove(token) : null;
+                if (file != null) file.prepared().close();
+            }, config.webFileTtlSeconds(), TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // остановка — всё освобождает shutdown()
+        }
+    }
+
+    // ── Файлы ──────────────────────────────────────────────────────────────
+
+    /**
+     * Отдаёт файл по токену. Поддерживается один диапазон Range (несколько —
+     * отдаём весь файл, это разрешено RFC 9110). Тело пишется регионами
+     * MappedByteBuffer в HttpOutput Jetty: прямой буфер уходит в сокет как есть,
+     * без копирования через byte[] в куче.
+     */
+    public void getFile(Context ctx) throws IOException {
+        WebFile file = files.get(ctx.pathParam("token"));
+        if (file == null) {
+            ctx.status(404).json(error("Ссылка устарела"));
+            return;
+        }
+        try (var channel = FileChannel.open(file.prepared().path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ctx.header("Accept-Ranges", "bytes");
+            ctx.header("Content-Disposition", contentDisposition(file.fileName()));
+            ctx.contentType(file.contentType());
+
+            long[] range = parseRange(ctx.header("Range"), size);
+            if (range == UNSATISFIABLE) {
+                ctx.header("Content-Range", "bytes */" + size);
+                ctx.status(416);
+                return;
+            }
+            long start = range != null ? range[0] : 0;
+            long end   = range != null ? range[1] : size - 1;
+            if (range != null) {
+                ctx.status(206);
+                ctx.header("Content-Range", "bytes %d-%d/%d".formatted(start, end, size));
+            }
+            ctx.res().setContentLengthLong(end - start + 1);
+            // Мимо ctx.outputStream(): Javalin может обернуть его сжатием, а аудио не сжимается
+            OutputStream out = ctx.res().getOutputStream();
+            for (long position = start; position <= end; position += MAP_WINDOW) {
+                var region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, end - position + 1));
+                if (out instanceof HttpOutput jetty) jetty.write(region);
+                else Channels.newChannel(out).write(region);
+            }
+        } catch (NoSuchFileException e) {
+            ctx.status(404).json(error("Ссылка устарела"));
+        }
+    }
+
+    /** [начало, конец] включительно; null — отдать весь файл; UNSATISFIABLE — 416 */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=")) return null;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) return null;
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to   = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                // bytes=-N — последние N байт
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0 || size == 0) return UNSATISFIABLE;
+                return new long[] {Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(from);
+            long end   = to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to);
+            if (end < start) return null;   // синтаксически неверный — игнорируется
+            if (start >= size) return UNSATISFIABLE;
+            return new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String fileName(VideoInfo info, Path file) {
+        String name = file.getFileName().toString();
+        String ext  = name.substring(name.lastIndexOf('.') + 1);
+        String title = info.title().replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").strip();
+        return (title.isEmpty() ? "audio" : title) + "." + ext;
+    }
+
+    /** filename — ASCII-запасной вариант, filename* — настоящее имя в UTF-8 (RFC 6266) */
+    private static String contentDisposition(String fileName) {
+        String ascii   = fileName.replaceAll("[^\\x20-\\x7E]|\"", "_");
+        String encoded = URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20");
+        return "attachment; filename=\"%s\"; filename*=UTF-8''%s".formatted(ascii, encoded);
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        return switch (name.substring(name.lastIndexOf('.') + 1)) {
+            case "ogg", "opus" -> "audio/ogg";
+            case "m4a"         -> "audio/mp4";
+            case "webm"        -> "audio/webm";
+            case "mka"         -> "audio/x-matroska";
+            default            -> "application/octet-stream";
+        };
+    }
+
+    // ── Служебное ──────────────────────────────────────────────────────────
+
+    /** 128 случайных бит: ID задачи нельзя угадать, а токен файла — тем более */
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Map.of("error", message);
+    }
+
+    public int activeJobs() {
+        return active.get();
+    }
+
+    /** Отпускает файлы и закрывает SSE-потоки; вызывается после остановки HTTP-сервера */
+    public void shutdown() {
+        cleaner.shutdownNow();
+        sseSender.shutdownNow();
+        files.values().forEach(file -> file.prepared().close());
+        files.clear();
+        jobs.values().forEach(WebJob::closeClients);
+    }
+
+    // ── Состояние задачи ───────────────────────────────────────────────────
+
+    private enum State { QUEUED, METADATA, DOWNLOAD, TRANSCODE, DONE, FAILED }
+
+    /**
+     * Все поля — guarded by this. Событие передаётся подписчикам под той же
+     * блокировкой: так каждый SSE-клиент видит состояния строго по порядку,
+     * а подписавшийся в момент завершения не пропустит done. Сама отправка
+     * идёт в потоке подписчика (SseSubscriber) — update вызывается из потока,
+     * читающего вывод yt-dlp/ffmpeg, и не должен ждать сеть.
+     */
+    private static final class WebJob {
+        final String id;
+        final String url;
+        private final ExecutorService sender;
+        private final CopyOnWriteArrayList<SseSubscriber> clients = new CopyOnWriteArrayList<>();
+        private State       state   = State.QUEUED;
+        private int         percent = -1;
+        private String      title;
+        private AudioFormat format;
+        private String      file;
+        private long        size;
+        private long        expiresAt;
+        private String      error;
+
+        WebJob(String id, String url, ExecutorService sender) {
+            this.id     = id;
+            this.url    = url;
+            this.sender = sender;
+        }
+
+        synchronized void update(State state, int percent) {
+            if (state == this.state && percent == this.percent) return;
+            this.state   = state;
+            this.percent = percent;
+            broadcast("progress", false);
+        }
+
+        synchronized void describe(String title, AudioFormat format) {
+            this.title  = title;
+            this.format = format;
+            broadcast("progress", false);
+        }
+
+        synchronized void done(String file, long size, long expiresAt) {
+            this.state     = State.DONE;
+            this.percent   = 100;
+            this.file      = file;
+            this.size      = size;
+            this.expiresAt = expiresAt;
+            broadcast("done", true);
+        }
+
+        synchronized void fail(String error) {
+            this.state = State.FAILED;
+            this.error = error;
+            broadcast("failed", true);
+        }
+
+        synchronized void subscribe(EventSink sink) {
+            boolean finished = state == State.DONE || state == State.FAILED;
+            var subscriber = new SseSubscriber(sink, sender);
+            subscriber.push(finished ? state.name().toLowerCase() : "progress", snapshot(), finished);
+            if (!finished) clients.add(subscriber);
+        }
+
+        void unsubscribe(EventSink sink) {
+            clients.removeIf(subscriber -> subscriber.sink == sink);
+        }
+
+        void closeClients() {
+            clients.forEach(subscriber -> subscriber.sink.close());
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            var map = new LinkedHashMap<String, Object>();
+            map.put("id", id);
+            map.put("state", state.name().toLowerCase());
+            if (percent >= 0)   map.put("percent", percent);
+            if (title != null)  map.put("title", title);
+            if (format != null) map.put("format", format.name());
+            if (file != null) {
+                map.put("file", file);
+                map.put("size", size);
+                map.put("expiresAt", expiresAt);
+            }
+            if (error != null)  map.put("error", error);
+            return map;
+        }
+
+        private void broadcast(String event, boolean last) {
+            var data = snapshot();
+            for (SseSubscriber subscriber : clients) {
+                subscriber.push(event, data, last);
+            }
+            if (last) clients.clear();
+        }
+    }
+
+    /** Куда подписчик отправляет события: SseClient Javalin, в тестах — запись */
+    interface EventSink {
+        void send(String name, Map<String, Object> data);
+
+        void close();
+
+        static EventSink of(SseClient client) {
+            return new EventSink() {
+                @Override public void send(String name, Map<String, Object> data) { client.sendEvent(name, data); }
+                @Override public void close() { client.close(); }
+            };
+        }
+    }
+
+    /**
+     * Один SSE-клиент со своей очередью длиной в одно событие.
+     *
+     * Каждое событие — полный снимок задачи, поэтому промежуточные можно
+     * выбрасывать: пока клиент принимает предыдущее, новое просто заменяет
+     * ожидающее. Последнее событие (done/failed) закрывает поток.
+     */
+    static final class SseSubscriber {
+
+        private record Event(String name, Map<String, Object> data, boolean last) {}
+
+        final EventSink sink;
+        private final ExecutorService sender;
+        private final AtomicReference<Event> pending  = new AtomicReference<>();
+        private final AtomicBoolean          draining = new AtomicBoolean();
+
+        SseSubscriber(EventSink sink, ExecutorService sender) {
+            this.sink   = sink;
+            this.sender = sender;
+        }
+
+        void push(String name, Map<String, Object> data, boolean last) {
+            pending.set(new Event(name, data, last));
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    sink.close();   // остановка
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event = pending.getAndSet(null);
+                if (event == null) {
+                    draining.set(false);
+                    // push мог положить событие между getAndSet и set(false)
+                    if (pending.get() == null || !draining.compareAndSet(false, true)) return;
+                    continue;
+                }
+                try {
+                    sink.send(event.name(), event.data());
+                } catch (Exception e) {
+                    log.debug("SSE send failed: {}", e.getMessage());
+                }
+                if (event.last()) {
+                    sink.close();
+                    return;
+                }
+            }
+        }
+    }
+}
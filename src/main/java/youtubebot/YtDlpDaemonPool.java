@@ -0,0 +1,400 @@
+package youtubebot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import youtubebot.model.VideoInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Пул долгоживущих процессов yt-dlp (ytdlp_worker.py).
+ *
+ * Каждый вызов бинарника — это старт Python и импорт экстракторов, около
+ * секунды CPU. Воркер импортирует yt-dlp один раз и принимает запросы
+ * построчным JSON через stdin/stdout, с теми же аргументами командной строки.
+ *
+ * Воркер пересоздаётся:
+ *  - после maxJobs запросов или когда его RSS вырос выше maxRssBytes;
+ *  - если не ответил на ping при периодической проверке;
+ *  - после обновления бинарника yt-dlp (recycleAll).
+ *
+ * Если воркер не стартует или ломает протокол, вызывающий код получает
+ * WorkerUnavailableException и запускает yt-dlp как раньше, отдельным процессом.
+ */
+public class YtDlpDaemonPool {
+
+    private static final Logger log = LoggerFactory.getLogger(YtDlpDaemonPool.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final long START_TIMEOUT_SECONDS = 30;
+    private static final long PING_TIMEOUT_SECONDS  = 5;
+    /** После неудачного старта воркера не пробуем снова это время */
+    private static final long RETRY_START_AFTER_MS  = 10 * 60 * 1000L;
+
+    /** Воркер недоступен — нужно выполнить запрос отдельным процессом yt-dlp */
+    public static class WorkerUnavailableException extends Exception {
+        public WorkerUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private final AppConfig    config;
+    private final List<String> command;
+    private final int          size;
+    private final int          maxJobs;
+    private final long         maxRssBytes;
+    private final ObjectMapper json = new ObjectMapper();
+
+    private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger live       = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicLong    requestIds = new AtomicLong();
+    private volatile long startDisabledUntil;
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofVirtual().name("yt-dlp-pool").factory()
+            );
+
+    public YtDlpDaemonPool(AppConfig config) {
+        this.config      = config;
+        this.size        = config.ytDlpWorkers();
+        this.maxJobs     = config.ytDlpWorkerMaxJobs();
+        this.maxRssBytes = config.ytDlpWorkerMaxRssMb() * 1024L * 1024;
+        this.command     = isEnabled() ? workerCommand(config) : List.of();
+        if (isEnabled()) {
+            // Проверка идёт в своём потоке: планировщик нужен ей самой для сторожей таймаутов
+            scheduler.scheduleAtFixedRate(() -> Thread.ofVirtual().start(this::healthCheck),
+                    1, 1, TimeUnit.MINUTES);
+            log.info("yt-dlp worker pool: {} workers, command: {}", size, String.join(" ", command));
+        }
+    }
+
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    /** Метаданные видео. args — аргументы yt-dlp без пути к бинарнику. */
+    public VideoInfo probe(List<String> args) throws Exception {
+        return call("probe", args, config.downloadTimeoutSeconds()).info();
+    }
+
+    /**
+     * Обычный запуск yt-dlp (скачивание). args — аргументы без пути к бинарнику.
+     * onProgress получает процент скачанного, пока воркер работает.
+     */
+    public void run(List<String> args, IntConsumer onProgress) throws Exception {
+        call("run", args, config.downloadTimeoutSeconds(), onProgress);
+    }
+
+    /** Пересоздать все воркеры — например, после обновления бинарника yt-dlp */
+    public void recycleAll() {
+        if (!isEnabled()) return;
+        generation.incrementAndGet();
+        Worker w;
+        while ((w = idle.poll()) != null) retire(w, "recycle requested");
+        // Занятые воркеры уйдут, когда вернутся в пул
+    }
+
+    public int liveWorkers() {
+        return live.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        Worker w;
+        while ((w = idle.poll()) != null) retire(w, "shutdown");
+    }
+
+    // ── Пул ────────────────────────────────────────────────────────────────
+
+    private Response call(String op, List<String> args, long timeoutSeconds) throws Exception {
+        return call(op, args, timeoutSeconds, percent -> {});
+    }
+
+    private Response call(String op, List<String> args, long timeoutSeconds,
+                          IntConsumer onProgress) throws Exception {
+        Worker worker = borrow();
+        boolean healthy = false;
+        try {
+            Response response = worker.call(op, args, timeoutSeconds, onProgress);
+            healthy = true;
+            if (!response.ok()) {
+                throw new RuntimeException("yt-dlp завершился с ошибкой. Вывод:\n" + response.error());
+            }
+            return response;
+        } finally {
+            if (healthy) giveBack(worker);
+            else retire(worker, "request failed");
+        }
+    }
+
+    private Worker borrow() throws WorkerUnavailableException, InterruptedException {
+        while (true) {
+            Worker w = idle.poll();
+            if (w == null && reserveSlot()) return spawn();
+            if (w == null) w = idle.poll(1, TimeUnit.SECONDS);
+            if (w == null) continue;
+            if (w.usable()) return w;
+            retire(w, "not usable");
+        }
+    }
+
+    private boolean reserveSlot() throws WorkerUnavailableException {
+        if (System.currentTimeMillis() < startDisabledUntil) {
+            throw new WorkerUnavailableException("worker start disabled after recent failure");
+        }
+        while (true) {
+            int n = live.get();
+            if (n >= size) return false;
+            if (live.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    private Worker spawn() throws WorkerUnavailableException {
+        try {
+            return new Worker(generation.get());
+        } catch (Exception e) {
+            live.decrementAndGet();
+            startDisabledUntil = System.currentTimeMillis() + RETRY_START_AFTER_MS;
+            log.error("Cannot start yt-dlp worker, using one-shot mode: {}", e.getMessage());
+            throw new WorkerUnavailableException("worker failed to start: " + e.getMessage());
+        }
+    }
+
+    private void giveBack(Worker w) {
+        if (w.jobs >= maxJobs) {
+            retire(w, "served " + w.jobs + " jobs");
+        } else if (maxRssBytes > 0 && w.rssBytes() > maxRssBytes) {
+            retire(w, "RSS " + w.rssBytes() / (1024 * 1024) + " MB");
+        } else if (!w.usable()) {
+            retire(w, "outdated");
+        } else {
+            idle.offer(w);
+        }
+    }
+
+    private void retire(Worker w, String reason) {
+        log.debug("Retiring yt-dlp worker {}: {}", w.pid(), reason);
+        w.destroy();
+        live.decrementAndGet();
+    }
+
+    /** Пингуем простаивающие воркеры, мёртвые убираем */
+    void healthCheck() {
+        for (int i = idle.size(); i > 0; i--) {
+            Worker w = idle.poll();
+            if (w == null) return;
+            try {
+                if (w.usable() && w.call("ping", List.of(), PING_TIMEOUT_SECONDS, percent -> {}).ok()) {
+                    idle.offer(w);
+                    continue;
+                }
+            } catch (Exception e) {
+                log.warn("yt-dlp worker {} failed health check: {}", w.pid(), e.getMessage());
+            }
+            retire(w, "health check");
+        }
+    }
+
+    private static List<String> workerCommand(AppConfig config) {
+        if (config.ytDlpWorkerCommand() != null) {
+            return Arrays.asList(config.ytDlpWorkerCommand().split("\\s+"));
+        }
+        // Скрипт лежит в jar — кладём рядом с временными файлами
+        Path script = Path.of(config.tempDir(), "ytdlp_worker.py");
+        try (InputStream in = YtDlpDaemonPool.class.getResourceAsStream("/ytdlp_worker.py")) {
+            Files.createDirectories(script.getParent());
+            Files.copy(in, script, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            log.error("Cannot extract yt-dlp worker script: {}", e.getMessage());
+        }
+        return List.of("python3", script.toString(), config.ytDlpPath());
+    }
+
+    // ── Воркер ─────────────────────────────────────────────────────────────
+
+    /** progress >= 0 — промежуточная строка хода, а не ответ */
+    private record Response(boolean ok, String error, VideoInfo info, int progress) {}
+
+    private final class Worker {
+
+        private final Process        process;
+        private final BufferedWriter stdin;
+        private final BufferedReader stdout;
+        private final int            generation;
+        private volatile boolean     timedOut;
+        /** Сколько запросов probe/run обслужил; пишет только тот, кто держит воркер */
+        volatile int jobs;
+
+        Worker(int generation) throws Exception {
+            this.generation = generation;
+            this.process = new ProcessBuilder(command).start();
+            this.stdin   = new BufferedWriter(
+                    new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.stdout  = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            Thread.ofVirtual().start(this::drainStderr);
+
+            String hello = readLine(START_TIMEOUT_SECONDS);
+            if (hello == null || !hello.contains("\"ready\"")) {
+                destroy();
+                throw new IOException("unexpected worker greeting: " + hello);
+            }
+            log.info("Started yt-dlp worker {}: {}", pid(), hello);
+        }
+
+        Response call(String op, List<String> args, long timeoutSeconds,
+                      IntConsumer onProgress) throws Exception {
+            long id = requestIds.incrementAndGet();
+            try {
+                stdin.write(json.writeValueAsString(Map.of("id", id, "op", op, "args", args)));
+                stdin.newLine();
+                stdin.flush();
+            } catch (IOException e) {
+                throw new WorkerUnavailableException("worker stdin closed: " + e.getMessage());
+            }
+
+            // До ответа воркер может прислать сколько угодно строк хода — таймаут общий на весь запрос
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            while (true) {
+                long left = deadline - System.nanoTime();
+                String line = left > 0 ? readLine(left, TimeUnit.NANOSECONDS) : null;
+                if (line == null) {
+                    if (timedOut || left <= 0) {
+                        // Убит сторожем — это настоящий таймаут, повторять запрос нет смысла
+                        throw new RuntimeException("Превышено время ожидания (%d сек)".formatted(timeoutSeconds));
+                    }
+                    throw new WorkerUnavailableException("worker exited");
+                }
+                Response response = parse(line, id);
+                if (response.progress() >= 0) {
+                    onProgress.accept(response.progress());
+                    continue;
+                }
+                // ping от healthCheck — не работа: иначе простаивающий воркер уходил бы на пересоздание
+                if (!op.equals("ping")) jobs++;
+                return response;
+            }
+        }
+
+        private String readLine(long timeoutSeconds) {
+            return readLine(timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        /** Читает строку ответа; по таймауту убивает процесс, и readLine вернёт null */
+        private String readLine(long timeout, TimeUnit unit) {
+            var watchdog = scheduler.schedule(() -> {
+                timedOut = true;
+                process.destroyForcibly();
+            }, timeout, unit);
+            try {
+                return stdout.readLine();
+            } catch (IOException e) {
+                return null;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        private Response parse(String line, long expectedId) throws WorkerUnavailableException {
+            boolean   ok    = false;
+            long      id    = -1;
+            String    error = null;
+            VideoInfo info  = null;
+            int   progress  = -1;
+            try (JsonParser p = JSON_FACTORY.createParser(line)) {
+                if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("not an object");
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    JsonToken value = p.nextToken();
+                    switch (field) {
+                        case "id"    -> id    = p.getValueAsLong(-1);
+                        case "ok"    -> ok    = value == JsonToken.VALUE_TRUE;
+                        case "error" -> error = p.getValueAsString();
+                        case "progress" -> progress = p.getValueAsInt(-1);
+                        case "info"  -> {
+                            if (value == JsonToken.START_OBJECT) info = MetadataParser.parse(p);
+                            else p.skipChildren();
+                        }
+                        default -> p.skipChildren();
+                    }
+                }
+            } catch (IOException e) {
+                throw new WorkerUnavailableException("bad worker response: " + e.getMessage());
+            }
+            if (id != expectedId) {
+                throw new WorkerUnavailableException("response id " + id + " != " + expectedId);
+            }
+            return new Response(ok, error, info, progress);
+        }
+
+        boolean usable() {
+            return process.isAlive() && generation == YtDlpDaemonPool.this.generation.get();
+        }
+
+        long pid() {
+            return process.pid();
+        }
+
+        /** Resident memory процесса из /proc, -1 если узнать нельзя */
+        long rssBytes() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid()), "status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (Exception ignored) {
+                // не Linux или процесс уже завершился
+            }
+            return -1;
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+        }
+
+        private void drainStderr() {
+            var tail = new ArrayList<String>();
+            try (var reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.debug("[yt-dlp-worker {}] {}", pid(), line);
+                    if (tail.size() == 20) tail.remove(0);
+                    tail.add(line);
+                }
+            } catch (IOException ignored) {
+                // процесс завершён
+            }
+            if (jobs == 0 && !tail.isEmpty()) {
+                // Упал ещё на старте — скорее всего, не удался import yt_dlp
+                log.warn("yt-dlp worker {} exited early:\n{}", pid(), String.join("\n", tail));
+            }
+        }
+    }
+}
@@ -11,6 +11,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +37,7 @@ public class YtDlpUpdater {
             "https://github.com/yt-dlp/yt-dlp/releases/latest/download/yt-dlp";
 
     private final String ytDlpPath;
+    private final List<Runnable> updateListeners = new CopyOnWriteArrayList<>();
     private final HttpClient http = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(10))
             .build();
@@ -64,6 +67,7 @@ public class YtDlpUpdater {
                 log.info("Updating yt-dlp: {} → {}", current, latest);
                 downloadBinary();
                 log.info("yt-dlp updated to {}", getCurrentVersion());
+                updateListeners.forEach(Runnable::run);
             } else {
                 log.info("yt-dlp is up to date");
             }
@@ -73,6 +77,11 @@ public class YtDlpUpdater {
         }
     }
 
+    /** Вызывается после замены бинарника — например, чтобы перезапустить воркеры yt-dlp */
+    public void onUpdated(Runnable listener) {
+        updateListeners.add(listener);
+    }
+
     /** Запускает проверку раз в 24 часа */
     public void scheduleDaily() {
         scheduler.scheduleAtFixedRate(
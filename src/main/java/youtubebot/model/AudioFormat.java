@@ -7,8 +7,10 @@ package youtubebot.model;
  * оба поддерживаются всеми современными устройствами. Конвертация lossy→lossy
  * только ухудшает качество и тратит CPU.
  *
- * Если оригинал не влезает в 50 MB — перекодируем в Opus с меньшим битрейтом.
+ * Если оригинал не влезает в лимит (50 MB у публичного Bot API) — перекодируем в Opus с меньшим битрейтом.
  * Opus при 48 kbps субъективно лучше MP3 при 128 kbps.
+ * Или режем оригинал на части без перекодирования (SPLIT) — для длинных
+ * подкастов это дешёвый remux вместо минут работы CPU.
  */
 public enum AudioFormat {
 
@@ -22,11 +24,14 @@ public enum AudioFormat {
     OPUS_64("Opus 64 kbps", "libopus", 64),
 
     /** Opus 48 kbps — максимальное сжатие, для очень длинных видео */
-    OPUS_48("Opus 48 kbps", "libopus", 48);
+    OPUS_48("Opus 48 kbps", "libopus", 48),
+
+    /** Оригинальный поток, нарезанный на части в лимит — несколько сообщений */
+    SPLIT("Оригинал частями", null, -1);
 
     private final String displayName;
-    private final String ffmpegCodec;   // null для ORIGINAL
-    private final int    bitrateKbps;   // -1 для ORIGINAL
+    private final String ffmpegCodec;   // null для ORIGINAL и SPLIT — без перекодирования
+    private final int    bitrateKbps;   // -1 для ORIGINAL и SPLIT
 
     AudioFormat(String displayName, String ffmpegCodec, int bitrateKbps) {
         this.displayName  = displayName;
@@ -38,23 +43,42 @@ public enum AudioFormat {
     public String ffmpegCodec()  { return ffmpegCodec; }
     public int    bitrateKbps()  { return bitrateKbps; }
     public boolean isOriginal()  { return this == ORIGINAL; }
+    public boolean isSplit()     { return this == SPLIT; }
+
+    /**
+     * Расширение файла: у оригинала — то, что отдал YouTube,
+     * у перекодированных — по контейнеру для кодека (Opus живёт в ogg).
+     */
+    public String fileExtension(VideoInfo info) {
+        if (isOriginal() || isSplit()) return info.audioFormat();
+        return "libopus".equals(ffmpegCodec) ? "ogg" : "mka";
+    }
+
+    /** Следующий, более сжатый одним файлом формат; null — этот уже самый сжатый */
+    public AudioFormat nextSmaller() {
+        AudioFormat[] all = values();
+        AudioFormat next = ordinal() + 1 < all.length ? all[ordinal() + 1] : null;
+        return next == null || next.isSplit() ? null : next;
+    }
 
     /**
      * Оценивает размер файла в байтах для данной длительности.
      * Для оригинала использует реальный битрейт из VideoInfo.
+     * Для SPLIT — суммарный размер всех частей.
      */
     public long estimateSizeBytes(long durationSeconds, int originalBitrateKbps) {
-        int kbps = isOriginal() ? originalBitrateKbps : bitrateKbps;
+        int kbps = ffmpegCodec == null ? originalBitrateKbps : bitrateKbps;
         return durationSeconds * kbps * 1000L / 8;
     }
 
     /**
      * Выбирает подходящий формат: сначала пробует оригинал,
      * потом последовательно более сжатые варианты.
-     * Возвращает null если ничто не вписывается в лимит.
+     * Возвращает null если одним файлом ничто не вписывается в лимит.
      */
     public static AudioFormat selectFor(VideoInfo info, long maxSizeBytes) {
         for (AudioFormat fmt : values()) {
+            if (fmt.isSplit()) continue;
             // Для оригинала используем реальный размер если известен
             long size = (fmt.isOriginal() && info.fileSizeBytes() > 0)
                     ? info.fileSizeBytes()
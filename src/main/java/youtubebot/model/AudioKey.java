@@ -0,0 +1,34 @@
+package youtubebot.model;
+
+/**
+ * Ключ готового аудиофайла: ID видео на YouTube + формат.
+ * Одно и то же видео в одном формате всегда даёт один и тот же файл.
+ */
+public record AudioKey(String videoId, AudioFormat format) {
+
+    private static final int VIDEO_ID_LENGTH = 11;
+
+    /** Имя файла без расширения, например "dQw4w9WgXcQ_OPUS_64" */
+    public String fileStem() {
+        return videoId + "_" + format.name();
+    }
+
+    /**
+     * Обратная операция к fileStem().
+     * Возвращает null если имя не похоже на ключ (чужой файл в директории).
+     */
+    public static AudioKey fromFileStem(String stem) {
+        if (stem.length() <= VIDEO_ID_LENGTH + 1 || stem.charAt(VIDEO_ID_LENGTH) != '_') return null;
+        try {
+            return new AudioKey(stem.substring(0, VIDEO_ID_LENGTH),
+                    AudioFormat.valueOf(stem.substring(VIDEO_ID_LENGTH + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return fileStem();
+    }
+}
@@ -0,0 +1,13 @@
+package youtubebot.model;
+
+import java.util.List;
+
+/**
+ * Плейлист из yt-dlp --flat-playlist: только ID и названия, без форматов.
+ * Метаданные каждого видео запрашиваются уже при его загрузке.
+ */
+public record Playlist(String title, List<Entry> entries) {
+
+    /** Видео плейлиста; durationSeconds = 0 если yt-dlp его не знает (приватное, удалённое) */
+    public record Entry(String videoId, String title, long durationSeconds) {}
+}
@@ -4,13 +4,20 @@ package youtubebot.model;
  * Состояние сессии пользователя между шагами диалога.
  *
  * Сессия живёт в памяти (SessionStore). При рестарте контейнера теряется —
- * это приемлемо: пользователь просто отправит ссылку повторно.
+ * это приемлемо: пользователь просто отправит ссылку повторно. Загрузка,
+ * формат которой уже выбран, не теряется — её хранит JobJournal.
  *
  * Record здесь не подходит — нам нужно менять поле selectedFormat
  * после того как пользователь выбрал качество.
  */
 public class UserSession {
 
+    /** Сессия живёт 30 минут с момента создания */
+    public static final long TTL_MILLIS = 30 * 60 * 1000L;
+
+    /** chatId задач веб-версии: чата нет, в Telegram о них ничего не пишется */
+    public static final long WEB_CHAT_ID = 0;
+
     public enum State {
         WAITING_FORMAT_SELECTION,  // показали метаданные, ждём выбора формата
         DOWNLOADING                // загрузка идёт
@@ -43,8 +50,13 @@ public class UserSession {
         this.state = State.DOWNLOADING;
     }
 
+    /** Выбранный формат не влез в лимит — пользователь выбирает заново */
+    public void rejectFormat() {
+        this.state = State.WAITING_FORMAT_SELECTION;
+    }
+
     /** Сессия устарела если висит больше 30 минут без действий */
     public boolean isExpired() {
-        return System.currentTimeMillis() - createdAt > 30 * 60 * 1000L;
+        return System.currentTimeMillis() - createdAt > TTL_MILLIS;
     }
 }
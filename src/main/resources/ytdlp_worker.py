@@ -0,0 +1,125 @@
+#!/usr/bin/env python3
+"""
+Долгоживущий процесс yt-dlp для YtDlpDaemonPool.
+
+Каждый запуск бинарника yt-dlp — это старт интерпретатора Python и импорт
+всех экстракторов (около секунды CPU). Этот скрипт импортирует yt-dlp один раз
+и дальше выполняет запросы по одному, общаясь с Java построчно JSON-ом:
+
+  запрос:  {"id": 7, "op": "probe" | "run" | "ping", "args": [...]}
+  ответ:   {"id": 7, "ok": true, "info": {...}}   — для probe
+           {"id": 7, "ok": true}                  — для run / ping
+           {"id": 7, "ok": false, "error": "ERROR: [youtube] ...: Private video"}
+
+Пока идёт run, перед ответом воркер присылает строки хода скачивания —
+по одной на каждый новый процент:
+
+           {"id": 7, "progress": 42}
+
+args — ровно те же аргументы командной строки, что и для бинарника (без URL
+ничего не работает, он последний). Первой строкой после старта воркер пишет
+{"ready": true, "version": "..."}.
+
+Запуск: python3 ytdlp_worker.py /app/bin/yt-dlp
+Бинарник yt-dlp с GitHub — это zipapp, его можно положить в sys.path и
+импортировать как обычный пакет.
+"""
+import json
+import os
+import sys
+
+# Поля аудио-форматов, которые нужны MetadataParser — остальное не передаём
+FORMAT_FIELDS = ("vcodec", "acodec", "abr", "ext", "filesize", "filesize_approx")
+
+
+def main():
+    sys.path.insert(0, sys.argv[1])
+
+    # stdout принадлежит протоколу. Всё, что печатают yt-dlp и ffmpeg,
+    # уходит в stderr — Java пишет его в debug-лог.
+    proto = os.fdopen(os.dup(1), "w", encoding="utf-8", buffering=1)
+    os.dup2(2, 1)
+    sys.stdout = sys.stderr
+
+    import yt_dlp
+    from yt_dlp import YoutubeDL, parse_options
+
+    send(proto, {"ready": True, "version": yt_dlp.version.__version__})
+
+    while True:
+        line = sys.stdin.readline()
+        if not line:
+            break
+        line = line.strip()
+        if not line:
+            continue
+
+        request = {}
+        try:
+            parsed = json.loads(line)
+            if not isinstance(parsed, dict):
+                raise ValueError("request is not a JSON object")
+            request = parsed
+            op = request.get("op")
+            if op == "ping":
+                response = {"ok": True}
+            elif op == "probe":
+                response = {"ok": True, "info": probe(YoutubeDL, parse_options, request["args"])}
+            elif op == "run":
+                run(YoutubeDL, parse_options, request["args"], progress_hook(proto, request.get("id")))
+                response = {"ok": True}
+            else:
+                response = {"ok": False, "error": "unknown op: %s" % op}
+        except BaseException as e:  # yt-dlp иногда завершает работу через SystemExit
+            response = {"ok": False, "error": str(e) or e.__class__.__name__}
+
+        response["id"] = request.get("id")
+        send(proto, response)
+
+
+def probe(YoutubeDL, parse_options, args):
+    parsed = parse_options(args)
+    opts = dict(parsed.ydl_opts)
+    opts.update(quiet=True, simulate=True, skip_download=True, forcejson=False)
+    with YoutubeDL(opts) as ydl:
+        info = ydl.sanitize_info(ydl.extract_info(parsed.urls[0], download=False))
+    return {
+        "title": info.get("title"),
+        "duration": info.get("duration"),
+        "formats": [{k: f.get(k) for k in FORMAT_FIELDS} for f in info.get("formats") or []],
+    }
+
+
+def run(YoutubeDL, parse_options, args, hook):
+    parsed = parse_options(args)
+    opts = dict(parsed.ydl_opts)
+    opts["progress_hooks"] = list(opts.get("progress_hooks") or []) + [hook]
+    with YoutubeDL(opts) as ydl:
+        code = ydl.download(parsed.urls)
+    if code:
+        raise RuntimeError("yt-dlp exited with code %d" % code)
+
+
+def progress_hook(proto, request_id):
+    last = [-1]
+
+    def hook(d):
+        total = d.get("total_bytes") or d.get("total_bytes_estimate")
+        done = d.get("downloaded_bytes")
+        if d.get("status") != "downloading" or not total or done is None:
+            return
+        percent = min(100, int(done * 100 / total))
+        if percent != last[0]:
+            last[0] = percent
+            send(proto, {"id": request_id, "progress": percent})
+
+    return hook
+
+
+def send(proto, message):
+    proto.write(json.dumps(message, ensure_ascii=False) + "\n")
+    proto.flush()
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,277 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Кэш на диске одного узла: публикация, Lease, вытеснение LRU, рестарт */
+class AudioCacheTest {
+
+    private static final AudioKey FIRST  = new AudioKey("aaaaaaaaaaa", AudioFormat.OPUS_64);
+    private static final AudioKey SECOND = new AudioKey("bbbbbbbbbbb", AudioFormat.OPUS_64);
+    private static final AudioKey THIRD  = new AudioKey("ccccccccccc", AudioFormat.OPUS_64);
+
+    @TempDir
+    Path tempDir;
+
+    /** Обычные потоки: их вытесняет ОС, и гонка возможна даже на одном ядре */
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Path cacheDir() {
+        return tempDir.resolve("cache");
+    }
+
+    private Path download(int bytes) throws Exception {
+        Path file = Files.createTempFile(tempDir, "tr_", ".opus");
+        Files.write(file, new byte[bytes]);
+        return file;
+    }
+
+    private long filesInCache() throws Exception {
+        try (var files = Files.list(cacheDir())) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void publishedFileIsServedFromTheCache() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1 << 20);
+        assertNull(cache.acquire(FIRST));
+
+        Path temp = download(1000);
+        try (var lease = cache.publish(FIRST, temp)) {
+            assertTrue(lease.isCached());
+            assertFalse(Files.exists(temp));
+            assertEquals(cacheDir().resolve(FIRST.fileStem() + ".opus"), lease.path());
+        }
+        // Закрытие Lease не удаляет файл кэша
+        try (var lease = cache.acquire(FIRST)) {
+            assertNotNull(lease);
+            assertEquals(1000, Files.size(lease.path()));
+        }
+        assertTrue(cache.contains(FIRST));
+        assertEquals(1000, cache.totalBytes());
+    }
+
+    @Test
+    void localCacheEvictsLeastRecentlyUsed() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1500);
+
+        Path first;
+        try (var lease = cache.publish(FIRST, download(1000))) {
+            first = lease.path();
+        }
+        try (var lease = cache.publish(SECOND, download(1000))) {
+            assertTrue(lease.isCached());
+        }
+        assertFalse(Files.exists(first));
+        assertNull(cache.acquire(FIRST));
+        assertEquals(1000, cache.totalBytes());
+    }
+
+    @Test
+    void accessMovesFileToTheEndOfTheQueue() throws Exception {
+        var cache = new AudioCache(cacheDir(), 2500);
+        cache.publish(FIRST, download(1000)).close();
+        Thread.sleep(20);
+        cache.publish(SECOND, download(1000)).close();
+        Thread.sleep(20);
+        // FIRST прочитали — давним стал SECOND
+        cache.acquire(FIRST).close();
+        Thread.sleep(20);
+
+        cache.publish(THIRD, download(1000)).close();
+        assertTrue(cache.contains(FIRST));
+        assertFalse(cache.contains(SECOND));
+        assertTrue(cache.contains(THIRD));
+    }
+
+    @Test
+    void openLeaseProtectsFileFromEviction() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1500);
+
+        try (var reading = cache.publish(FIRST, download(1000))) {
+            // Бюджет превышен, но FIRST ещё отправляется — кэш временно больше бюджета
+            cache.publish(SECOND, download(1000)).close();
+            assertTrue(Files.exists(reading.path()));
+            assertEquals(2000, cache.totalBytes());
+        }
+        // Следующая публикация вытесняет то, что уже можно
+        cache.publish(THIRD, download(1000)).close();
+        assertEquals(1000, cache.totalBytes());
+        assertTrue(cache.contains(THIRD));
+    }
+
+    @Test
+    void fileLargerThanBudgetStaysTemporary() throws Exception {
+        var cache = new AudioCache(cacheDir(), 500);
+
+        Path temp = download(1000);
+        try (var lease = cache.publish(FIRST, temp)) {
+            assertFalse(lease.isCached());
+            assertEquals(temp, lease.path());
+        }
+        assertFalse(Files.exists(temp));
+        assertEquals(0, cache.totalBytes());
+    }
+
+    @Test
+    void disabledCacheDeletesTheFileAfterUse() throws Exception {
+        var cache = new AudioCache(cacheDir(), 0);
+
+        Path temp = download(1000);
+        try (var lease = cache.publish(FIRST, temp)) {
+            assertFalse(lease.isCached());
+            assertTrue(Files.exists(temp));
+        }
+        assertFalse(Files.exists(temp));
+        assertNull(cache.acquire(FIRST));
+        assertFalse(Files.exists(cacheDir()));
+    }
+
+    @Test
+    void fileDeletedOutsideIsForgotten() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1 << 20);
+        Path cached;
+        try (var lease = cache.publish(FIRST, download(1000))) {
+            cached = lease.path();
+        }
+        Files.delete(cached);
+
+        assertNull(cache.acquire(FIRST));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.totalBytes());
+    }
+
+    @Test
+    void restartRescansTheDirectory() throws Exception {
+        var before = new AudioCache(cacheDir(), 1 << 20);
+        before.publish(FIRST, download(1000)).close();
+        before.publish(SECOND, download(700)).close();
+        // Обрывок публикации, прерванной падением процесса, и чужой файл
+        Files.write(cacheDir().resolve(".aaaaaaaaaaa_OPUS_64.opus123.part"), new byte[10]);
+        Files.write(cacheDir().resolve("notes.txt"), new byte[10]);
+
+        var after = new AudioCache(cacheDir(), 1 << 20);
+        assertEquals(2, after.size());
+        assertEquals(1700, after.totalBytes());
+        try (var lease = after.acquire(SECOND)) {
+            assertNotNull(lease);
+            assertEquals(700, Files.size(lease.path()));
+        }
+        assertEquals(2, filesInCache());
+    }
+
+    @Test
+    void secondPublishOfCachedKeyReturnsTheCachedFile() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1 << 20);
+        cache.publish(FIRST, download(1000)).close();
+
+        Path late = download(900);
+        try (var lease = cache.publish(FIRST, late)) {
+            assertTrue(lease.isCached());
+            assertEquals(1000, Files.size(lease.path()));
+        }
+        assertFalse(Files.exists(late));
+        assertEquals(1000, cache.totalBytes());
+        assertEquals(1, filesInCache());
+    }
+
+    @Test
+    void publishReplacesEntryWhoseFileWasDeleted() throws Exception {
+        var cache = new AudioCache(cacheDir(), 1 << 20);
+        Path cached;
+        try (var lease = cache.publish(FIRST, download(1000))) {
+            cached = lease.path();
+        }
+        Files.delete(cached);
+
+        // Старая запись забывается, новая публикация занимает её место
+        try (var lease = cache.publish(FIRST, download(900))) {
+            assertTrue(lease.isCached());
+            assertEquals(cached, lease.path());
+        }
+        assertEquals(900, cache.totalBytes());
+        try (var lease = cache.acquire(FIRST)) {
+            assertNotNull(lease);
+            assertEquals(900, Files.size(lease.path()));
+        }
+    }
+
+    @Test
+    void concurrentPublishAndAcquireAgreeOnOneFile() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            Path dir   = tempDir.resolve("race" + round);
+            var  cache = new AudioCache(dir, 1 << 20);
+            var  start = new CountDownLatch(1);
+            var  published = new CountDownLatch(8);
+            var  missing = new AtomicInteger();
+
+            List<Path> temps = new ArrayList<>();
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Path temp = download(1000 + i);
+                temps.add(temp);
+                // Несколько задач одновременно закончили одно и то же видео
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    try (var lease = cache.publish(FIRST, temp)) {
+                        if (!Files.exists(lease.path())) missing.incrementAndGet();
+                    } finally {
+                        published.countDown();
+                    }
+                    return null;
+                }));
+                // А другие в это время спрашивают его из кэша
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    while (published.getCount() > 0) {
+                        try (var lease = cache.acquire(FIRST)) {
+                            if (lease != null && !Files.exists(lease.path())) missing.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) task.get(10, TimeUnit.SECONDS);
+
+            // Lease ни разу не указал на отсутствующий файл, в кэше ровно одна копия,
+            // её размер и учтён; проигравшие копии удалены
+            assertEquals(0, missing.get());
+            try (var files = Files.list(dir)) {
+                assertEquals(1, files.count());
+            }
+            try (var lease = cache.acquire(FIRST)) {
+                assertNotNull(lease);
+                assertEquals(Files.size(lease.path()), cache.totalBytes());
+            }
+            assertEquals(1, cache.size());
+            for (Path temp : temps) assertFalse(Files.exists(temp), temp.toString());
+        }
+    }
+}
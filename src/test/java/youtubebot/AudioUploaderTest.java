@@ -0,0 +1,133 @@
+package youtubebot;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Собственный multipart sendAudio против локального HTTP-сервера */
+class AudioUploaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final AtomicReference<String> contentType = new AtomicReference<>();
+    private final AtomicReference<byte[]> body        = new AtomicReference<>();
+    private volatile int    responseStatus = 200;
+    private volatile String responseBody   = "";
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/botTOKEN/sendAudio", exchange -> {
+            contentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+            body.set(exchange.getRequestBody().readAllBytes());
+            byte[] answer = responseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(responseStatus, answer.length);
+            try (var out = exchange.getResponseBody()) {
+                out.write(answer);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private AudioUploader uploader() {
+        return new AudioUploader("http://127.0.0.1:" + server.getAddress().getPort(), "TOKEN");
+    }
+
+    private Path audio(int bytes) throws IOException {
+        byte[] data = new byte[bytes];
+        for (int i = 0; i < bytes; i++) data[i] = (byte) i;
+        return Files.write(tempDir.resolve("track.opus"), data);
+    }
+
+    @Test
+    void sendsFieldsAndFileAsMultipart() throws Exception {
+        responseBody = """
+                {"ok":true,"result":{"message_id":1,"audio":{"file_id":"AUDIO_ID"}}}""";
+        Path file = audio(70_000);
+
+        var uploaded = uploader().sendAudio(42, file, "Название", "подпись", null);
+
+        assertEquals("AUDIO_ID", uploaded.fileId());
+        assertFalse(uploaded.asDocument());
+
+        String boundary = contentType.get().substring(contentType.get().indexOf("boundary=") + 9);
+        assertTrue(contentType.get().startsWith("multipart/form-data"));
+        String text = new String(body.get(), StandardCharsets.ISO_8859_1);
+        assertTrue(text.startsWith("--" + boundary + "\r\n"));
+        assertTrue(text.endsWith("\r\n--" + boundary + "--\r\n"));
+        assertTrue(text.contains("name=\"chat_id\"\r\nContent-Type: text/plain; charset=UTF-8\r\n\r\n42\r\n"));
+        assertFalse(text.contains("name=\"performer\""));
+        String utf8 = new String(body.get(), StandardCharsets.UTF_8);
+        assertTrue(utf8.contains("\r\n\r\nНазвание\r\n"));
+
+        // Файл в теле целиком и без искажений
+        String fileHeader = "name=\"audio\"; filename=\"track.opus\"\r\nContent-Type: application/octet-stream\r\n\r\n";
+        int start = text.indexOf(fileHeader) + fileHeader.length();
+        int end   = text.length() - ("\r\n--" + boundary + "--\r\n").length();
+        assertEquals(70_000, end - start);
+        byte[] sent = Arrays.copyOfRange(body.get(), start, end);
+        assertArrayEquals(Files.readAllBytes(file), sent);
+    }
+
+    @Test
+    void documentReplyIsRecognised() throws Exception {
+        responseBody = """
+                {"ok":true,"result":{"message_id":1,"document":{"file_id":"DOC_ID"}}}""";
+
+        var uploaded = uploader().sendAudio(42, audio(10), null, null, null);
+
+        assertEquals("DOC_ID", uploaded.fileId());
+        assertTrue(uploaded.asDocument());
+    }
+
+    @Test
+    void tooManyRequestsBecomesRateLimited() throws Exception {
+        responseStatus = 429;
+        responseBody   = """
+                {"ok":false,"error_code":429,"description":"Too Many Requests: retry after 7","parameters":{"retry_after":7}}""";
+
+        var e = assertThrows(AudioUploader.RateLimitedException.class,
+                () -> uploader().sendAudio(42, audio(10), null, null, null));
+        assertEquals(7, e.retryAfterSeconds());
+        assertEquals(7, OutboundQueue.retryAfterSeconds(e));
+    }
+
+    @Test
+    void otherErrorsCarryTheDescription() throws Exception {
+        responseStatus = 400;
+        responseBody   = """
+                {"ok":false,"error_code":400,"description":"Bad Request: chat not found"}""";
+
+        var e = assertThrows(IOException.class, () -> uploader().sendAudio(42, audio(10), null, null, null));
+        assertFalse(e instanceof AudioUploader.RateLimitedException);
+        assertEquals("Telegram API error 400: Bad Request: chat not found", e.getMessage());
+
+        responseBody = "{\"ok\":false}";
+        e = assertThrows(IOException.class, () -> uploader().sendAudio(42, audio(10), null, null, null));
+        assertEquals("Telegram API error 400: no description", e.getMessage());
+    }
+}
@@ -0,0 +1,156 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Списки видео через DownloadWorker с поддельным yt-dlp (src/test/resources/fake-ytdlp.py) */
+class BatchJobTest {
+
+    private static final long CHAT  = 100;
+    private static final long OTHER = 200;
+
+    @TempDir
+    Path tempDir;
+
+    private RecordingTelegram telegram;
+    private JobJournal        journal;
+    private YtDlpDaemonPool   ytDlp;
+    private DownloadWorker    worker;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (worker != null) worker.shutdown();
+        if (ytDlp != null) ytDlp.shutdown();
+        if (journal != null) journal.close();
+        if (telegram != null) telegram.shutdown();
+    }
+
+    private Path ytDlpLog() {
+        return tempDir.resolve("yt-dlp.log");
+    }
+
+    /** Окно в 3 видео (TestConfig), одно место загрузки */
+    private void start(Map<String, String> env) throws Exception {
+        var fakeEnv = new HashMap<>(env);
+        fakeEnv.put("FAKE_YTDLP_LOG", ytDlpLog().toString());
+        AppConfig config = new TestConfig(tempDir).fakeYtDlp(fakeEnv).build();
+        telegram = new RecordingTelegram(config);
+        journal  = new JobJournal(tempDir.resolve("jobs.journal"));
+        ytDlp    = new YtDlpDaemonPool(config);
+        worker   = new DownloadWorker(config, telegram,
+                new AudioCache(tempDir.resolve("cache"), 0),
+                new FileIdIndex(tempDir.resolve("file_ids.txt")),
+                ytDlp, new Metrics(), journal, null);
+    }
+
+    private static List<String> links(String... ids) {
+        return Arrays.stream(ids).map(id -> "https://www.youtube.com/watch?v=" + id).toList();
+    }
+
+    private List<String> delivered(long chatId) {
+        return telegram.audio.stream().filter(a -> a.chatId() == chatId).map(RecordingTelegram.Sent::text).toList();
+    }
+
+    private void awaitFinished(long chatId) throws InterruptedException {
+        waitFor(() -> telegram.messagesTo(chatId).stream().anyMatch(m -> m.startsWith("✅ Готово")));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(20);
+        }
+    }
+
+    /** Наибольшее число видео, которые готовились одновременно: от начала метаданных до конца загрузки */
+    private int maxInProgress() throws Exception {
+        var active = new HashSet<String>();
+        int max = 0;
+        for (String line : Files.readAllLines(ytDlpLog())) {
+            String[] parts = line.split(" ");
+            if (parts[0].equals("metadata") && parts[1].equals("start")) active.add(parts[2]);
+            if (parts[0].equals("download") && parts[1].equals("end"))   active.remove(parts[2]);
+            max = Math.max(max, active.size());
+        }
+        return max;
+    }
+
+    private int logIndex(String line) throws Exception {
+        return Files.readAllLines(ytDlpLog()).indexOf(line);
+    }
+
+    @Test
+    void videosAreSentInListOrderWithinTheWindow() throws Exception {
+        // Первое видео долго отдаёт метаданные — следующие готовы раньше него
+        start(Map.of("FAKE_YTDLP_SLOW_URL", "aaaaaaaaaa1", "FAKE_YTDLP_SLOW_SECONDS", "1.5"));
+        var ids = List.of("aaaaaaaaaa1", "aaaaaaaaaa2", "aaaaaaaaaa3", "aaaaaaaaaa4", "aaaaaaaaaa5");
+
+        worker.startBatch(CHAT, links(ids.toArray(String[]::new)));
+        awaitFinished(CHAT);
+
+        assertEquals(ids.stream().map(id -> "Video " + id).toList(), delivered(CHAT));
+        assertTrue(logIndex("download end aaaaaaaaaa2") < logIndex("download end aaaaaaaaaa1"),
+                "second video should be ready before the first");
+        // Четвёртое ждёт, пока в окне не освободится место — после отправки первого
+        assertTrue(logIndex("metadata start aaaaaaaaaa4") > logIndex("download end aaaaaaaaaa1"));
+        assertTrue(maxInProgress() <= 3, "window exceeded: " + maxInProgress());
+        assertTrue(telegram.messagesTo(CHAT).contains("✅ Готово: 5 из 5."));
+        assertTrue(journal.unfinished().isEmpty());
+    }
+
+    @Test
+    void chatRunsOneBatchAtATime() throws Exception {
+        start(Map.of("FAKE_YTDLP_SLOW_URL", "bbbbbbbbbb1"));
+
+        worker.startBatch(CHAT, links("bbbbbbbbbb1", "bbbbbbbbbb2"));
+        worker.startBatch(CHAT, links("cccccccccc1", "cccccccccc2"));
+        worker.startBatch(OTHER, links("dddddddddd1", "dddddddddd2"));
+
+        assertTrue(telegram.messagesTo(CHAT).contains("Дождитесь окончания предыдущего списка."));
+        awaitFinished(CHAT);
+        awaitFinished(OTHER);
+        assertFalse(telegram.messagesTo(OTHER).contains("Дождитесь окончания предыдущего списка."));
+        assertEquals(List.of("Video dddddddddd1", "Video dddddddddd2"), delivered(OTHER));
+
+        // Первый список закончился — можно следующий (чат освобождается сразу после итогового сообщения)
+        waitFor(() -> {
+            telegram.messages.clear();
+            worker.startBatch(CHAT, links("cccccccccc1", "cccccccccc2"));
+            return !telegram.messagesTo(CHAT).contains("Дождитесь окончания предыдущего списка.");
+        });
+        awaitFinished(CHAT);
+        assertEquals(List.of("Video bbbbbbbbbb1", "Video bbbbbbbbbb2", "Video cccccccccc1", "Video cccccccccc2"),
+                delivered(CHAT));
+    }
+
+    @Test
+    void failedVideoInTheMiddleDoesNotStopTheList() throws Exception {
+        start(Map.of("FAKE_YTDLP_FAIL_URL", "eeeeeeeeee2"));
+
+        worker.startBatch(CHAT, links("eeeeeeeeee1", "eeeeeeeeee2", "eeeeeeeeee3"));
+        awaitFinished(CHAT);
+
+        assertEquals(List.of("Video eeeeeeeeee1", "Video eeeeeeeeee3"), delivered(CHAT));
+        String summary = telegram.messagesTo(CHAT).stream()
+                .filter(m -> m.startsWith("✅ Готово")).findFirst().orElseThrow();
+        assertTrue(summary.startsWith("✅ Готово: 2 из 3."), summary);
+        assertTrue(summary.contains("eeeeeeeeee2 — Видео является приватным"), summary);
+        assertTrue(journal.unfinished().isEmpty());
+    }
+}
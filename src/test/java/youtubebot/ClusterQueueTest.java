@@ -0,0 +1,172 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+import youtubebot.model.UserSession;
+import youtubebot.model.VideoInfo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Два узла на одной общей директории */
+class ClusterQueueTest {
+
+    private static final VideoInfo INFO = new VideoInfo("Test video", 213, "webm", "opus", 128, 3_000_000);
+
+    @TempDir
+    Path shared;
+
+    private final List<ClusterQueue> nodes = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        nodes.forEach(ClusterQueue::close);
+    }
+
+    private ClusterQueue node(String id, int leaseSeconds) throws Exception {
+        var node = new ClusterQueue(shared, id, leaseSeconds);
+        nodes.add(node);
+        return node;
+    }
+
+    private static UserSession session(long chatId) {
+        var session = new UserSession(chatId, "https://www.youtube.com/watch?v=dQw4w9WgXcQ", INFO);
+        session.selectFormat(AudioFormat.OPUS_64);
+        return session;
+    }
+
+    private static AudioKey key() {
+        return new AudioKey("dQw4w9WgXcQ", AudioFormat.OPUS_64);
+    }
+
+    /** Запоминает задачи и держит их, не завершая; capacity — сколько задач узел берёт */
+    private static final class HoldingRunner implements ClusterQueue.Runner {
+        final int capacity;
+        final List<Long> chats = new CopyOnWriteArrayList<>();
+        final List<ClusterQueue.Claim> claims = new CopyOnWriteArrayList<>();
+
+        HoldingRunner(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean hasCapacity() {
+            return claims.size() < capacity;
+        }
+
+        @Override
+        public void run(UserSession session, ClusterQueue.Claim claim) {
+            chats.add(session.chatId());
+            claims.add(claim);
+        }
+    }
+
+    @Test
+    void eachJobIsClaimedByExactlyOneNode() throws Exception {
+        var a = node("node-a", 30);
+        var b = node("node-b", 30);
+        var onA = new HoldingRunner(3);
+        var onB = new HoldingRunner(100);
+        a.start(onA);
+        b.start(onB);
+
+        for (long chat = 1; chat <= 10; chat++) assertTrue(a.enqueue(session(chat), key()));
+        // Та же задача того же чата второй раз не встаёт
+        assertFalse(b.enqueue(session(1), key()));
+
+        waitFor(() -> onA.chats.size() + onB.chats.size() == 10, 10);
+        Thread.sleep(1000);
+
+        var all = new ArrayList<Long>(onA.chats);
+        all.addAll(onB.chats);
+        assertEquals(10, all.size());
+        assertEquals(10, all.stream().distinct().count());
+        // Источник берёт сколько может, остальное после AFFINITY_MILLIS достаётся соседу
+        assertEquals(3, onA.chats.size());
+        assertEquals(0, a.pendingJobs());
+        assertEquals(3, a.claimedJobs());
+        assertEquals(7, b.claimedJobs());
+    }
+
+    @Test
+    void expiredLeaseOfDeadNodeIsRequeued() throws Exception {
+        // Узел dead захватил задачу и пропал: аренда не продлевалась дольше срока
+        Path running = shared.resolve("queue").resolve("running");
+        Files.createDirectories(running);
+        Path orphan = running.resolve("42_" + key().fileStem() + "@dead.job");
+        Files.write(orphan, JobJournal.encodeSession(session(42)));
+        Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 10_000));
+
+        var survivor = node("node-a", 1);
+        var runner = new HoldingRunner(10);
+        survivor.start(runner);
+
+        waitFor(() -> runner.chats.contains(42L), 10);
+        assertFalse(Files.exists(orphan));
+        assertEquals(1, survivor.claimedJobs());
+    }
+
+    @Test
+    void liveLeaseIsNotTakenOver() throws Exception {
+        var owner = node("node-a", 1);
+        var ownerRunner = new HoldingRunner(10);
+        owner.start(ownerRunner);
+        assertTrue(owner.enqueue(session(7), key()));
+        waitFor(() -> ownerRunner.chats.size() == 1, 10);
+
+        var other = node("node-b", 1);
+        var otherRunner = new HoldingRunner(10);
+        other.start(otherRunner);
+        // Владелец продлевает аренду — за несколько сроков её никто не отнимает
+        Thread.sleep(3000);
+        assertEquals(List.of(), otherRunner.chats);
+        assertEquals(1, owner.claimedJobs());
+    }
+
+    @Test
+    void closeHandsUnfinishedJobsToAnotherNode() throws Exception {
+        var leaving = node("node-a", 30);
+        var leavingRunner = new HoldingRunner(10);
+        leaving.start(leavingRunner);
+        assertTrue(leaving.enqueue(session(5), key()));
+        waitFor(() -> leavingRunner.chats.size() == 1, 10);
+
+        leaving.close();
+        nodes.remove(leaving);
+        assertEquals(1, leaving.pendingJobs());
+
+        var other = node("node-b", 30);
+        var otherRunner = new HoldingRunner(10);
+        other.start(otherRunner);
+        waitFor(() -> otherRunner.chats.contains(5L), 10);
+
+        // Завершённая задача исчезает из общей директории
+        otherRunner.claims.getFirst().complete();
+        assertEquals(0, other.claimedJobs());
+        assertEquals(0, other.pendingJobs());
+        try (var files = Files.list(shared.resolve("queue").resolve("running"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static void waitFor(BooleanSupplier check, int seconds) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (!check.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("condition not met in " + seconds + " s");
+            Thread.sleep(50);
+        }
+    }
+}
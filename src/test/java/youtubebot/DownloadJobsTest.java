@@ -0,0 +1,142 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Реестр загрузок: подтверждение и отмена спекулятивных задач */
+class DownloadJobsTest {
+
+    private static final AudioKey KEY   = new AudioKey("aaaaaaaaaaa", AudioFormat.ORIGINAL);
+    private static final long     LIMIT = 50L * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final DownloadJobs    jobs     = new DownloadJobs(executor);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Producer, который ждёт release и отдаёт временный файл (кэш выключен) */
+    private DownloadJobs.Producer blocking(CountDownLatch started, CountDownLatch release, AtomicInteger runs) {
+        var cache = new AudioCache(tempDir.resolve("cache"), 0);
+        return progress -> {
+            runs.incrementAndGet();
+            started.countDown();
+            if (!release.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("not released");
+            Path file = Files.createTempFile(tempDir, "dl_", ".webm");
+            Files.write(file, new byte[100]);
+            return cache.publish(KEY, file);
+        };
+    }
+
+    @Test
+    void subscribingDuringPrefetchConfirmsTheJob() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var runs    = new AtomicInteger();
+        var token   = new CancelToken();
+
+        assertTrue(jobs.prefetch(KEY, token, blocking(started, release, runs)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try (var sub = jobs.subscribe(KEY, LIMIT, progress -> { throw new AssertionError("second producer"); })) {
+            assertTrue(sub.joined());
+
+            // Задачу уже ждут — ни нехватка места, ни истёкшая сессия её не отменяют
+            assertFalse(jobs.cancelAnySpeculative());
+            jobs.cancelSpeculative(KEY);
+            assertFalse(token.isCancelled());
+
+            release.countDown();
+            assertEquals(100, Files.size(sub.await()));
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void cancelAfterConfirmIsIgnored() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var token   = new CancelToken();
+
+        jobs.prefetch(KEY, token, blocking(started, release, new AtomicInteger()));
+        // Вторая сессия того же видео — producer не запускается
+        assertFalse(jobs.prefetch(KEY, new CancelToken(), progress -> { throw new AssertionError(); }));
+
+        try (var sub = jobs.subscribe(KEY, LIMIT, progress -> { throw new AssertionError("second producer"); })) {
+            jobs.cancelSpeculative(KEY);
+            jobs.cancelSpeculative(KEY);
+            assertFalse(token.isCancelled());
+            assertTrue(jobs.isRunning(KEY));
+
+            release.countDown();
+            assertTrue(Files.exists(sub.await()));
+        }
+    }
+
+    @Test
+    void unwantedPrefetchIsCancelledAndNextSubscriberStartsAfresh() throws Exception {
+        var started = new CountDownLatch(1);
+        var token   = new CancelToken();
+
+        jobs.prefetch(KEY, token, blocking(started, new CountDownLatch(1), new AtomicInteger()));
+        assertTrue(jobs.cancelAnySpeculative());
+        assertTrue(token.isCancelled());
+        assertFalse(jobs.isRunning(KEY));
+
+        var release = new CountDownLatch(1);
+        var runs    = new AtomicInteger();
+        try (var sub = jobs.subscribe(KEY, LIMIT, blocking(new CountDownLatch(1), release, runs))) {
+            assertFalse(sub.joined());
+            release.countDown();
+            assertTrue(Files.exists(sub.await()));
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void fileCutAtTheLimitIsNotSharedWithThoseWhoNeedItWhole() throws Exception {
+        var limitedStarted = new CountDownLatch(1);
+        var limitedRelease = new CountDownLatch(1);
+        var fullRelease    = new CountDownLatch(1);
+        var limitedRuns    = new AtomicInteger();
+        var fullRuns       = new AtomicInteger();
+
+        try (var limited = jobs.subscribe(KEY, LIMIT, blocking(limitedStarted, limitedRelease, limitedRuns))) {
+            assertTrue(limitedStarted.await(5, TimeUnit.SECONDS));
+            // Веб-версии или перекодированию нужен весь файл — своя задача
+            try (var full = jobs.subscribe(KEY, 0, blocking(new CountDownLatch(1), fullRelease, fullRuns))) {
+                assertFalse(full.joined());
+                // А отправке в Telegram годится и полный файл
+                try (var another = jobs.subscribe(KEY, LIMIT, progress -> { throw new AssertionError(); })) {
+                    assertTrue(another.joined());
+                }
+                limitedRelease.countDown();
+                fullRelease.countDown();
+                assertTrue(Files.exists(limited.await()));
+                assertTrue(Files.exists(full.await()));
+            }
+        }
+        assertEquals(1, limitedRuns.get());
+        assertEquals(1, fullRuns.get());
+    }
+}
@@ -0,0 +1,56 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Расчёт частей SPLIT: сколько обещает кнопка и какой длины режет ffmpeg */
+class DownloadWorkerTest {
+
+    private static final long   LIMIT = 50L * 1024 * 1024;
+    /** Часть заполняет лимит на 90% — SPLIT_FILL */
+    private static final long   PART  = (long) (LIMIT * 0.9);
+
+    @Test
+    void partsAtTheFillBoundary() {
+        assertEquals(2, DownloadWorker.estimateParts(2 * PART, LIMIT));
+        assertEquals(3, DownloadWorker.estimateParts(2 * PART + 1, LIMIT));
+        assertEquals(3, DownloadWorker.estimateParts(3 * PART, LIMIT));
+        assertEquals(4, DownloadWorker.estimateParts(3 * PART + 1, LIMIT));
+    }
+
+    @Test
+    void atLeastTwoParts() {
+        // SPLIT предлагается для файлов больше лимита, но и у чуть большего файла частей две
+        assertEquals(2, DownloadWorker.estimateParts(LIMIT + 1, LIMIT));
+        assertEquals(2, DownloadWorker.estimateParts(1, LIMIT));
+    }
+
+    @Test
+    void segmentsNeverOutnumberTheEstimate() {
+        for (long duration : new long[] {59, 100, 213, 3_599, 3_600, 36_001}) {
+            for (long size = LIMIT + 1; size < 20 * LIMIT; size += LIMIT / 7) {
+                int  parts   = DownloadWorker.estimateParts(size, LIMIT);
+                long segment = DownloadWorker.segmentSeconds(size, duration, LIMIT, 0.9);
+                long actual  = (duration + segment - 1) / segment;
+                assertTrue(actual <= parts, "duration %d, size %d: %d > %d".formatted(duration, size, actual, parts));
+                // При ровном битрейте часть влезает в лимит, если запас в 10% больше секунды
+                // звука; на совсем коротких частях это доделывает повторная нарезка
+                if (duration / parts < 10) continue;
+                assertTrue(size * segment / duration <= LIMIT,
+                        "duration %d, size %d: segment %ds too long".formatted(duration, size, segment));
+            }
+        }
+    }
+
+    @Test
+    void segmentLengthAtTheBoundary() {
+        // 100 секунд ровно на три части: округление вниз дало бы 33 с и четвёртую часть в 1 с
+        assertEquals(34, DownloadWorker.segmentSeconds(3 * PART, 100, LIMIT, 0.9));
+        assertEquals(25, DownloadWorker.segmentSeconds(3 * PART + 1, 100, LIMIT, 0.9));
+        // Повторная нарезка с меньшим заполнением — частей больше, каждая короче
+        assertEquals(20, DownloadWorker.segmentSeconds(3 * PART, 100, LIMIT, 0.6));
+        assertEquals(1, DownloadWorker.segmentSeconds(100 * LIMIT, 10, LIMIT, 0.9));
+    }
+}
@@ -0,0 +1,173 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.UserSession;
+import youtubebot.model.VideoInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Восстановление журнала задач после падения: оборванная и испорченная запись, checkpoint */
+class JobJournalTest {
+
+    private static final VideoInfo INFO = new VideoInfo("Test video", 213, "webm", "opus", 128, 3_000_000);
+    private static final int HEADER_BYTES = 8;
+
+    @TempDir
+    Path tempDir;
+
+    private static UserSession session(long chatId) {
+        var session = new UserSession(chatId, "https://www.youtube.com/watch?v=dQw4w9WgXcQ", INFO);
+        session.selectFormat(AudioFormat.OPUS_64);
+        return session;
+    }
+
+    /**
+     * Пишет в журнал через action и снимает копию файла, не закрывая журнал, —
+     * так файл выглядит после падения процесса: без финального checkpoint.
+     */
+    private Path crashAfter(JournalAction action) throws Exception {
+        Path crashed = tempDir.resolve("crashed.bin");
+        try (var journal = new JobJournal(tempDir.resolve("jobs.journal"))) {
+            action.run(journal);
+            Files.copy(tempDir.resolve("jobs.journal"), crashed);
+        }
+        return crashed;
+    }
+
+    @FunctionalInterface
+    private interface JournalAction {
+        void run(JobJournal journal) throws Exception;
+    }
+
+    /** Что восстановится из файла: jobId → состояние */
+    private static Map<Long, JobJournal.State> replay(Path file) throws Exception {
+        try (var journal = new JobJournal(file)) {
+            return journal.unfinished().stream()
+                    .collect(Collectors.toMap(JobJournal.Pending::jobId, JobJournal.Pending::state));
+        }
+    }
+
+    /** Начала записей [длина][CRC][тело] до первой пустой */
+    private static List<Integer> records(Path file) throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        var starts = new ArrayList<Integer>();
+        while (in.remaining() >= HEADER_BYTES) {
+            int start  = in.position();
+            int length = in.getInt(start);
+            if (length <= 0) break;
+            starts.add(start);
+            in.position(start + HEADER_BYTES + length);
+        }
+        return starts;
+    }
+
+    private static int lengthAt(Path file, int start) throws Exception {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, start);
+            return length.flip().getInt();
+        }
+    }
+
+    private static void flipByte(Path file, long position) throws Exception {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            one.put(0, (byte) (one.get(0) ^ 0x5A));
+            channel.write(one.rewind(), position);
+        }
+    }
+
+    @Test
+    void unfinishedJobsSurviveCrash() throws Exception {
+        Path crashed = crashAfter(journal -> {
+            long first  = journal.queued(session(1));
+            long second = journal.queued(session(2));
+            journal.queued(session(3));
+            journal.transition(first, JobJournal.State.DONE);
+            journal.transition(second, JobJournal.State.UPLOADING);
+        });
+
+        assertEquals(Map.of(2L, JobJournal.State.UPLOADING, 3L, JobJournal.State.QUEUED), replay(crashed));
+        try (var journal = new JobJournal(crashed)) {
+            var restored = journal.unfinished().stream()
+                    .collect(Collectors.toMap(JobJournal.Pending::jobId, Function.identity()));
+            assertEquals(2, restored.get(2L).session().chatId());
+            assertEquals(AudioFormat.OPUS_64, restored.get(2L).session().selectedFormat());
+            // Новые ID не пересекаются с восстановленными
+            assertEquals(4, journal.queued(session(4)));
+        }
+    }
+
+    @Test
+    void recordTruncatedPartwayIsIgnored() throws Exception {
+        Path crashed = crashAfter(journal -> {
+            journal.queued(session(1));
+            journal.queued(session(2));
+            journal.queued(session(3));
+        });
+        List<Integer> starts = records(crashed);
+        assertEquals(3, starts.size());
+
+        // Процесс упал посреди записи: тело третьей задачи дописано наполовину
+        int last = starts.getLast();
+        try (var channel = FileChannel.open(crashed, StandardOpenOption.WRITE)) {
+            channel.truncate(last + HEADER_BYTES + lengthAt(crashed, last) / 2);
+        }
+
+        assertEquals(Map.of(1L, JobJournal.State.QUEUED, 2L, JobJournal.State.QUEUED), replay(crashed));
+    }
+
+    @Test
+    void corruptedRecordStopsReplayAtLastGoodOne() throws Exception {
+        Path crashed = crashAfter(journal -> {
+            long first = journal.queued(session(1));
+            journal.queued(session(2));
+            journal.transition(first, JobJournal.State.DOWNLOADING);
+            journal.transition(first, JobJournal.State.TRANSCODING);
+        });
+        List<Integer> starts = records(crashed);
+        assertEquals(4, starts.size());
+
+        // Байт внутри тела третьей записи: CRC не сойдётся, и четвёртой уже не верим
+        flipByte(crashed, starts.get(2) + HEADER_BYTES + 3);
+
+        assertEquals(Map.of(1L, JobJournal.State.QUEUED, 2L, JobJournal.State.QUEUED), replay(crashed));
+    }
+
+    @Test
+    void checkpointKeepsOnlyUnfinishedJobs() throws Exception {
+        Path journalFile = tempDir.resolve("jobs.journal");
+        try (var journal = new JobJournal(journalFile)) {
+            for (long chat = 1; chat <= 5; chat++) {
+                long jobId = journal.queued(session(chat));
+                journal.transition(jobId, JobJournal.State.DOWNLOADING);
+                if (chat % 2 == 1) journal.transition(jobId, JobJournal.State.DONE);
+            }
+            assertEquals(13, records(journalFile).size());
+
+            journal.checkpoint();
+            // Задачи 2 и 4: по QUEUED и текущему состоянию, ни одной записи о готовых
+            assertEquals(4, records(journalFile).size());
+            assertEquals(2, journal.pending());
+        }
+
+        assertEquals(Map.of(2L, JobJournal.State.DOWNLOADING, 4L, JobJournal.State.DOWNLOADING),
+                replay(journalFile));
+        assertTrue(Files.notExists(tempDir.resolve("jobs.journal.tmp")));
+    }
+}
@@ -0,0 +1,162 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import youtubebot.model.VideoInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Кэш метаданных: одна загрузка на видео, срок жизни, вытеснение */
+class MetadataCacheTest {
+
+    private static final long TTL = 60_000;
+
+    private final AtomicLong      now      = new AtomicLong(1_000_000);
+    private final MetadataCache   cache    = new MetadataCache(TTL, 2, now::get);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static VideoInfo info(String title) {
+        return new VideoInfo(title, 213, "webm", "opus", 135, 3_000_000);
+    }
+
+    /** Loader, который считает вызовы и отдаёт info(videoId) */
+    private static MetadataCache.Loader counting(String videoId, AtomicInteger loads) {
+        return () -> {
+            loads.incrementAndGet();
+            return info(videoId);
+        };
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void concurrentRequestsShareOneLoad() throws Exception {
+        var loads   = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        MetadataCache.Loader slow = () -> {
+            loads.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return info("slow");
+        };
+
+        var results = new ArrayList<Future<VideoInfo>>();
+        for (int i = 0; i < 10; i++) results.add(executor.submit(() -> cache.get("aaaaaaaaaaa", slow)));
+        waitFor(() -> cache.coalesced() == 9);
+        release.countDown();
+
+        VideoInfo first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<VideoInfo> result : results) assertSame(first, result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.misses());
+
+        // Дальше — из кэша
+        assertSame(first, cache.get("aaaaaaaaaaa", () -> fail("cached")));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void failureIsSharedButNotCached() throws Exception {
+        var release = new CountDownLatch(1);
+        MetadataCache.Loader failing = () -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("Private video");
+        };
+
+        List<Future<VideoInfo>> results = List.of(
+                executor.submit(() -> cache.get("aaaaaaaaaaa", failing)),
+                executor.submit(() -> cache.get("aaaaaaaaaaa", failing)));
+        waitFor(() -> cache.coalesced() == 1);
+        release.countDown();
+        for (Future<VideoInfo> result : results) {
+            var e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+
+        var loads = new AtomicInteger();
+        assertEquals("aaaaaaaaaaa", cache.get("aaaaaaaaaaa", counting("aaaaaaaaaaa", loads)).title());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void errorInLoaderDoesNotHangWaiters() throws Exception {
+        var release = new CountDownLatch(1);
+        MetadataCache.Loader broken = () -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new AssertionError("bug");
+        };
+
+        var owner  = executor.submit(() -> cache.get("aaaaaaaaaaa", broken));
+        waitFor(() -> cache.misses() == 1);
+        var waiter = executor.submit(() -> cache.get("aaaaaaaaaaa", broken));
+        waitFor(() -> cache.coalesced() == 1);
+        release.countDown();
+
+        assertInstanceOf(AssertionError.class,
+                assertThrows(ExecutionException.class, () -> owner.get(5, TimeUnit.SECONDS)).getCause());
+        // Ждущий не висит: получает ту же ошибку, обёрнутую в ExecutionException
+        assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void entryExpiresAfterTtl() throws Exception {
+        var loads = new AtomicInteger();
+        cache.get("aaaaaaaaaaa", counting("aaaaaaaaaaa", loads));
+
+        now.addAndGet(TTL);
+        cache.get("aaaaaaaaaaa", counting("aaaaaaaaaaa", loads));
+        assertEquals(1, loads.get());
+
+        now.addAndGet(1);
+        cache.get("aaaaaaaaaaa", counting("aaaaaaaaaaa", loads));
+        assertEquals(2, loads.get());
+
+        // Новая загрузка — новый срок
+        now.addAndGet(TTL);
+        cache.get("aaaaaaaaaaa", counting("aaaaaaaaaaa", loads));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws Exception {
+        var loads = new AtomicInteger();
+        cache.get("aaaaaaaaaa1", counting("aaaaaaaaaa1", loads));
+        cache.get("aaaaaaaaaa2", counting("aaaaaaaaaa2", loads));
+        // Обращение к первому делает давним второй
+        cache.get("aaaaaaaaaa1", counting("aaaaaaaaaa1", loads));
+        cache.get("aaaaaaaaaa3", counting("aaaaaaaaaa3", loads));
+        assertEquals(3, loads.get());
+        assertEquals(2, cache.size());
+
+        cache.get("aaaaaaaaaa1", counting("aaaaaaaaaa1", loads));
+        assertEquals(3, loads.get());
+        cache.get("aaaaaaaaaa2", counting("aaaaaaaaaa2", loads));
+        assertEquals(4, loads.get());
+    }
+}
@@ -0,0 +1,97 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+import youtubebot.model.Playlist;
+import youtubebot.model.VideoInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Потоковый разбор yt-dlp --dump-json на фикстурах бенчмарков (src/jmh/resources/fixtures) */
+class MetadataParserTest {
+
+    private static InputStream fixture(String name) {
+        InputStream in = MetadataParserTest.class.getResourceAsStream("/fixtures/" + name);
+        assertNotNull(in, "fixture not found: " + name);
+        return in;
+    }
+
+    private static InputStream json(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void realDumpJsonPicksBestAudioOnlyFormat() throws IOException {
+        try (InputStream in = fixture("dump-json.json")) {
+            VideoInfo info = MetadataParser.parse(in);
+            assertEquals("Rick Astley - Never Gonna Give You Up (Official Music Video) [4K Remaster] *_`",
+                    info.title());
+            assertEquals(213, info.durationSeconds());
+            // Среди 24 форматов аудио-only пять; лучший — opus 135 kbps, не m4a 129.5
+            assertEquals(new VideoInfo(info.title(), 213, "webm", "opus", 135, 3_607_802), info);
+        }
+    }
+
+    @Test
+    void nullFormatDoesNotEndTheList() throws IOException {
+        VideoInfo info = MetadataParser.parse(json("""
+                {"title": "T",
+                 "formats": [null,
+                             {"vcodec": "none", "acodec": "opus", "abr": 50, "ext": "webm", "filesize": 100},
+                             null, 7, [],
+                             {"vcodec": "none", "acodec": "opus", "abr": 160, "ext": "webm",
+                              "filesize": null, "filesize_approx": 900}],
+                 "duration": 61}
+                """));
+        assertEquals(new VideoInfo("T", 61, "webm", "opus", 160, 900), info);
+    }
+
+    @Test
+    void noAudioOnlyFormatKeepsDefaults() throws IOException {
+        VideoInfo info = MetadataParser.parse(json("""
+                {"formats": [{"vcodec": "avc1", "acodec": "mp4a.40.2", "abr": 128, "ext": "mp4"}],
+                 "title": null, "duration": "NA"}
+                """));
+        assertEquals(new VideoInfo("Unknown", 0, "m4a", "aac", 128, -1), info);
+    }
+
+    @Test
+    void playlistSkipsNullAndForeignEntries() throws IOException {
+        Playlist playlist = MetadataParser.parsePlaylist(json("""
+                {"title": "Mix",
+                 "entries": [{"id": "aaaaaaaaaa1", "title": "One", "duration": 100},
+                             null,
+                             {"id": "UCchannelxxxxxxxxxxxxxxx", "title": "Nested playlist"},
+                             {"id": "aaaaaaaaaa2", "duration": 200.5},
+                             {"id": "aaaaaaaaaa3", "title": "Three"}],
+                 "uploader": "x"}
+                """), 10);
+        assertEquals(new Playlist("Mix", List.of(
+                new Playlist.Entry("aaaaaaaaaa1", "One", 100),
+                new Playlist.Entry("aaaaaaaaaa2", "aaaaaaaaaa2", 200),
+                new Playlist.Entry("aaaaaaaaaa3", "Three", 0))), playlist);
+    }
+
+    @Test
+    void playlistIsCutAtMaxEntries() throws IOException {
+        Playlist playlist = MetadataParser.parsePlaylist(json("""
+                {"entries": [{"id": "aaaaaaaaaa1"}, {"id": "aaaaaaaaaa2"}, {"id": "aaaaaaaaaa3"}]}
+                """), 2);
+        assertEquals("Плейлист", playlist.title());
+        assertEquals(List.of("aaaaaaaaaa1", "aaaaaaaaaa2"),
+                playlist.entries().stream().map(Playlist.Entry::videoId).toList());
+    }
+
+    @Test
+    void nonObjectOutputIsAnError() {
+        assertThrows(IOException.class, () -> MetadataParser.parse(json("ERROR: Private video")));
+        assertThrows(IOException.class, () -> MetadataParser.parsePlaylist(json("[]"), 10));
+    }
+}
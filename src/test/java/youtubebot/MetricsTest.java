@@ -0,0 +1,126 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Текстовый формат /metrics: накопительные корзины, один заголовок на семейство */
+class MetricsTest {
+
+    private static final String DURATION = "youtubebot_stage_duration_seconds";
+
+    /** startNanos для стадии, которая длилась seconds */
+    private static long ago(double seconds) {
+        return System.nanoTime() - (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static List<String> lines(Metrics metrics) {
+        return metrics.render().lines().toList();
+    }
+
+    private static long count(List<String> lines, String prefix) {
+        return lines.stream().filter(line -> line.startsWith(prefix)).count();
+    }
+
+    private static String value(List<String> lines, String series) {
+        return lines.stream()
+                .filter(line -> line.startsWith(series + " "))
+                .map(line -> line.substring(series.length() + 1))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no series " + series));
+    }
+
+    private static String bucket(String stage, String le) {
+        return DURATION + "_bucket{stage=\"" + stage + "\",le=\"" + le + "\"}";
+    }
+
+    @Test
+    void bucketsAreCumulative() {
+        var metrics = new Metrics();
+        metrics.observe(Metrics.Stage.DOWNLOAD, ago(0.3));
+        metrics.observe(Metrics.Stage.DOWNLOAD, ago(3));
+        metrics.observe(Metrics.Stage.DOWNLOAD, ago(3.5));
+        metrics.observe(Metrics.Stage.DOWNLOAD, ago(4000));   // дольше последней границы — только +Inf
+
+        List<String> lines = lines(metrics);
+        assertEquals("0", value(lines, bucket("download", "0.25")));
+        assertEquals("1", value(lines, bucket("download", "0.5")));
+        assertEquals("1", value(lines, bucket("download", "2.5")));
+        assertEquals("3", value(lines, bucket("download", "5")));
+        assertEquals("3", value(lines, bucket("download", "1800")));
+        assertEquals("4", value(lines, bucket("download", "+Inf")));
+        assertEquals("4", value(lines, DURATION + "_count{stage=\"download\"}"));
+        double sum = Double.parseDouble(value(lines, DURATION + "_sum{stage=\"download\"}"));
+        assertTrue(sum >= 4006.8 && sum < 4010, "sum " + sum);
+
+        // Значения корзин не убывают
+        long previous = 0;
+        for (String line : lines) {
+            if (!line.startsWith(DURATION + "_bucket{stage=\"download\"")) continue;
+            long current = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            assertTrue(current >= previous, line);
+            previous = current;
+        }
+
+        // Пустые стадии тоже выводятся — с нулями
+        assertEquals("0", value(lines, bucket("upload", "+Inf")));
+        assertEquals("0", value(lines, DURATION + "_count{stage=\"upload\"}"));
+    }
+
+    @Test
+    void oneHeaderPerFamily() {
+        var metrics = new Metrics()
+                .gauge("active_processes{kind=\"download\"}", "Running external processes", () -> 2)
+                .gauge("active_processes{kind=\"transcode\"}", "Running external processes", () -> 1)
+                .counter("telegram_rate_limited_total", "429 responses from Telegram", () -> 7)
+                .gauge("cache_bytes", "Disk used by the audio cache", () -> 0.5);
+        metrics.cacheHit("file_id");
+        metrics.cacheHit("file_id");
+        metrics.cacheHit("disk");
+        metrics.failure("private");
+
+        List<String> lines = lines(metrics);
+        for (String family : List.of(DURATION, "youtubebot_cache_hits_total", "youtubebot_failures_total",
+                "youtubebot_active_processes", "youtubebot_telegram_rate_limited_total",
+                "youtubebot_cache_bytes")) {
+            assertEquals(1, count(lines, "# HELP " + family + " "), family);
+            assertEquals(1, count(lines, "# TYPE " + family + " "), family);
+        }
+        assertTrue(lines.contains("# TYPE " + DURATION + " histogram"));
+        assertTrue(lines.contains("# TYPE youtubebot_active_processes gauge"));
+        assertTrue(lines.contains("# TYPE youtubebot_telegram_rate_limited_total counter"));
+
+        assertEquals("2", value(lines, "youtubebot_cache_hits_total{source=\"file_id\"}"));
+        assertEquals("1", value(lines, "youtubebot_cache_hits_total{source=\"disk\"}"));
+        assertEquals("1", value(lines, "youtubebot_failures_total{category=\"private\"}"));
+        // Целые значения — без дробной части, остальные как есть
+        assertEquals("2", value(lines, "youtubebot_active_processes{kind=\"download\"}"));
+        assertEquals("1", value(lines, "youtubebot_active_processes{kind=\"transcode\"}"));
+        assertEquals("7", value(lines, "youtubebot_telegram_rate_limited_total"));
+        assertEquals("0.5", value(lines, "youtubebot_cache_bytes"));
+    }
+
+    @Test
+    void everySampleFollowsItsHeader() {
+        var metrics = new Metrics()
+                .gauge("queue_depth{kind=\"download\"}", "Jobs waiting for a slot", () -> 3)
+                .gauge("queue_depth{kind=\"transcode\"}", "Jobs waiting for a slot", () -> 0);
+        metrics.observe(Metrics.Stage.METADATA, ago(0.05));
+        metrics.failure("timeout");
+
+        String family = null;
+        for (String line : lines(metrics)) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+                continue;
+            }
+            if (line.startsWith("#")) continue;
+            assertTrue(family != null && line.startsWith(family), line);
+            assertTrue(line.matches("[a-z_]+(\\{[^}]*})? [0-9.+\\-Ee]+"), line);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static youtubebot.OutboundQueue.Priority.DELIVERY;
+import static youtubebot.OutboundQueue.Priority.REPLY;
+import static youtubebot.OutboundQueue.Priority.STATUS;
+
+/** Очередь исходящих вызовов на управляемых часах и поддельных вызовах */
+class OutboundQueueTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long CHAT   = 42;
+
+    private final AtomicLong    now   = new AtomicLong(1_000 * SECOND);
+    private final OutboundQueue queue = new OutboundQueue(4, 2, now::get);
+
+    @AfterEach
+    void shutdown() {
+        queue.shutdown();
+    }
+
+    private void advance(long nanos) {
+        now.addAndGet(nanos);
+        queue.wakeUp();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(10);
+        }
+    }
+
+    /** Занятый чат: пока вызов не отпустили, остальное копится в очереди */
+    private record Occupied(CountDownLatch release, CompletableFuture<Boolean> call) {
+        /** Отпускает вызов и ждёт, пока чат освободится */
+        void finish() throws Exception {
+            release.countDown();
+            call.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private Occupied occupy(long chatId) throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var call = queue.submit(chatId, REPLY, () -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return new Occupied(release, call);
+    }
+
+    @Test
+    void globalBucketLetsThirtyCallsPerSecond() throws Exception {
+        var sent = new AtomicInteger();
+        for (long chat = 1; chat <= 35; chat++) {
+            queue.submit(chat, REPLY, sent::incrementAndGet);
+        }
+        waitFor(() -> sent.get() == 30);
+        Thread.sleep(100);
+        assertEquals(30, sent.get());
+        assertEquals(5, queue.pending());
+
+        // За 100 мс bucket набирает три токена
+        advance(SECOND / 10);
+        waitFor(() -> sent.get() == 33);
+        Thread.sleep(100);
+        assertEquals(33, sent.get());
+
+        advance(SECOND);
+        waitFor(() -> sent.get() == 35);
+    }
+
+    @Test
+    void rateLimitedCallIsRetriedAfterRetryAfter() throws Exception {
+        var attempts = new AtomicInteger();
+        CompletableFuture<String> result = queue.submit(CHAT, REPLY, () -> {
+            if (attempts.incrementAndGet() == 1) throw new AudioUploader.RateLimitedException(5);
+            return "sent";
+        });
+        waitFor(() -> attempts.get() == 1);
+        waitFor(() -> queue.pending() == 1);
+        assertEquals(1, queue.rateLimited());
+
+        advance(4 * SECOND);
+        Thread.sleep(100);
+        assertEquals(1, attempts.get());
+        assertFalse(result.isDone());
+
+        advance(SECOND);
+        assertEquals("sent", result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void notRetryableCallFailsOnRateLimit() throws Exception {
+        CompletableFuture<Object> result = queue.submit(CHAT, DELIVERY, null, false, () -> {
+            throw new AudioUploader.RateLimitedException(5);
+        });
+        var e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AudioUploader.RateLimitedException.class, e.getCause());
+
+        // Повтора нет, но следующий вызов в чат всё равно ждёт retry_after
+        CompletableFuture<String> next = queue.submit(CHAT, DELIVERY, () -> "sent");
+        advance(4 * SECOND);
+        Thread.sleep(100);
+        assertFalse(next.isDone());
+
+        advance(SECOND);
+        assertEquals("sent", next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void chatSendsDeliveriesFirstAndDropsStatuses() throws Exception {
+        var occupied = occupy(CHAT);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<String> status = queue.submit(CHAT, STATUS, "progress", true, () -> {
+            order.add("status");
+            return "status";
+        });
+        queue.submit(CHAT, REPLY, () -> order.add("reply"));
+        queue.submit(CHAT, DELIVERY, () -> order.add("delivery"));
+
+        // Файл ушёл в очередь — неотправленный статус уже не нужен
+        assertNull(status.get(1, TimeUnit.SECONDS));
+
+        // Лимит личного чата — один вызов в секунду
+        occupied.finish();
+        advance(SECOND);
+        waitFor(() -> order.size() == 1);
+        advance(SECOND);
+        waitFor(() -> order.size() == 2);
+        assertEquals(List.of("delivery", "reply"), order);
+    }
+
+    @Test
+    void pendingStatusIsReplacedByFresherOne() throws Exception {
+        var occupied = occupy(CHAT);
+        var calls    = new CopyOnWriteArrayList<String>();
+
+        CompletableFuture<String> first  = queue.submit(CHAT, STATUS, "progress", true, () -> {
+            calls.add("10%");
+            return "10%";
+        });
+        CompletableFuture<String> second = queue.submit(CHAT, STATUS, "progress", true, () -> {
+            calls.add("20%");
+            return "20%";
+        });
+        assertSame(first, second);
+        assertEquals(1, queue.pending());
+
+        occupied.finish();
+        advance(SECOND);
+        assertEquals("20%", first.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("20%"), calls);
+    }
+
+    @Test
+    void shutdownCancelsQueuedCallsAndRejectsNewOnes() throws Exception {
+        occupy(CHAT);
+        CompletableFuture<Object> queued = queue.submit(CHAT, REPLY, () -> fail("must not run"));
+
+        queue.shutdown();
+
+        assertThrows(CancellationException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> late = queue.submit(CHAT, REPLY, () -> fail("must not run"));
+        assertTrue(late.isCompletedExceptionally());
+    }
+}
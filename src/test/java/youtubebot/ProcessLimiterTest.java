@@ -0,0 +1,171 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Очередь за местами: порядок FIFO, передача места из рук в руки, позиция в очереди */
+class ProcessLimiterTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void freeSlotIsTakenWithoutQueueing() throws Exception {
+        var limiter = new ProcessLimiter("test", 2);
+        var first   = limiter.acquire(pos -> fail("queued"));
+        var second  = limiter.acquire(pos -> fail("queued"));
+        assertEquals(2, limiter.active());
+        assertNull(limiter.tryAcquire());
+
+        first.close();
+        second.close();
+        assertEquals(0, limiter.active());
+    }
+
+    @Test
+    void waitersAreServedInArrivalOrderAndSeeTheirPosition() throws Exception {
+        var limiter   = new ProcessLimiter("test", 1);
+        var holder    = limiter.acquire(pos -> fail("queued"));
+        var positions = new CopyOnWriteArrayList<Integer>();
+        var served    = new CopyOnWriteArrayList<Integer>();
+
+        var waiters = new ArrayList<Future<?>>();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            waiters.add(executor.submit(() -> {
+                try (var permit = limiter.acquire(positions::add)) {
+                    served.add(id);
+                    assertNotNull(permit);
+                }
+                return null;
+            }));
+            // Следующий встаёт в очередь только после предыдущего — порядок прихода известен
+            waitFor(() -> positions.size() == id + 1);
+        }
+        assertEquals(List.of(1, 2, 3, 4, 5), positions);
+
+        holder.close();
+        for (Future<?> waiter : waiters) waiter.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(0, 1, 2, 3, 4), served);
+        assertEquals(0, limiter.active());
+        assertEquals(0, limiter.queued());
+    }
+
+    @Test
+    void releasedSlotGoesToTheWaiterNotToANewcomer() throws Exception {
+        var limiter = new ProcessLimiter("test", 1);
+        var holder  = limiter.acquire(pos -> fail("queued"));
+        var waiter  = executor.submit(() -> limiter.acquire(pos -> {}));
+        waitFor(() -> limiter.queued() == 1);
+
+        // Пока кто-то ждёт, место без очереди не дают — даже фоновым задачам
+        assertNull(limiter.tryAcquire());
+
+        // Место передаётся ждущему сразу при освобождении: счётчик не опускается,
+        // и пришедший следом tryAcquire его не перехватывает
+        holder.close();
+        assertEquals(1, limiter.active());
+        assertNull(limiter.tryAcquire());
+
+        waiter.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, limiter.active());
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    void contentionIsReportedBeforeWaiting() throws Exception {
+        var limiter    = new ProcessLimiter("test", 1);
+        var contention = new AtomicInteger();
+        limiter.onContention(contention::incrementAndGet);
+
+        var holder = limiter.acquire(pos -> fail("queued"));
+        assertEquals(0, contention.get());
+
+        var waiter = executor.submit(() -> limiter.acquire(pos -> {}));
+        waitFor(() -> contention.get() == 1);
+        holder.close();
+        waiter.get(5, TimeUnit.SECONDS).close();
+        assertEquals(1, contention.get());
+    }
+
+    @Test
+    void interruptedWaiterLeavesTheQueue() throws Exception {
+        var limiter = new ProcessLimiter("test", 1);
+        var holder  = limiter.acquire(pos -> fail("queued"));
+        var first   = executor.submit(() -> limiter.acquire(pos -> {}));
+        waitFor(() -> limiter.queued() == 1);
+        var second  = executor.submit(() -> limiter.acquire(pos -> {}));
+        waitFor(() -> limiter.queued() == 2);
+
+        first.cancel(true);
+        waitFor(() -> limiter.queued() == 1);
+
+        // Место достаётся второму, а не пропадает на прерванном
+        holder.close();
+        second.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, limiter.active());
+        assertEquals(0, limiter.queued());
+    }
+
+    @Test
+    void interruptIsPropagated() throws Exception {
+        var limiter = new ProcessLimiter("test", 1);
+        var holder  = limiter.acquire(pos -> fail("queued"));
+        var waiter  = executor.submit(() -> {
+            Thread.currentThread().interrupt();
+            return limiter.acquire(pos -> {});
+        });
+        var e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedException.class, e.getCause());
+        assertEquals(0, limiter.queued());
+        holder.close();
+    }
+
+    @Test
+    void closingTwiceReleasesOnce() throws Exception {
+        var limiter = new ProcessLimiter("test", 2);
+        var first   = limiter.acquire(pos -> fail("queued"));
+        var second  = limiter.acquire(pos -> fail("queued"));
+
+        first.close();
+        first.close();
+        assertEquals(1, limiter.active());
+        var third = limiter.tryAcquire();
+        assertNotNull(third);
+        assertNull(limiter.tryAcquire());
+
+        second.close();
+        third.close();
+        assertEquals(0, limiter.active());
+    }
+}
@@ -0,0 +1,121 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Разбор прогресса yt-dlp и ffmpeg прямо из байтов stdout */
+class ProgressScannerTest {
+
+    private final Progress      progress = new Progress();
+    private final List<Integer> percents = new CopyOnWriteArrayList<>();
+
+    {
+        progress.listen((stage, percent) -> percents.add(percent));
+    }
+
+    /** stdout, который отдаёт текст ровно такими кусками, как в chunks */
+    private static InputStream chunked(String... chunks) {
+        var queue = new ArrayDeque<byte[]>();
+        for (String chunk : chunks) queue.add(chunk.getBytes(StandardCharsets.UTF_8));
+        return new InputStream() {
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) {
+                byte[] next = queue.poll();
+                if (next == null) return -1;
+                int n = Math.min(len, next.length);
+                System.arraycopy(next, 0, buf, off, n);
+                if (n < next.length) queue.addFirst(Arrays.copyOfRange(next, n, next.length));
+                return n;
+            }
+        };
+    }
+
+    private static InputStream text(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void ytDlpProgressLines() throws IOException {
+        ProgressScanner.ytDlp(progress).handle(text("""
+                [youtube] aaaaaaaaaaa: Downloading webpage
+                PROGRESS 0/4000
+                PROGRESS 1000/4000
+                PROGRESS 4000/4000
+                """));
+        assertEquals(List.of(0, 25, 100), percents);
+    }
+
+    @Test
+    void lineSplitAcrossReadsIsJoined() throws IOException {
+        ProgressScanner.ytDlp(progress).handle(chunked(
+                "PROGRESS 10", "00/40", "00\nPROG", "RESS 2000/4000\n", "PROGRESS 3000/4000"));
+        // Последняя строка без '\n' не закончена — процесс оборвался на ней
+        assertEquals(List.of(25, 50), percents);
+    }
+
+    @Test
+    void unknownTotalIsSkipped() throws IOException {
+        ProgressScanner.ytDlp(progress).handle(text("""
+                PROGRESS 1000/NA
+                PROGRESS NA/NA
+                PROGRESS 1000/None
+                PROGRESS 1000/0
+                PROGRESS 3000/4000
+                """));
+        assertEquals(List.of(75), percents);
+    }
+
+    @Test
+    void overLongLineIsDroppedWithoutLosingTheNext() throws IOException {
+        // Строка больше буфера (8 KB), и похожа на прогресс — её нельзя разобрать наполовину
+        String garbage = "PROGRESS 1/2" + "x".repeat(20_000);
+        ProgressScanner.ytDlp(progress).handle(chunked(
+                "PROGRESS 1000/4000\n", garbage.substring(0, 9_000), garbage.substring(9_000) + "\n",
+                "PROGRESS 3000/4000\n"));
+        assertEquals(List.of(25, 75), percents);
+    }
+
+    @Test
+    void lineOfExactlyTheBufferSizeIsDropped() throws IOException {
+        String full = "PROGRESS 1/2" + "x".repeat(8192 - 12);
+        ProgressScanner.ytDlp(progress).handle(text(full + "\nPROGRESS 1/4\n"));
+        assertEquals(List.of(25), percents);
+    }
+
+    @Test
+    void ffmpegOutTimeAgainstDuration() throws IOException {
+        ProgressScanner.ffmpeg(progress, 200).handle(text("""
+                bitrate=N/A
+                out_time_us=N/A
+                out_time_ms=50000000
+                out_time_us=50000000
+                progress=continue
+                out_time_us=150000000
+                out_time_us=250000000
+                progress=end
+                """));
+        // out_time_ms — тоже микросекунды, но префикс другой; позиция за длительностью — 100
+        assertEquals(List.of(25, 75, 100), percents);
+    }
+
+    @Test
+    void ffmpegWithUnknownDurationDoesNotDivideByZero() throws IOException {
+        ProgressScanner.ffmpeg(progress, 0).handle(text("out_time_us=500000\n"));
+        assertEquals(List.of(50), percents);
+    }
+}
@@ -0,0 +1,87 @@
+package youtubebot;
+
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TelegramClient без сети: сообщения и загруженные файлы запоминаются.
+ * Статусы возвращают null вместо Message — как статус, который ещё не ушёл.
+ */
+class RecordingTelegram extends TelegramClient {
+
+    record Sent(long chatId, String text) {}
+
+    final List<Sent> messages = new CopyOnWriteArrayList<>();
+    final List<Sent> audio    = new CopyOnWriteArrayList<>();   // text — title файла
+    final List<Sent> streamed = new CopyOnWriteArrayList<>();   // загруженные из потока, тоже есть в audio
+
+    /** Чем ответить на загрузку из потока после readBeforeError байт; null — загрузить */
+    volatile Exception streamError;
+    volatile int       readBeforeError;
+
+    RecordingTelegram(AppConfig config) {
+        super(config);
+    }
+
+    /** Тексты сообщений чата по порядку */
+    List<String> messagesTo(long chatId) {
+        return messages.stream().filter(m -> m.chatId() == chatId).map(Sent::text).toList();
+    }
+
+    @Override
+    public CompletableFuture<Message> sendMessage(long chatId, String text) {
+        messages.add(new Sent(chatId, text));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Message> sendStatus(long chatId, String text) {
+        messages.add(new Sent(chatId, text));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Message> sendMessageWithKeyboard(long chatId, String text,
+                                                              InlineKeyboardMarkup keyboard) {
+        messages.add(new Sent(chatId, text));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> editMessage(long chatId, int messageId, String newText) {
+        messages.add(new Sent(chatId, newText));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public UploadedFile sendAudio(long chatId, Path audioFile, String title, String caption) {
+        audio.add(new Sent(chatId, title));
+        return new UploadedFile("file-" + audioFile.getFileName(), false);
+    }
+
+    @Override
+    public UploadedFile sendAudio(long chatId, InputStream stream, String fileName,
+                                  String title, String caption) throws Exception {
+        if (streamError != null) {
+            stream.readNBytes(readBeforeError);
+            throw streamError;
+        }
+        stream.transferTo(OutputStream.nullOutputStream());
+        audio.add(new Sent(chatId, title));
+        streamed.add(new Sent(chatId, title));
+        return new UploadedFile("file-" + fileName, false);
+    }
+
+    @Override
+    public boolean resendAudio(long chatId, UploadedFile file, String title, String caption) {
+        audio.add(new Sent(chatId, title));
+        return true;
+    }
+}
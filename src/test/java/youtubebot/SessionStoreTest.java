@@ -0,0 +1,204 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import youtubebot.model.UserSession;
+import youtubebot.model.VideoInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/** Таблица с линейным пробированием и колесо сроков — на управляемых часах */
+class SessionStoreTest {
+
+    private static final VideoInfo INFO = new VideoInfo("Test video", 213, "webm", "opus", 128, 3_000_000);
+    private static final long TTL = UserSession.TTL_MILLIS;
+
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    private final SessionStore store = new SessionStore(now::get);
+    private final List<UserSession> expired = new CopyOnWriteArrayList<>();
+
+    {
+        store.onExpired(expired::add);
+    }
+
+    @AfterEach
+    void shutdown() {
+        store.shutdown();
+    }
+
+    private static UserSession session(long chatId) {
+        return new UserSession(chatId, "https://www.youtube.com/watch?v=dQw4w9WgXcQ", INFO);
+    }
+
+    private void advanceTo(long millis) {
+        now.set(millis);
+        store.advance();
+    }
+
+    /**
+     * count ключей одного сегмента с одной домашней ячейкой: 32 сегмента
+     * (старшие 5 бит hash), начальная таблица сегмента на 16 ячеек (младшие 4 бита).
+     */
+    private static List<Long> colliding(int slot, int count, long from) {
+        var keys = new ArrayList<Long>();
+        for (long id = from; keys.size() < count; id++) {
+            int h = SessionStore.hash(id);
+            if (h >>> 27 == 0 && (h & 15) == slot) keys.add(id);
+        }
+        return keys;
+    }
+
+    @Test
+    void collidingKeysAreStoredAndRemovedFromTheMiddleOfTheChain() {
+        // Цепочка с переходом через конец таблицы: 15 → 0 → 1 → 2 → 3
+        List<Long> atEnd   = colliding(15, 3, 1);
+        List<Long> atStart = colliding(0, 2, 1);
+        List<Long> order = List.of(atEnd.get(0), atEnd.get(1), atStart.get(0), atEnd.get(2), atStart.get(1));
+        var sessions = new HashMap<Long, UserSession>();
+        for (long id : order) {
+            sessions.put(id, session(id));
+            store.put(sessions.get(id));
+        }
+        assertEquals(5, store.size());
+
+        // Из середины цепочки: хвост сдвигается назад, ключи с домашней ячейкой 0 — на своё место
+        store.remove(atEnd.get(1));
+        assertNull(store.get(atEnd.get(1)));
+        for (long id : order) {
+            if (id != atEnd.get(1)) assertSame(sessions.get(id), store.get(id), "lost " + id);
+        }
+
+        store.remove(atStart.get(0));
+        store.remove(atEnd.get(0));
+        assertSame(sessions.get(atEnd.get(2)), store.get(atEnd.get(2)));
+        assertSame(sessions.get(atStart.get(1)), store.get(atStart.get(1)));
+        assertEquals(2, store.size());
+
+        // Повторное удаление и удаление отсутствующего ключа ничего не ломают
+        store.remove(atEnd.get(0));
+        store.remove(colliding(15, 4, 1).get(3));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void behavesLikeAMapUnderRandomOperations() {
+        // Все ключи в одном сегменте: цепочки длинные, таблица несколько раз растёт
+        List<Long> keys = new ArrayList<>(colliding(3, 20, 1));
+        for (int slot = 0; slot < 16; slot++) keys.addAll(colliding(slot, 4, 1_000_000));
+
+        var model  = new HashMap<Long, UserSession>();
+        var random = new Random(42);
+        for (int op = 0; op < 20_000; op++) {
+            long id = keys.get(random.nextInt(keys.size()));
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    var session = session(id);
+                    model.put(id, session);
+                    store.put(session);
+                }
+                case 1 -> {
+                    model.remove(id);
+                    store.remove(id);
+                }
+                default -> assertSame(model.get(id), store.get(id), "op " + op + ", key " + id);
+            }
+            assertEquals(model.size(), store.size(), "op " + op);
+        }
+        for (long id : keys) assertSame(model.get(id), store.get(id));
+    }
+
+    @Test
+    void tickerRunsOnlyAfterStart() throws InterruptedException {
+        UserSession session = session(100);
+        store.put(session);
+        now.set(session.createdAt() + TTL + 999);
+
+        // Без start() колесо стоит — тесты крутят его сами
+        Thread.sleep(1_500);
+        assertSame(session, store.get(100));
+
+        store.start();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (expired.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(List.of(session), expired);
+    }
+
+    @Test
+    void sessionExpiresOnceAtItsDeadline() {
+        UserSession session = session(100);
+        store.put(session);
+
+        advanceTo(session.createdAt() + TTL - 1);
+        assertSame(session, store.get(100));
+        assertEquals(List.of(), expired);
+
+        // Срок — с точностью до тика колеса
+        advanceTo(session.createdAt() + TTL + 999);
+        assertNull(store.get(100));
+        assertEquals(List.of(session), expired);
+        assertEquals(0, store.size());
+
+        // Ни следующий тик, ни следующий оборот колеса не сообщают о ней снова
+        advanceTo(session.createdAt() + TTL + 5_000);
+        advanceTo(session.createdAt() + TTL + 2048 * 1000L + 999);
+        assertEquals(List.of(session), expired);
+    }
+
+    @Test
+    void putAgainPushesTheDeadlineBack() throws Exception {
+        UserSession first = session(200);
+        store.put(first);
+        Thread.sleep(1100);   // createdAt берётся из настоящих часов
+        UserSession second = session(200);
+        store.put(second);
+
+        advanceTo(first.createdAt() + TTL + 999);
+        assertSame(second, store.get(200));
+        assertEquals(List.of(), expired);
+
+        advanceTo(second.createdAt() + TTL + 999);
+        assertNull(store.get(200));
+        assertEquals(List.of(second), expired);
+    }
+
+    @Test
+    void removedSessionDoesNotExpire() {
+        UserSession session = session(300);
+        store.put(session);
+        store.remove(300);
+
+        advanceTo(session.createdAt() + TTL + 999);
+        assertEquals(List.of(), expired);
+    }
+
+    @Test
+    void sessionsWithCollidingKeysExpireIndependently() throws Exception {
+        List<Long> ids = colliding(7, 3, 1);
+        UserSession early = session(ids.get(0));
+        store.put(early);
+        Thread.sleep(1100);
+        UserSession late1 = session(ids.get(1));
+        UserSession late2 = session(ids.get(2));
+        store.put(late1);
+        store.put(late2);
+
+        advanceTo(early.createdAt() + TTL + 999);
+        assertEquals(List.of(early), expired);
+        // Удаление из начала цепочки колесом — соседи по цепочке на месте
+        assertSame(late1, store.get(ids.get(1)));
+        assertSame(late2, store.get(ids.get(2)));
+
+        advanceTo(late2.createdAt() + TTL + 999);
+        assertEquals(3, expired.size());
+        assertEquals(0, store.size());
+    }
+}
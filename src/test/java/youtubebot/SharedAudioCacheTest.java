@@ -0,0 +1,97 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.AudioKey;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Общий кэш: два узла на одной директории */
+class SharedAudioCacheTest {
+
+    private static final AudioKey FIRST  = new AudioKey("aaaaaaaaaaa", AudioFormat.OPUS_64);
+    private static final AudioKey SECOND = new AudioKey("bbbbbbbbbbb", AudioFormat.OPUS_64);
+
+    @TempDir
+    Path tempDir;
+
+    private Path cacheDir() {
+        return tempDir.resolve("cache");
+    }
+
+    private Path download(int bytes) throws Exception {
+        Path file = Files.createTempFile(tempDir, "tr_", ".opus");
+        Files.write(file, new byte[bytes]);
+        return file;
+    }
+
+    @Test
+    void fileCachedByOneNodeIsFoundByTheOther() throws Exception {
+        var nodeA = new AudioCache(cacheDir(), 1 << 20, true);
+        var nodeB = new AudioCache(cacheDir(), 1 << 20, true);
+
+        assertFalse(nodeB.contains(FIRST));
+        Path temp = download(1000);
+        try (var lease = nodeA.publish(FIRST, temp)) {
+            assertTrue(lease.isCached());
+            assertFalse(Files.exists(temp));
+        }
+
+        try (var lease = nodeB.acquire(FIRST)) {
+            assertNotNull(lease);
+            assertEquals(1000, Files.size(lease.path()));
+        }
+        assertEquals(1000, nodeB.totalBytes());
+        assertEquals(1, nodeB.size());
+    }
+
+    @Test
+    void secondPublishOfTheSameKeyKeepsTheExistingFile() throws Exception {
+        var nodeA = new AudioCache(cacheDir(), 1 << 20, true);
+        var nodeB = new AudioCache(cacheDir(), 1 << 20, true);
+
+        Path cached;
+        try (var lease = nodeA.publish(FIRST, download(1000))) {
+            cached = lease.path();
+        }
+        // B перекодировал то же видео параллельно — его копия лишняя
+        Path late = download(900);
+        try (var lease = nodeB.publish(FIRST, late)) {
+            assertEquals(cached, lease.path());
+            assertEquals(1000, Files.size(lease.path()));
+        }
+        assertFalse(Files.exists(late));
+        try (var files = Files.list(cacheDir())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void recentlyUsedSharedFileIsNotEvicted() throws Exception {
+        var nodeA = new AudioCache(cacheDir(), 1500, true);
+        var nodeB = new AudioCache(cacheDir(), 1500, true);
+
+        Path first;
+        try (var lease = nodeA.publish(FIRST, download(1000))) {
+            first = lease.path();
+        }
+        try (var lease = nodeB.acquire(FIRST)) {
+            assertNotNull(lease);
+        }
+        // У B бюджет превышен, но FIRST только что читали — вдруг его держит Lease узла A
+        try (var lease = nodeB.publish(SECOND, download(1000))) {
+            assertTrue(lease.isCached());
+        }
+        assertTrue(Files.exists(first));
+        try (var lease = nodeA.acquire(FIRST)) {
+            assertNotNull(lease);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Счётчик байт потоковой загрузки */
+class SizeLimitedInputStreamTest {
+
+    private static InputStream bytes(int n) {
+        return new ByteArrayInputStream(new byte[n]);
+    }
+
+    @Test
+    void streamOfExactlyTheLimitPasses() throws IOException {
+        try (var in = new SizeLimitedInputStream(bytes(100), 100)) {
+            assertEquals(100, in.transferTo(OutputStream.nullOutputStream()));
+            assertEquals(-1, in.read());
+            assertEquals(100, in.count());
+            assertFalse(in.exceeded());
+        }
+    }
+
+    @Test
+    void firstByteOverTheLimitBreaksTheStream() throws IOException {
+        try (var in = new SizeLimitedInputStream(bytes(101), 100)) {
+            assertEquals(100, in.readNBytes(100).length);
+            assertFalse(in.exceeded());
+            assertThrows(IOException.class, in::read);
+            assertTrue(in.exceeded());
+            assertEquals(101, in.count());
+        }
+    }
+
+    @Test
+    void bulkReadsAndSkipsAreCounted() throws IOException {
+        try (var in = new SizeLimitedInputStream(bytes(300), 250)) {
+            assertEquals(64, in.read(new byte[64], 0, 64));
+            assertEquals(100, in.skip(100));
+            assertEquals(164, in.count());
+            assertThrows(IOException.class, () -> in.transferTo(OutputStream.nullOutputStream()));
+            assertTrue(in.exceeded());
+        }
+    }
+
+    @Test
+    void nothingReadNothingCounted() throws IOException {
+        try (var in = new SizeLimitedInputStream(bytes(0), 100)) {
+            assertEquals(-1, in.read(new byte[16], 0, 16));
+            assertEquals(0, in.count());
+            assertFalse(in.exceeded());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package youtubebot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Решение сторожа размера и сам сторож на настоящем файле */
+class SizeWatchdogTest {
+
+    private static final long LIMIT = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writtenBytesOverTheLimitAreEnough() {
+        assertFalse(SizeWatchdog.exceeds(LIMIT, 0, -1, LIMIT));
+        assertTrue(SizeWatchdog.exceeds(LIMIT + 1, 0, -1, LIMIT));
+        // yt-dlp пишет в .part — считается больший из двух
+        assertTrue(SizeWatchdog.exceeds(0, LIMIT + 1, -1, LIMIT));
+        assertTrue(SizeWatchdog.exceeds(10, LIMIT + 1, 50, LIMIT));
+    }
+
+    @Test
+    void projectionStartsAtTenPercent() {
+        // 200 байт за 9% — прогноз 2222, но до 10% ему не верим
+        assertEquals(0, SizeWatchdog.projected(200, 9));
+        assertFalse(SizeWatchdog.exceeds(200, 0, 9, LIMIT));
+        assertEquals(2000, SizeWatchdog.projected(200, 10));
+        assertTrue(SizeWatchdog.exceeds(200, 0, 10, LIMIT));
+        assertEquals(0, SizeWatchdog.projected(500, -1));
+    }
+
+    @Test
+    void projectionHasTenPercentMargin() {
+        // Прогноз 1100 — ровно лимит с запасом, ещё не превышение
+        assertEquals(1100, SizeWatchdog.projected(550, 50));
+        assertFalse(SizeWatchdog.exceeds(550, 0, 50, LIMIT));
+        assertEquals(1102, SizeWatchdog.projected(551, 50));
+        assertTrue(SizeWatchdog.exceeds(551, 0, 50, LIMIT));
+        // По .part прогноз тот же
+        assertTrue(SizeWatchdog.exceeds(0, 551, 50, LIMIT));
+    }
+
+    @Test
+    void watchdogCancelsTokenWhenPartFileOutgrowsTheLimit() throws Exception {
+        Path output   = tempDir.resolve("yt_1.webm");
+        var  token    = new CancelToken();
+        var  progress = new Progress();
+
+        try (var watchdog = new SizeWatchdog(output, LIMIT, token, progress, Progress.Stage.DOWNLOAD)) {
+            Files.write(tempDir.resolve("yt_1.webm.part"), new byte[300]);
+            progress.update(Progress.Stage.DOWNLOAD, 20);   // 300 байт за 20% — прогноз 1500
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!token.isCancelled()) {
+                if (System.currentTimeMillis() > deadline) fail("watchdog did not fire");
+                Thread.sleep(20);
+            }
+            assertTrue(watchdog.exceeded());
+        }
+    }
+
+    @Test
+    void otherStagesProgressIsIgnored() throws Exception {
+        Path output   = tempDir.resolve("tr_1.opus");
+        var  token    = new CancelToken();
+        var  progress = new Progress();
+
+        try (var watchdog = new SizeWatchdog(output, LIMIT, token, progress, Progress.Stage.TRANSCODE)) {
+            Files.write(output, new byte[300]);
+            progress.update(Progress.Stage.DOWNLOAD, 20);
+            Thread.sleep(600);
+            assertFalse(token.isCancelled());
+            assertFalse(watchdog.exceeded());
+        }
+    }
+}
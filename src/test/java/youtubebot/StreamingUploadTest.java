@@ -0,0 +1,115 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.AudioFormat;
+import youtubebot.model.UserSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Потоковая загрузка в Telegram с поддельными yt-dlp и ffmpeg */
+class StreamingUploadTest {
+
+    private static final long   CHAT = 100;
+    private static final String URL  = "https://www.youtube.com/watch?v=ssssssssss1";
+
+    @TempDir
+    Path tempDir;
+
+    private RecordingTelegram telegram;
+    private JobJournal        journal;
+    private YtDlpDaemonPool   ytDlp;
+    private DownloadWorker    worker;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (worker != null) worker.shutdown();
+        if (ytDlp != null) ytDlp.shutdown();
+        if (journal != null) journal.close();
+        if (telegram != null) telegram.shutdown();
+    }
+
+    private void start() throws Exception {
+        AppConfig config = new TestConfig(tempDir)
+                .fakeYtDlp(Map.of())
+                .fakeFfmpeg()
+                .streamingUpload(true)
+                .build();
+        telegram = new RecordingTelegram(config);
+        journal  = new JobJournal(tempDir.resolve("jobs.journal"));
+        ytDlp    = new YtDlpDaemonPool(config);
+        worker   = new DownloadWorker(config, telegram,
+                new AudioCache(tempDir.resolve("cache"), 0),
+                new FileIdIndex(tempDir.resolve("file_ids.txt")),
+                ytDlp, new Metrics(), journal, null);
+    }
+
+    private void download() throws Exception {
+        var session = new UserSession(CHAT, URL, worker.getMetadata(URL));
+        session.selectFormat(AudioFormat.OPUS_96);
+        worker.startAsync(session);
+        waitFor(() -> journal.unfinished().isEmpty());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void opusIsStreamedWithoutTempFiles() throws Exception {
+        start();
+        download();
+
+        assertEquals(List.of(new RecordingTelegram.Sent(CHAT, "Video ssssssssss1")), telegram.streamed);
+        assertEquals(1, telegram.audio.size());
+        assertTrue(telegram.messagesTo(CHAT).contains("✅ Готово!"));
+    }
+
+    @Test
+    void rateLimitBeforeFirstByteFallsBackToFile() throws Exception {
+        start();
+        telegram.streamError = new AudioUploader.RateLimitedException(1);
+        download();
+
+        // Поток не ушёл, файл отправлен обычным путём
+        assertTrue(telegram.streamed.isEmpty());
+        assertEquals(List.of(new RecordingTelegram.Sent(CHAT, "Video ssssssssss1")), telegram.audio);
+        assertTrue(telegram.messagesTo(CHAT).stream().noneMatch(m -> m.startsWith("❌")));
+    }
+
+    @Test
+    void rateLimitAfterBytesWereReadIsAnError() throws Exception {
+        start();
+        telegram.streamError     = new AudioUploader.RateLimitedException(1);
+        telegram.readBeforeError = 1024;
+        download();
+
+        // Часть потока уже прочитана — повторить его нечем
+        assertTrue(telegram.audio.isEmpty());
+        assertTrue(telegram.messagesTo(CHAT).stream().anyMatch(m -> m.startsWith("❌ Ошибка")),
+                telegram.messagesTo(CHAT).toString());
+    }
+
+    @Test
+    void otherErrorsBeforeFirstByteDoNotFallBack() throws Exception {
+        start();
+        telegram.streamError = new IOException("connection reset");
+        download();
+
+        assertTrue(telegram.audio.isEmpty());
+        assertTrue(telegram.messagesTo(CHAT).stream().anyMatch(m -> m.startsWith("❌ Ошибка")));
+    }
+}
@@ -0,0 +1,94 @@
+package youtubebot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/** AppConfig для тестов: умолчания как у fromEnv, меняются только нужные тесту поля */
+final class TestConfig {
+
+    private final Path tempDir;
+    private String ytDlpPath          = "yt-dlp";
+    private String ffmpegPath         = "ffmpeg";
+    private boolean streamingUpload;
+    private int    ytDlpWorkers       = 0;
+    private int    ytDlpWorkerMaxJobs = 100;
+    private String ytDlpWorkerCommand;
+    private String botApiUrl          = "https://api.telegram.org";
+
+    TestConfig(Path tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    TestConfig ytDlpPath(String path) {
+        this.ytDlpPath = path;
+        return this;
+    }
+
+    /**
+     * yt-dlp — src/test/resources/fake-ytdlp.py с переменными env.
+     * Запускается через обёртку в tempDir: DownloadWorker ждёт один исполняемый файл.
+     */
+    TestConfig fakeYtDlp(Map<String, String> env) throws IOException {
+        return ytDlpPath(wrapper("yt-dlp", "fake-ytdlp.py", env).toString());
+    }
+
+    /** ffmpeg — src/test/resources/fake-ffmpeg.py, копирует вход в выход */
+    TestConfig fakeFfmpeg() throws IOException {
+        this.ffmpegPath = wrapper("ffmpeg", "fake-ffmpeg.py", Map.of()).toString();
+        return this;
+    }
+
+    TestConfig streamingUpload(boolean enabled) {
+        this.streamingUpload = enabled;
+        return this;
+    }
+
+    TestConfig ytDlpWorkers(int workers, int maxJobs, String command) {
+        this.ytDlpWorkers       = workers;
+        this.ytDlpWorkerMaxJobs = maxJobs;
+        this.ytDlpWorkerCommand = command;
+        return this;
+    }
+
+    TestConfig botApiUrl(String url) {
+        this.botApiUrl = url;
+        return this;
+    }
+
+    AppConfig build() {
+        return new AppConfig(
+                "1:test", "test_bot", Set.of(), null, 0,
+                tempDir.toString(), ytDlpPath, ffmpegPath, 50L * 1024 * 1024, 30,
+                null, 0, 600, 1000,
+                1, 1,
+                ytDlpWorkers, ytDlpWorkerMaxJobs, 0, ytDlpWorkerCommand,
+                false, streamingUpload, botApiUrl, false, false,
+                10_000, AppConfig.MODE_POLLING, 0, 25,
+                null, "test", 30,
+                3, 50, 900);
+    }
+
+    /** Исполняемая обёртка в tempDir: запускает скрипт из src/test/resources с переменными env */
+    private Path wrapper(String name, String script, Map<String, String> env) throws IOException {
+        String vars = env.entrySet().stream()
+                .map(e -> e.getKey() + "='" + e.getValue() + "'")
+                .collect(Collectors.joining(" "));
+        Path wrapper = tempDir.resolve(name);
+        Files.writeString(wrapper, "#!/bin/sh\nexec env %s python3 %s \"$@\"\n".formatted(vars, resource(script)));
+        if (!wrapper.toFile().setExecutable(true)) throw new IOException("cannot make " + wrapper + " executable");
+        return wrapper;
+    }
+
+    /** Путь к файлу из src/test/resources */
+    static Path resource(String name) {
+        try {
+            return Path.of(TestConfig.class.getResource("/" + name).toURI());
+        } catch (Exception e) {
+            throw new IllegalStateException("test resource not found: " + name, e);
+        }
+    }
+}
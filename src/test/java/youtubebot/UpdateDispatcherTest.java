@@ -0,0 +1,195 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Очередь входящих updates: отсев повторов, порядок внутри чата, переполнение */
+class UpdateDispatcherTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private UpdateDispatcher dispatcher;
+
+    @AfterEach
+    void shutdown() {
+        if (dispatcher != null) dispatcher.shutdown();
+    }
+
+    private UpdateDispatcher start(int capacity, Consumer<JsonNode> handler) {
+        dispatcher = new UpdateDispatcher(capacity, handler);
+        return dispatcher;
+    }
+
+    private static String message(long updateId, long chatId) {
+        return """
+                {"update_id": %d, "message": {"chat": {"id": %d}, "text": "m%d"}}
+                """.formatted(updateId, chatId, updateId);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void redeliveredUpdateIsHandledOnce() throws Exception {
+        var handled   = new CopyOnWriteArrayList<Long>();
+        var completed = new CopyOnWriteArrayList<Long>();
+        start(10, u -> handled.add(u.get("update_id").asLong()));
+        dispatcher.onProcessed(completed::add);
+
+        assertTrue(dispatcher.offer(message(1, 10)));
+        assertTrue(dispatcher.offer(message(1, 10)));
+        assertTrue(dispatcher.offer(JSON.readTree(message(1, 10))));
+        assertTrue(dispatcher.offer(message(2, 10)));
+        waitFor(() -> dispatcher.processed() + dispatcher.duplicates() == 4);
+
+        assertEquals(List.of(1L, 2L), handled);
+        assertEquals(2, dispatcher.duplicates());
+        // Повтор не сообщает о себе — его update_id уже сообщил исходный
+        waitFor(() -> completed.size() == 2);
+        assertEquals(List.of(1L, 2L), completed);
+        assertEquals(0, dispatcher.depth());
+    }
+
+    @Test
+    void idOlderThanTheWindowIsForgotten() throws Exception {
+        var handled = new CopyOnWriteArrayList<Long>();
+        start(20_000, u -> handled.add(u.get("update_id").asLong()));
+
+        // 10 000 последних ID: после 10 001 новых первый уже не помнится, второй — ещё да
+        for (long id = 1; id <= 10_001; id++) assertTrue(dispatcher.offer(message(id, 10)));
+        assertTrue(dispatcher.offer(message(2, 10)));
+        assertTrue(dispatcher.offer(message(1, 10)));
+        waitFor(() -> dispatcher.processed() + dispatcher.duplicates() == 10_003);
+
+        assertEquals(1, dispatcher.duplicates());
+        assertEquals(10_002, handled.size());
+        assertEquals(1L, handled.get(handled.size() - 1));
+    }
+
+    @Test
+    void chatsAreOrderedWithinAndParallelAcross() throws Exception {
+        Map<Long, List<Long>> seen = new ConcurrentHashMap<>();
+        var slowChatBlocked = new CountDownLatch(1);
+        var release         = new CountDownLatch(1);
+        start(1_000, u -> {
+            long chat = UpdateDispatcher.chatIdOf(u);
+            long id   = u.get("update_id").asLong();
+            if (id == 1) {
+                slowChatBlocked.countDown();
+                awaitQuietly(release);
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            seen.computeIfAbsent(chat, c -> new CopyOnWriteArrayList<>()).add(id);
+        });
+
+        // Чат 10 стоит на первом update, остальные чаты не ждут его
+        var expected = new ArrayList<Long>();
+        for (long id = 1; id <= 300; id++) {
+            long chat = 10 + id % 3;
+            if (chat == 11) expected.add(id);
+            assertTrue(dispatcher.offer(message(id, chat)));
+        }
+        assertTrue(slowChatBlocked.await(5, TimeUnit.SECONDS));
+        waitFor(() -> seen.getOrDefault(10L, List.of()).size() == 100
+                && seen.getOrDefault(12L, List.of()).size() == 100);
+        assertFalse(seen.containsKey(11L));
+
+        release.countDown();
+        waitFor(() -> dispatcher.processed() == 300);
+        assertEquals(expected, seen.get(11L));
+        assertEquals(LongStream.rangeClosed(1, 300).filter(id -> id % 3 == 0).boxed().toList(), seen.get(10L));
+        assertEquals(LongStream.rangeClosed(1, 300).filter(id -> id % 3 == 2).boxed().toList(), seen.get(12L));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void fullQueueRejectsUntilUpdatesAreProcessed() throws Exception {
+        var release = new CountDownLatch(1);
+        start(2, u -> awaitQuietly(release));
+
+        assertTrue(dispatcher.offer(message(1, 10)));
+        assertTrue(dispatcher.offer(message(2, 20)));
+        assertFalse(dispatcher.offer(message(3, 30)));
+        assertEquals(1, dispatcher.rejected());
+        assertEquals(2, dispatcher.accepted());
+
+        release.countDown();
+        waitFor(() -> dispatcher.processed() == 2);
+        // Отвергнутый update Telegram доставит снова — теперь место есть
+        assertTrue(dispatcher.offer(message(3, 30)));
+        waitFor(() -> dispatcher.processed() == 3);
+    }
+
+    @Test
+    void malformedAndDuplicateUpdatesFreeTheirPlace() throws Exception {
+        var handled = new CopyOnWriteArrayList<Long>();
+        start(1, u -> handled.add(u.get("update_id").asLong()));
+
+        assertTrue(dispatcher.offer("{not json"));
+        waitFor(() -> dispatcher.offer(message(1, 10)));
+        waitFor(() -> dispatcher.offer(message(1, 10)));
+        waitFor(() -> dispatcher.offer(message(2, 10)));
+        waitFor(() -> handled.size() == 2);
+        assertEquals(List.of(1L, 2L), handled);
+    }
+
+    @Test
+    void failingHandlerDoesNotStallTheChat() throws Exception {
+        var handled = new CopyOnWriteArrayList<Long>();
+        start(10, u -> {
+            long id = u.get("update_id").asLong();
+            if (id == 1) throw new IllegalStateException("boom");
+            handled.add(id);
+        });
+        assertTrue(dispatcher.offer(message(1, 10)));
+        assertTrue(dispatcher.offer(message(2, 10)));
+        waitFor(() -> dispatcher.processed() == 2);
+        assertEquals(List.of(2L), handled);
+    }
+
+    @Test
+    void chatOfMessageAndCallback() throws Exception {
+        assertEquals(10, UpdateDispatcher.chatIdOf(JSON.readTree(message(1, 10))));
+        assertEquals(-100500, UpdateDispatcher.chatIdOf(JSON.readTree("""
+                {"update_id": 2, "callback_query": {"message": {"chat": {"id": -100500}}, "data": "f"}}
+                """)));
+        assertEquals(0, UpdateDispatcher.chatIdOf(JSON.readTree("""
+                {"update_id": 3, "inline_query": {"query": "x"}}
+                """)));
+    }
+}
@@ -0,0 +1,176 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Long polling против src/test/resources/fake-bot-api.py */
+class UpdatePollerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Process botApi;
+    private final List<UpdatePoller>     pollers     = new ArrayList<>();
+    private final List<UpdateDispatcher> dispatchers = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        pollers.forEach(UpdatePoller::shutdown);
+        dispatchers.forEach(UpdateDispatcher::shutdown);
+        if (botApi != null) botApi.destroyForcibly();
+    }
+
+    /** Запускает поддельный Bot API и ждёт, пока он начнёт принимать соединения */
+    private String startBotApi(Map<String, String> env) throws Exception {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        var builder = new ProcessBuilder("python3", TestConfig.resource("fake-bot-api.py").toString())
+                .redirectErrorStream(true)
+                .redirectOutput(tempDir.resolve("bot-api.log").toFile());
+        builder.environment().putAll(env);
+        builder.environment().put("FAKE_BOTAPI_PORT", Integer.toString(port));
+        botApi = builder.start();
+
+        waitFor(() -> {
+            try (var socket = new Socket("127.0.0.1", port)) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }, 10, "fake Bot API did not start");
+        return "http://127.0.0.1:" + port;
+    }
+
+    private UpdatePoller startPoller(String botApiUrl, int capacity, Consumer<JsonNode> handler) {
+        var dispatcher = new UpdateDispatcher(capacity, handler);
+        dispatchers.add(dispatcher);
+        var poller = new UpdatePoller(new TestConfig(tempDir).botApiUrl(botApiUrl).build(), dispatcher);
+        pollers.add(poller);
+        poller.start();
+        return poller;
+    }
+
+    private String savedOffset() throws IOException {
+        Path file = tempDir.resolve("updates_offset.txt");
+        return Files.exists(file) ? Files.readString(file).trim() : "";
+    }
+
+    private static long updateId(JsonNode update) {
+        return update.path("update_id").asLong();
+    }
+
+    @Test
+    void processedOffsetSurvivesRestart() throws Exception {
+        String url = startBotApi(Map.of("FAKE_BOTAPI_UPDATES", "30", "FAKE_BOTAPI_CHATS", "5"));
+        var handled = new CopyOnWriteArrayList<Long>();
+        startPoller(url, 100, update -> handled.add(updateId(update)));
+
+        waitFor(() -> handled.size() == 30, 10, "not all updates handled: " + handled);
+        waitFor(() -> savedOffset().equals("31"), 10, "offset not saved");
+
+        pollers.getFirst().shutdown();
+        var afterRestart = new CopyOnWriteArrayList<Long>();
+        startPoller(url, 100, update -> afterRestart.add(updateId(update)));
+        Thread.sleep(1500);
+        assertEquals(List.of(), afterRestart);
+        assertEquals(30, handled.stream().distinct().count());
+    }
+
+    @Test
+    void unprocessedUpdatesAreDeliveredAgainAfterCrash() throws Exception {
+        String url = startBotApi(Map.of("FAKE_BOTAPI_UPDATES", "30", "FAKE_BOTAPI_CHATS", "1"));
+        var stuck = new CountDownLatch(1);
+        var handled = new CopyOnWriteArrayList<Long>();
+        startPoller(url, 100, update -> {
+            handled.add(updateId(update));
+            // Обработка update 10 не завершается — бот «падает» посреди неё
+            if (updateId(update) == 10) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        waitFor(() -> handled.contains(10L), 10, "update 10 not reached");
+        // Всё пришло, но подтверждено только то, что обработано
+        waitFor(() -> savedOffset().equals("10"), 10, "offset should stop at the stuck update");
+        Thread.sleep(1500);
+        assertEquals("10", savedOffset());
+
+        pollers.getFirst().shutdown();
+        dispatchers.getFirst().shutdown();
+
+        var afterRestart = new CopyOnWriteArrayList<Long>();
+        startPoller(url, 100, update -> afterRestart.add(updateId(update)));
+        waitFor(() -> afterRestart.size() == 21, 10, "redelivered: " + afterRestart);
+        assertEquals(10L, afterRestart.getFirst());
+        assertEquals(30L, afterRestart.getLast());
+    }
+
+    @Test
+    void conflictIsRetriedWithBackoff() throws Exception {
+        String url = startBotApi(Map.of("FAKE_BOTAPI_UPDATES", "5", "FAKE_BOTAPI_409_FIRST", "2"));
+        var handled = new CopyOnWriteArrayList<Long>();
+        long started = System.nanoTime();
+        startPoller(url, 100, update -> handled.add(updateId(update)));
+
+        waitFor(() -> handled.size() == 5, 15, "updates not handled after 409");
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        // Два отказа подряд — паузы 1 и 2 секунды
+        assertTrue(elapsedMs >= 3000, "retried too early: " + elapsedMs + " ms");
+    }
+
+    @Test
+    void fullQueueMakesPollerWaitInsteadOfDropping() throws Exception {
+        String url = startBotApi(Map.of("FAKE_BOTAPI_UPDATES", "40", "FAKE_BOTAPI_CHATS", "4"));
+        var handled = new CopyOnWriteArrayList<Long>();
+        startPoller(url, 2, update -> {
+            handled.add(updateId(update));
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        waitFor(() -> handled.size() == 40, 15, "updates lost: " + handled);
+        assertTrue(dispatchers.getFirst().rejected() > 0, "queue never filled up");
+        assertEquals(40, handled.stream().distinct().count());
+        waitFor(() -> savedOffset().equals("41"), 10, "offset not saved");
+    }
+
+    private static void waitFor(Check check, int seconds, String message) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (!check.ok()) {
+            if (System.nanoTime() > deadline) fail(message);
+            Thread.sleep(50);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean ok() throws Exception;
+    }
+}
@@ -0,0 +1,268 @@
+package youtubebot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Веб-версия: разбор Range, SSE-подписчик и отдача файла по HTTP с поддельным yt-dlp */
+class WebHandlerTest {
+
+    private static final long SIZE = 1000;
+    private static final int  FILE_BYTES = 4096;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient      http   = HttpClient.newHttpClient();
+    private final ObjectMapper    json   = new ObjectMapper();
+
+    private RecordingTelegram telegram;
+    private JobJournal        journal;
+    private YtDlpDaemonPool   ytDlp;
+    private DownloadWorker    worker;
+    private WebHandler        web;
+    private Javalin           app;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (app != null) app.stop();
+        if (web != null) web.shutdown();
+        if (worker != null) worker.shutdown();
+        if (ytDlp != null) ytDlp.shutdown();
+        if (journal != null) journal.close();
+        if (telegram != null) telegram.shutdown();
+        sender.shutdownNow();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached");
+            Thread.sleep(10);
+        }
+    }
+
+    // ── Range ──────────────────────────────────────────────────────────────
+
+    private static void assertRange(long start, long end, String header) {
+        assertArrayEquals(new long[] {start, end}, WebHandler.parseRange(header, SIZE), header);
+    }
+
+    @Test
+    void closedAndOpenEndedRanges() {
+        assertRange(0, 99, "bytes=0-99");
+        assertRange(500, 999, "bytes=500-");
+        assertRange(999, 999, "bytes=999-999");
+        // Конец за файлом обрезается по размеру
+        assertRange(900, 999, "bytes=900-5000");
+        assertRange(10, 20, "bytes= 10 - 20 ");
+    }
+
+    @Test
+    void suffixRangeIsTheTail() {
+        assertRange(900, 999, "bytes=-100");
+        assertRange(0, 999, "bytes=-5000");
+        assertSame(WebHandler.UNSATISFIABLE, WebHandler.parseRange("bytes=-0", SIZE));
+        assertSame(WebHandler.UNSATISFIABLE, WebHandler.parseRange("bytes=-10", 0));
+    }
+
+    @Test
+    void startPastTheEndIsUnsatisfiable() {
+        assertSame(WebHandler.UNSATISFIABLE, WebHandler.parseRange("bytes=1000-", SIZE));
+        assertSame(WebHandler.UNSATISFIABLE, WebHandler.parseRange("bytes=1000-2000", SIZE));
+        assertSame(WebHandler.UNSATISFIABLE, WebHandler.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    void unsupportedOrInvalidRangeMeansWholeFile() {
+        assertNull(WebHandler.parseRange(null, SIZE));
+        // Несколько диапазонов не поддерживаются — RFC 9110 разрешает ответить 200
+        assertNull(WebHandler.parseRange("bytes=0-1,5-9", SIZE));
+        assertNull(WebHandler.parseRange("items=0-1", SIZE));
+        assertNull(WebHandler.parseRange("bytes=20-10", SIZE));
+        assertNull(WebHandler.parseRange("bytes=abc", SIZE));
+        assertNull(WebHandler.parseRange("bytes=x-y", SIZE));
+        assertNull(WebHandler.parseRange("bytes=-", SIZE));
+    }
+
+    // ── SSE ────────────────────────────────────────────────────────────────
+
+    /** Sink, отправка в который стоит, пока тест не отпустит её */
+    private static final class RecordingSink implements WebHandler.EventSink {
+        final List<String>   events  = new CopyOnWriteArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch sending = new CountDownLatch(1);
+        volatile boolean     closed;
+
+        @Override
+        public void send(String name, Map<String, Object> data) {
+            events.add(name + ":" + data.get("percent"));
+            sending.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static Map<String, Object> percent(int percent) {
+        return Map.of("percent", percent);
+    }
+
+    @Test
+    void slowClientGetsOnlyTheLatestSnapshot() throws Exception {
+        var sink       = new RecordingSink();
+        var subscriber = new WebHandler.SseSubscriber(sink, sender);
+
+        subscriber.push("progress", percent(1), false);
+        assertTrue(sink.sending.await(5, TimeUnit.SECONDS));
+        // Пока клиент принимает первое событие, промежуточные заменяют друг друга
+        for (int p = 2; p <= 99; p++) subscriber.push("progress", percent(p), false);
+        sink.release.countDown();
+
+        waitFor(() -> sink.events.size() == 2);
+        Thread.sleep(100);
+        assertEquals(List.of("progress:1", "progress:99"), sink.events);
+        assertFalse(sink.closed);
+
+        // Поток отправки закончился — следующее событие запускает его снова
+        subscriber.push("done", percent(100), true);
+        waitFor(() -> sink.closed);
+        assertEquals(List.of("progress:1", "progress:99", "done:100"), sink.events);
+    }
+
+    @Test
+    void lastEventReplacesPendingProgressAndCloses() throws Exception {
+        var sink       = new RecordingSink();
+        var subscriber = new WebHandler.SseSubscriber(sink, sender);
+
+        subscriber.push("progress", percent(10), false);
+        assertTrue(sink.sending.await(5, TimeUnit.SECONDS));
+        subscriber.push("progress", percent(50), false);
+        subscriber.push("failed", percent(50), true);
+        sink.release.countDown();
+
+        waitFor(() -> sink.closed);
+        assertEquals(List.of("progress:10", "failed:50"), sink.events);
+    }
+
+    @Test
+    void stoppedSenderClosesTheClient() {
+        var sink = new RecordingSink();
+        sender.shutdownNow();
+        new WebHandler.SseSubscriber(sink, sender).push("progress", percent(1), false);
+        assertTrue(sink.closed);
+        assertTrue(sink.events.isEmpty());
+    }
+
+    // ── HTTP ───────────────────────────────────────────────────────────────
+
+    private String startServer() throws Exception {
+        AppConfig config = new TestConfig(tempDir)
+                .fakeYtDlp(Map.of("FAKE_YTDLP_FILE_BYTES", Integer.toString(FILE_BYTES)))
+                .build();
+        telegram = new RecordingTelegram(config);
+        journal  = new JobJournal(tempDir.resolve("jobs.journal"));
+        ytDlp    = new YtDlpDaemonPool(config);
+        worker   = new DownloadWorker(config, telegram,
+                new AudioCache(tempDir.resolve("cache"), 0),
+                new FileIdIndex(tempDir.resolve("file_ids.txt")),
+                ytDlp, new Metrics(), journal, null);
+        web = new WebHandler(config, worker);
+        app = Javalin.create()
+                .post("/api/download", web::startDownload)
+                .get("/api/status/{id}", web::getStatus)
+                .sse("/api/events/{id}", web::events)
+                .get("/api/file/{token}", web::getFile)
+                .start(0);
+        return "http://localhost:" + app.port();
+    }
+
+    private HttpResponse<String> get(String url, String... headers) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create(url));
+        if (headers.length > 0) request.headers(headers);
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void fileIsServedWholeOrByRangeAfterTheEventStreamSaysDone() throws Exception {
+        String base = startServer();
+        var started = http.send(HttpRequest.newBuilder(URI.create(base + "/api/download"))
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"url\": \"https://www.youtube.com/watch?v=wwwwwwwwww1\"}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(202, started.statusCode());
+        JsonNode job = json.readTree(started.body());
+
+        // SSE-поток заканчивается событием done — сервер закрывает его сам
+        // Javalin отвечает потоком только на Accept: text/event-stream — его шлёт EventSource
+        List<String> lines = http.send(HttpRequest.newBuilder(URI.create(base + job.get("events").asText()))
+                        .header("Accept", "text/event-stream")
+                        .build(),
+                HttpResponse.BodyHandlers.ofLines()).body().toList();
+        assertTrue(lines.contains("event: done"), lines.toString());
+
+        JsonNode status = json.readTree(get(base + job.get("status").asText()).body());
+        assertEquals("done", status.get("state").asText());
+        assertEquals(FILE_BYTES, status.get("size").asLong());
+        String file = base + status.get("file").asText();
+
+        var whole = get(file);
+        assertEquals(200, whole.statusCode());
+        assertEquals(FILE_BYTES, whole.body().length());
+        assertEquals("bytes", whole.headers().firstValue("Accept-Ranges").orElseThrow());
+
+        var part = get(file, "Range", "bytes=100-199");
+        assertEquals(206, part.statusCode());
+        assertEquals("bytes 100-199/" + FILE_BYTES, part.headers().firstValue("Content-Range").orElseThrow());
+        assertEquals(100, part.body().length());
+
+        var tail = get(file, "Range", "bytes=-10");
+        assertEquals(206, tail.statusCode());
+        assertEquals("bytes %d-%d/%d".formatted(FILE_BYTES - 10, FILE_BYTES - 1, FILE_BYTES),
+                tail.headers().firstValue("Content-Range").orElseThrow());
+
+        var beyond = get(file, "Range", "bytes=" + FILE_BYTES + "-");
+        assertEquals(416, beyond.statusCode());
+        assertEquals("bytes */" + FILE_BYTES, beyond.headers().firstValue("Content-Range").orElseThrow());
+
+        var multi = get(file, "Range", "bytes=0-1,5-9");
+        assertEquals(200, multi.statusCode());
+        assertEquals(FILE_BYTES, multi.body().length());
+
+        assertEquals(404, get(base + "/api/file/unknown").statusCode());
+    }
+}
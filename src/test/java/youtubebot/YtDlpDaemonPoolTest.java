@@ -0,0 +1,139 @@
+package youtubebot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import youtubebot.model.VideoInfo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Пул воркеров yt-dlp против src/test/resources/fake-ytdlp-worker.py */
+class YtDlpDaemonPoolTest {
+
+    private static final List<String> PROBE = List.of("--dump-json", "https://youtu.be/dQw4w9WgXcQ");
+
+    @TempDir
+    Path tempDir;
+
+    private YtDlpDaemonPool pool;
+
+    @AfterEach
+    void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    private YtDlpDaemonPool pool(int workers, int maxJobs, String env) {
+        String command = "env " + env + " python3 " + TestConfig.resource("fake-ytdlp-worker.py");
+        pool = new YtDlpDaemonPool(new TestConfig(tempDir).ytDlpWorkers(workers, maxJobs, command).build());
+        return pool;
+    }
+
+    @Test
+    void probeAndRunGoThroughOneWorker() throws Exception {
+        pool(1, 100, "FAKE_YTDLP_FILE_BYTES=4096");
+
+        VideoInfo info = pool.probe(PROBE);
+        assertEquals("Fake video", info.title());
+        assertEquals(213, info.durationSeconds());
+
+        Path output = tempDir.resolve("out.webm");
+        var progress = new CopyOnWriteArrayList<Integer>();
+        pool.run(List.of("-o", output.toString(), "https://youtu.be/dQw4w9WgXcQ"), progress::add);
+        assertEquals(4096, Files.size(output));
+        assertEquals(List.of(0, 25, 50, 75, 100), progress);
+        assertEquals(1, pool.liveWorkers());
+    }
+
+    @Test
+    void workerErrorIsReportedWithoutKillingTheWorker() throws Exception {
+        pool(1, 100, "FAKE_YTDLP_FAIL_URL=private");
+
+        var e = assertThrows(RuntimeException.class,
+                () -> pool.probe(List.of("--dump-json", "https://youtu.be/private0000")));
+        assertTrue(e.getMessage().contains("Private video"));
+        assertEquals("Fake video", pool.probe(PROBE).title());
+        assertEquals(1, pool.liveWorkers());
+    }
+
+    @Test
+    void crashedWorkerIsReplaced() throws Exception {
+        pool(1, 100, "FAKE_YTDLP_CRASH_AFTER=2");
+
+        pool.probe(PROBE);
+        pool.probe(PROBE);
+        // Третий запрос воркер не переживает — вызывающий уходит в one-shot
+        assertThrows(YtDlpDaemonPool.WorkerUnavailableException.class, () -> pool.probe(PROBE));
+        assertEquals(0, pool.liveWorkers());
+
+        assertEquals("Fake video", pool.probe(PROBE).title());
+        assertEquals(1, pool.liveWorkers());
+    }
+
+    @Test
+    void workerIsRecycledAfterMaxJobs() throws Exception {
+        // Воркер упал бы на третьем запросе, но до него не доживает
+        pool(1, 2, "FAKE_YTDLP_CRASH_AFTER=2");
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals("Fake video", pool.probe(PROBE).title());
+            assertEquals(i % 2 == 0 ? 1 : 0, pool.liveWorkers(), "after request " + (i + 1));
+        }
+    }
+
+    @Test
+    void healthCheckPingsDoNotCountAsJobs() throws Exception {
+        pool(1, 3, "");
+
+        pool.probe(PROBE);
+        for (int i = 0; i < 3; i++) pool.healthCheck();
+        assertEquals(1, pool.liveWorkers());
+
+        // Второй настоящий запрос из трёх — воркер остаётся
+        pool.probe(PROBE);
+        assertEquals(1, pool.liveWorkers());
+        pool.probe(PROBE);
+        assertEquals(0, pool.liveWorkers());
+    }
+
+    @Test
+    void workerThatCannotStartDisablesThePool() {
+        pool = new YtDlpDaemonPool(new TestConfig(tempDir)
+                .ytDlpWorkers(1, 100, "python3 " + tempDir.resolve("missing.py"))
+                .build());
+
+        assertThrows(YtDlpDaemonPool.WorkerUnavailableException.class, () -> pool.probe(PROBE));
+        // Повторно не стартует, пока не пройдёт пауза, — сразу one-shot
+        assertThrows(YtDlpDaemonPool.WorkerUnavailableException.class, () -> pool.probe(PROBE));
+        assertEquals(0, pool.liveWorkers());
+    }
+
+    @Test
+    void downloadWorkerFallsBackToOneShotYtDlp() throws Exception {
+        Path oneShot = tempDir.resolve("yt-dlp");
+        Files.writeString(oneShot, """
+                #!/bin/sh
+                echo '{"title": "One-shot video", "duration": 60, "formats": []}'
+                """);
+        Files.setPosixFilePermissions(oneShot, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        String command = "env FAKE_YTDLP_CRASH_AFTER=1 python3 " + TestConfig.resource("fake-ytdlp-worker.py");
+        AppConfig config = new TestConfig(tempDir)
+                .ytDlpPath(oneShot.toString())
+                .ytDlpWorkers(1, 100, command)
+                .build();
+        pool = new YtDlpDaemonPool(config);
+        var worker = new DownloadWorker(config, null, null, null, pool, new Metrics(), null, null);
+
+        assertEquals("Fake video", worker.getMetadata("https://www.youtube.com/watch?v=aaaaaaaaaaa").title());
+        // Воркер падает на втором запросе — ответ даёт отдельный процесс yt-dlp
+        assertEquals("One-shot video", worker.getMetadata("https://www.youtube.com/watch?v=bbbbbbbbbbb").title());
+    }
+}
@@ -0,0 +1,129 @@
+#!/usr/bin/env python3
+"""
+Поддельный Bot API для локальной проверки long polling (UPDATE_MODE=polling)
+и исходящих вызовов без Telegram.
+
+getUpdates отдаёт сгенерированные updates пачками (offset и limit как
+у настоящего API), остальные методы отвечают ok и считают вызовы.
+Раз в 5 секунд в stderr печатается статистика.
+
+Подключение:
+  python3 src/test/resources/fake-bot-api.py &
+  BOT_API_URL=http://127.0.0.1:8081 UPDATE_MODE=polling ...
+
+Поведение настраивается переменными окружения:
+  FAKE_BOTAPI_PORT    — порт (по умолчанию 8081)
+  FAKE_BOTAPI_UPDATES — сколько updates выдать всего (по умолчанию 1000)
+  FAKE_BOTAPI_CHATS   — по скольким чатам их распределить (по умолчанию 50)
+  FAKE_BOTAPI_TEXT    — текст сообщений (по умолчанию /help)
+  FAKE_BOTAPI_429_EVERY — отвечать 429 на каждый N-й sendMessage (0 — никогда)
+  FAKE_BOTAPI_409_FIRST — первые N вызовов getUpdates отвечать 409 Conflict,
+                          как при втором экземпляре бота с тем же токеном
+"""
+import json
+import os
+import sys
+import threading
+import time
+from collections import Counter
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+from urllib.parse import parse_qs, urlparse
+
+PORT = int(os.environ.get("FAKE_BOTAPI_PORT", "8081"))
+TOTAL = int(os.environ.get("FAKE_BOTAPI_UPDATES", "1000"))
+CHATS = int(os.environ.get("FAKE_BOTAPI_CHATS", "50"))
+TEXT = os.environ.get("FAKE_BOTAPI_TEXT", "/help")
+EVERY_429 = int(os.environ.get("FAKE_BOTAPI_429_EVERY", "0"))
+FIRST_409 = int(os.environ.get("FAKE_BOTAPI_409_FIRST", "0"))
+
+KNOWN = ("getUpdates", "sendMessage", "sendAudio", "sendDocument", "editMessageText", "deleteWebhook", "setWebhook")
+
+calls = Counter()
+lock = threading.Lock()
+message_id = 0
+
+
+def make_update(update_id):
+    chat = 1000 + update_id % CHATS
+    return {
+        "update_id": update_id,
+        "message": {
+            "message_id": update_id,
+            "date": int(time.time()),
+            "chat": {"id": chat, "type": "private"},
+            "from": {"id": chat, "is_bot": False, "first_name": "Fake"},
+            "text": TEXT,
+        },
+    }
+
+
+class Handler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+
+    def do_GET(self):
+        self.handle_call()
+
+    def do_POST(self):
+        length = int(self.headers.get("Content-Length") or 0)
+        if length:
+            self.rfile.read(length)
+        self.handle_call()
+
+    def handle_call(self):
+        global message_id
+        url = urlparse(self.path)
+        method = url.path.rsplit("/", 1)[-1]
+        method = {m.lower(): m for m in KNOWN}.get(method.lower(), method)
+        query = parse_qs(url.query)
+        with lock:
+            calls[method] += 1
+            count = calls[method]
+            message_id += 1
+            mid = message_id
+
+        if method == "getUpdates" and count <= FIRST_409:
+            self.reply({"ok": False, "error_code": 409,
+                        "description": "Conflict: terminated by other getUpdates request; "
+                                       "make sure that only one bot instance is running"}, status=409)
+        elif method == "getUpdates":
+            offset = int(query.get("offset", ["0"])[0])
+            limit = int(query.get("limit", ["100"])[0])
+            result = [make_update(i) for i in range(max(offset, 1), min(offset + limit, TOTAL + 1))]
+            if not result:
+                time.sleep(1)   # настоящий API держит соединение до timeout
+            self.reply({"ok": True, "result": result})
+        elif method == "sendMessage" and EVERY_429 and count % EVERY_429 == 0:
+            self.reply({"ok": False, "error_code": 429,
+                        "description": "Too Many Requests: retry after 1",
+                        "parameters": {"retry_after": 1}}, status=429)
+        elif method in ("sendAudio", "sendDocument"):
+            key = "audio" if method == "sendAudio" else "document"
+            self.reply({"ok": True, "result": {"message_id": mid, "date": 0, "chat": {"id": 0, "type": "private"},
+                                               key: {"file_id": "fake-%d" % mid, "file_unique_id": "u%d" % mid}}})
+        elif method in ("sendMessage", "editMessageText"):
+            self.reply({"ok": True, "result": {"message_id": mid, "date": 0,
+                                               "chat": {"id": 0, "type": "private"}, "text": ""}})
+        else:
+            self.reply({"ok": True, "result": True})
+
+    def reply(self, payload, status=200):
+        body = json.dumps(payload).encode()
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json")
+        self.send_header("Content-Length", str(len(body)))
+        self.end_headers()
+        self.wfile.write(body)
+
+    def log_message(self, *args):
+        pass
+
+
+def report():
+    while True:
+        time.sleep(5)
+        with lock:
+            print("calls:", dict(calls), file=sys.stderr, flush=True)
+
+
+threading.Thread(target=report, daemon=True).start()
+ThreadingHTTPServer(("127.0.0.1", PORT), Handler).serve_forever()
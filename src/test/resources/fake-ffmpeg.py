@@ -0,0 +1,27 @@
+#!/usr/bin/env python3
+"""
+Поддельный ffmpeg: копирует вход из "-i" в выход (последний аргумент) как есть.
+pipe:0 и pipe:1 — stdin и stdout, как в потоковой загрузке.
+"""
+import sys
+
+
+def main():
+    args = sys.argv[1:]
+    source = args[args.index("-i") + 1]
+    output = args[-1]
+    if source == "pipe:0":
+        data = sys.stdin.buffer.read()
+    else:
+        with open(source, "rb") as f:
+            data = f.read()
+    if output == "pipe:1":
+        sys.stdout.buffer.write(data)
+    else:
+        with open(output, "wb") as f:
+            f.write(data)
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,81 @@
+#!/usr/bin/env python3
+"""
+Поддельный воркер yt-dlp для локальной проверки YtDlpDaemonPool без сети.
+
+Говорит тем же протоколом, что и src/main/resources/ytdlp_worker.py,
+но ничего не скачивает: probe отдаёт фиксированные метаданные, run пишет
+в путь из "-o" файл нужного размера и по дороге присылает строки хода.
+
+Подключение:
+  YT_DLP_WORKER_CMD="python3 src/test/resources/fake-ytdlp-worker.py"
+
+Поведение настраивается переменными окружения:
+  FAKE_YTDLP_DELAY_SECONDS — задержка на каждый запрос (по умолчанию 0)
+  FAKE_YTDLP_FILE_BYTES    — размер «скачанного» файла (по умолчанию 1 MB)
+  FAKE_YTDLP_FAIL_URL      — подстрока URL, для которой вернуть ошибку «Private video»
+  FAKE_YTDLP_CRASH_AFTER   — упасть после N запросов (проверка пересоздания воркера)
+"""
+import json
+import os
+import sys
+import time
+
+DELAY = float(os.environ.get("FAKE_YTDLP_DELAY_SECONDS", "0"))
+FILE_BYTES = int(os.environ.get("FAKE_YTDLP_FILE_BYTES", str(1024 * 1024)))
+FAIL_URL = os.environ.get("FAKE_YTDLP_FAIL_URL")
+CRASH_AFTER = int(os.environ.get("FAKE_YTDLP_CRASH_AFTER", "0"))
+
+INFO = {
+    "title": "Fake video",
+    "duration": 213,
+    "formats": [
+        {"vcodec": "none", "acodec": "mp4a.40.2", "abr": 129.5, "ext": "m4a", "filesize": 3446364},
+        {"vcodec": "none", "acodec": "opus", "abr": 135.2, "ext": "webm", "filesize": 3607802},
+        {"vcodec": "avc1.4d401f", "acodec": "none", "abr": None, "ext": "mp4", "filesize": 11522144},
+    ],
+}
+
+
+def send(message):
+    sys.stdout.write(json.dumps(message) + "\n")
+    sys.stdout.flush()
+
+
+def option(args, name):
+    return args[args.index(name) + 1] if name in args else None
+
+
+def main():
+    send({"ready": True, "version": "fake"})
+    handled = 0
+    for line in sys.stdin:
+        request = json.loads(line)
+        op, args = request.get("op"), request.get("args") or []
+        handled += 1
+        if CRASH_AFTER and handled > CRASH_AFTER:
+            sys.exit(1)
+        time.sleep(DELAY)
+
+        url = args[-1] if args else ""
+        try:
+            if FAIL_URL and FAIL_URL in url:
+                response = {"ok": False, "error": "ERROR: [youtube] fake: Private video"}
+            elif op == "probe":
+                response = {"ok": True, "info": INFO}
+            elif op == "run":
+                with open(option(args, "-o"), "wb") as f:
+                    for percent in range(0, 101, 25):
+                        send({"id": request.get("id"), "progress": percent})
+                    f.write(b"\0" * FILE_BYTES)
+                response = {"ok": True}
+            else:
+                response = {"ok": True}
+        except Exception as e:
+            response = {"ok": False, "error": "ERROR: %s" % e}
+
+        response["id"] = request.get("id")
+        send(response)
+
+
+if __name__ == "__main__":
+    main()
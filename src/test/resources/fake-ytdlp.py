@@ -0,0 +1,73 @@
+#!/usr/bin/env python3
+"""
+Поддельный yt-dlp (отдельный процесс на каждый вызов) для проверки DownloadWorker без сети.
+
+С --dump-json печатает фиксированные метаданные видео из URL, иначе пишет
+в путь из "-o" файл нужного размера ("-o -" — в stdout, как при потоковой загрузке). Тесты запускают его через обёртку
+с переменными окружения — см. TestConfig.fakeYtDlp.
+
+Поведение настраивается переменными окружения:
+  FAKE_YTDLP_FILE_BYTES   — размер «скачанного» файла (по умолчанию 64 KB)
+  FAKE_YTDLP_FAIL_URL     — подстрока URL, для которой вернуть ошибку «Private video»
+  FAKE_YTDLP_SLOW_URL     — подстрока URL, метаданные которого отдаются с задержкой
+  FAKE_YTDLP_SLOW_SECONDS — эта задержка (по умолчанию 1)
+  FAKE_YTDLP_LOG          — файл, куда дописываются строки "<op> <start|end> <videoId>"
+"""
+import json
+import os
+import sys
+import time
+
+FILE_BYTES = int(os.environ.get("FAKE_YTDLP_FILE_BYTES", str(64 * 1024)))
+FAIL_URL = os.environ.get("FAKE_YTDLP_FAIL_URL")
+SLOW_URL = os.environ.get("FAKE_YTDLP_SLOW_URL")
+SLOW_SECONDS = float(os.environ.get("FAKE_YTDLP_SLOW_SECONDS", "1"))
+LOG = os.environ.get("FAKE_YTDLP_LOG")
+
+
+def log(op, event, video_id):
+    if not LOG:
+        return
+    fd = os.open(LOG, os.O_WRONLY | os.O_APPEND | os.O_CREAT, 0o644)
+    try:
+        os.write(fd, ("%s %s %s\n" % (op, event, video_id)).encode())
+    finally:
+        os.close(fd)
+
+
+def main():
+    args = sys.argv[1:]
+    url = args[-1] if args else ""
+    video_id = url.rsplit("v=", 1)[-1]
+    op = "metadata" if "--dump-json" in args else "download"
+
+    log(op, "start", video_id)
+    try:
+        if FAIL_URL and FAIL_URL in url:
+            sys.stderr.write("ERROR: [youtube] %s: Private video\n" % video_id)
+            return 1
+        if op == "metadata":
+            if SLOW_URL and SLOW_URL in url:
+                time.sleep(SLOW_SECONDS)
+            print(json.dumps({
+                "id": video_id,
+                "title": "Video %s" % video_id,
+                "duration": 213,
+                "formats": [
+                    {"vcodec": "none", "acodec": "opus", "abr": 135.2, "ext": "webm", "filesize": FILE_BYTES},
+                ],
+            }))
+        else:
+            output = args[args.index("-o") + 1]
+            if output == "-":
+                sys.stdout.buffer.write(b"\0" * FILE_BYTES)
+            else:
+                with open(output, "wb") as f:
+                    f.write(b"\0" * FILE_BYTES)
+        return 0
+    finally:
+        log(op, "end", video_id)
+
+
+if __name__ == "__main__":
+    sys.exit(main())